@@ -0,0 +1,74 @@
+package org.kitteh.irc.client.library;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A registered client connected to a local server which discards all
+ * output, for benchmarks feeding lines straight into the client.
+ */
+final class BenchmarkClient {
+    static final String NICK = "Kitteh";
+
+    private final IRCClient client;
+    private final ServerSocket server;
+
+    BenchmarkClient() throws IOException {
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread sink = new Thread(() -> {
+            try (Socket socket = this.server.accept(); InputStream in = socket.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // Discard
+                }
+            } catch (IOException ignored) {
+            }
+        }, "Benchmark sink");
+        sink.setDaemon(true);
+        sink.start();
+        this.client = (IRCClient) new ClientBuilder().nick(NICK).server("127.0.0.1").server(this.server.getLocalPort()).build();
+        this.client.handleLine(":irc.test 001 " + NICK + " :Welcome");
+        this.client.handleLine(":irc.test 004 " + NICK + " irc.test bench-1.0 iow biklmnopstv");
+        this.client.handleLine(":irc.test 005 " + NICK + " CASEMAPPING=rfc1459 CHANTYPES=# PREFIX=(ov)@+ CHANMODES=b,k,l,imnpst :are supported by this server");
+    }
+
+    IRCClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * Joins a channel, filling it with users from a NAMES reply.
+     *
+     * @param channel channel name
+     * @param users number of other users
+     */
+    void join(String channel, int users) {
+        this.client.handleLine(':' + NICK + "!kitteh@bench JOIN " + channel);
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < users; i++) {
+            if (names.length() > 0) {
+                names.append(' ');
+            }
+            if (i % 10 == 0) {
+                names.append('@');
+            } else if (i % 5 == 0) {
+                names.append('+');
+            }
+            names.append("User").append(i).append("!user@host.").append(i);
+            if (i % 50 == 49) {
+                this.client.handleLine(":irc.test 353 " + NICK + " = " + channel + " :" + names);
+                names.setLength(0);
+            }
+        }
+        this.client.handleLine(":irc.test 353 " + NICK + " = " + channel + " :" + names + (names.length() > 0 ? " " : "") + "@" + NICK + "!kitteh@bench");
+        this.client.handleLine(":irc.test 366 " + NICK + " " + channel + " :End of /NAMES list.");
+    }
+
+    void shutdown() throws IOException {
+        this.client.shutdown("Done");
+        this.server.close();
+    }
+}
@@ -0,0 +1,37 @@
+package org.kitteh.irc.client.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks, encodes and decodes CTCP messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CTCPUtilBenchmark {
+    private final String plain = "Just a regular message without anything special in it";
+    private final String message = "ACTION waves at everyone \\ with a backslash";
+    private final String ctcp = CTCPUtil.toCTCP(this.message);
+
+    @Benchmark
+    public String fromCTCP() {
+        return CTCPUtil.fromCTCP(this.ctcp);
+    }
+
+    @Benchmark
+    public boolean isCTCP() {
+        return CTCPUtil.isCTCP(this.plain);
+    }
+
+    @Benchmark
+    public String toCTCP() {
+        return CTCPUtil.toCTCP(this.message);
+    }
+}
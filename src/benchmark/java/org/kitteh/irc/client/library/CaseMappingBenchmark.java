@@ -0,0 +1,30 @@
+package org.kitteh.irc.client.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lowercases nicks and channel names under each case mapping.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CaseMappingBenchmark {
+    @Param({"ASCII", "RFC1459", "STRICT_RFC1459"})
+    private CaseMapping caseMapping;
+
+    @Param({"lowercase", "Mixed[Case]Nick^", "#SomeLongerChannelName{With}Brackets"})
+    private String input;
+
+    @Benchmark
+    public String toLowerCase() {
+        return this.caseMapping.toLowerCase(this.input);
+    }
+}
@@ -0,0 +1,52 @@
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs channel messages, the cost the logger adds to the input thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ChannelLoggerBenchmark {
+    private BenchmarkClient benchmarkClient;
+    private ChannelLogger logger;
+    private ChannelMessageEvent event;
+
+    @Setup
+    public void setup() throws IOException {
+        this.benchmarkClient = new BenchmarkClient();
+        this.benchmarkClient.join("#bench", 10);
+        IRCClient client = this.benchmarkClient.getClient();
+        File directory = Files.createTempDirectory("kitteh").toFile();
+        directory.deleteOnExit();
+        this.logger = new ChannelLogger.Builder(client, directory).build();
+        Channel channel = client.getChannel("#bench");
+        this.event = new ChannelMessageEvent(client, channel.getUser("User1"), channel, "hello there, how is everyone doing today?");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.logger.close();
+        this.benchmarkClient.shutdown();
+    }
+
+    @Benchmark
+    public void message() {
+        this.logger.message(this.event);
+    }
+}
@@ -0,0 +1,63 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls events with and without a registered handler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EventManagerBenchmark {
+    public static class HandledEvent {
+        private int count;
+    }
+
+    public static class UnhandledEvent {
+    }
+
+    public static class Listener {
+        @Handler
+        public void handle(HandledEvent event) {
+            event.count++;
+        }
+    }
+
+    private final HandledEvent handledEvent = new HandledEvent();
+    private final UnhandledEvent unhandledEvent = new UnhandledEvent();
+    private TrafficReplay replay;
+    private EventManager eventManager;
+
+    @Setup
+    public void setup() {
+        this.replay = new TrafficReplay(new ClientBuilder().nick(BenchmarkClient.NICK));
+        this.eventManager = this.replay.getClient().getEventManager();
+        this.eventManager.registerEventListener(new Listener());
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.replay.close();
+    }
+
+    @Benchmark
+    public int callHandled() {
+        this.eventManager.callEvent(this.handledEvent);
+        return this.handledEvent.count;
+    }
+
+    @Benchmark
+    public void callUnhandled() {
+        this.eventManager.callEvent(this.unhandledEvent);
+    }
+}
@@ -0,0 +1,56 @@
+package org.kitteh.irc.client.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and processes a mix of lines typical of a busy channel. The mix
+ * leaves channel state as it found it, so each pass is alike.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HandleLineBenchmark {
+    private static final String[] LINES = {
+            ":User1!user@host.1 PRIVMSG #bench :hello there, how is everyone doing today?",
+            ":User2!user@host.2 NOTICE #bench :Maintenance in ten minutes",
+            ":Joiner!user@host.joiner JOIN #bench",
+            ":User10!user@host.10 MODE #bench +v Joiner",
+            "@time=2015-06-01T12:00:00.000Z :User3!user@host.3 PRIVMSG #bench :tagged message",
+            ":User10!user@host.10 MODE #bench -v Joiner",
+            ":User4!user@host.4 PRIVMSG " + BenchmarkClient.NICK + " :private message",
+            ":Joiner!user@host.joiner PART #bench :Leaving",
+            ":irc.test 372 " + BenchmarkClient.NICK + " :- Message of the day line"
+    };
+
+    private BenchmarkClient benchmarkClient;
+    private IRCClient client;
+    private int index;
+
+    @Setup
+    public void setup() throws IOException {
+        this.benchmarkClient = new BenchmarkClient();
+        this.benchmarkClient.join("#bench", 1000);
+        this.client = this.benchmarkClient.getClient();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.benchmarkClient.shutdown();
+    }
+
+    @Benchmark
+    public void handleLine() {
+        this.client.handleLine(LINES[this.index]);
+        this.index = (this.index + 1) % LINES.length;
+    }
+}
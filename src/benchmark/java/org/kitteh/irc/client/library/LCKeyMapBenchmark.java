@@ -0,0 +1,60 @@
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.util.LCKeyMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up and updates a map of a thousand nicks by mixed case keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LCKeyMapBenchmark {
+    private static final int SIZE = 1000;
+
+    private BenchmarkClient benchmarkClient;
+    private Map<String, String> map;
+    private String[] keys;
+    private int index;
+
+    @Setup
+    public void setup() throws IOException {
+        this.benchmarkClient = new BenchmarkClient();
+        this.map = new LCKeyMap<>(this.benchmarkClient.getClient());
+        this.keys = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            this.keys[i] = "Nick[" + i + "]";
+            this.map.put(this.keys[i], this.keys[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.benchmarkClient.shutdown();
+    }
+
+    @Benchmark
+    public String get() {
+        this.index = (this.index + 1) % SIZE;
+        return this.map.get(this.keys[this.index]);
+    }
+
+    @Benchmark
+    public String putRemove() {
+        this.index = (this.index + 1) % SIZE;
+        String key = this.keys[this.index];
+        this.map.remove(key);
+        return this.map.put(key, key);
+    }
+}
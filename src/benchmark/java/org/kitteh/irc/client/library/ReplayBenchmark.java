@@ -0,0 +1,97 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a whole recording through a fresh client at maximum speed. Pass
+ * a production recording with {@code -p recording=<file>}, otherwise a
+ * session against the fake server is recorded first.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ReplayBenchmark {
+    public static class Listener {
+        private final CountDownLatch users = new CountDownLatch(1);
+        private final CountDownLatch messages;
+
+        private Listener(int messages) {
+            this.messages = new CountDownLatch(messages);
+        }
+
+        @Handler
+        public void message(ChannelMessageEvent event) {
+            this.messages.countDown();
+        }
+
+        @Handler
+        public void users(ChannelUsersUpdatedEvent event) {
+            this.users.countDown();
+        }
+    }
+
+    private static final int MESSAGES = 20000;
+
+    @Param("")
+    public String recording;
+
+    private File file;
+    private TrafficReplay replay;
+
+    @Setup(Level.Trial)
+    public void record() throws Exception {
+        if (!this.recording.isEmpty()) {
+            this.file = new File(this.recording);
+            return;
+        }
+        this.file = File.createTempFile("kitteh", ".rec");
+        this.file.deleteOnExit();
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            server.setChannelUsers(1000);
+            Client client = server.clientBuilder().nick(BenchmarkClient.NICK).recordInput(this.file).build();
+            Listener listener = new Listener(MESSAGES);
+            client.getEventManager().registerEventListener(listener);
+            client.addChannel("#bench");
+            if (!listener.users.await(30, TimeUnit.SECONDS)) {
+                throw new IOException("Never joined");
+            }
+            server.sendTraffic("#bench", 20000, MESSAGES);
+            if (!listener.messages.await(60, TimeUnit.SECONDS)) {
+                throw new IOException("Traffic not delivered");
+            }
+            client.shutdown("Done");
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        this.replay = new TrafficReplay(new ClientBuilder().nick(BenchmarkClient.NICK));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        this.replay.close();
+    }
+
+    @Benchmark
+    public int replay() throws IOException, InterruptedException {
+        return this.replay.replay(this.file, TrafficReplay.Speed.MAXIMUM);
+    }
+}
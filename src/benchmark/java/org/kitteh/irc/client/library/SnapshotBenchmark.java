@@ -0,0 +1,46 @@
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.element.Channel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshots channels of various sizes, as done for every channel event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    @Param({"10", "1000", "10000"})
+    private int users;
+
+    private BenchmarkClient benchmarkClient;
+    private ActorProvider.IRCChannel channel;
+
+    @Setup
+    public void setup() throws IOException {
+        this.benchmarkClient = new BenchmarkClient();
+        this.benchmarkClient.join("#bench", this.users);
+        this.channel = this.benchmarkClient.getClient().getActorProvider().getChannel("#bench");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.benchmarkClient.shutdown();
+    }
+
+    @Benchmark
+    public Channel snapshot() {
+        return this.channel.snapshot();
+    }
+}
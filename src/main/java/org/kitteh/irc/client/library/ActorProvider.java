@@ -32,7 +32,9 @@ import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.util.LCKeyMap;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -94,22 +96,46 @@ class ActorProvider {
         }
     }
 
-    class IRCChannel extends IRCActor {
+    private static final class ChannelMembers {
         private final Map<String, Set<ChannelUserMode>> modes;
         private final Map<String, IRCUser> nickMap;
+
+        private ChannelMembers(Map<String, Set<ChannelUserMode>> modes, Map<String, IRCUser> nickMap) {
+            this.modes = modes;
+            this.nickMap = nickMap;
+        }
+    }
+
+    class IRCChannel extends IRCActor {
+        // Replaced as a whole, so snapshots never mix two membership lists
+        private volatile ChannelMembers members;
+        // Membership collected from NAMES replies, lowercased keys, until published
+        private Map<String, Set<ChannelUserMode>> namesModes;
+        private Map<String, IRCUser> namesNickMap;
         private volatile boolean fullListReceived;
-        private long lastWho = System.currentTimeMillis();
         private volatile boolean tracked;
 
         private IRCChannel(String channel, IRCClient client) {
             super(channel, client);
-            this.modes = new LCKeyMap<>(this.getClient());
-            this.nickMap = new LCKeyMap<>(this.getClient());
+            this.members = new ChannelMembers(new LCKeyMap<>(this.getClient()), new LCKeyMap<>(this.getClient()));
             ActorProvider.this.trackedChannels.put(channel, this);
         }
 
+        /**
+         * Gets the live map of member nicks to their modes.
+         *
+         * @return member modes
+         */
+        Map<String, Set<ChannelUserMode>> getMemberModes() {
+            return this.members.modes;
+        }
+
         IRCUser getUser(String nick) {
-            return this.nickMap.get(nick);
+            return this.members.nickMap.get(nick);
+        }
+
+        boolean isListReceived() {
+            return this.fullListReceived;
         }
 
         void setListReceived() {
@@ -121,25 +147,71 @@ class ActorProvider {
         }
 
         IRCChannelSnapshot snapshot() {
-            synchronized (this.modes) {
-                if (this.tracked && !this.fullListReceived) {
-                    long now = System.currentTimeMillis();
-                    if (now - this.lastWho > 5000) {
-                        this.lastWho = now;
-                        this.getClient().sendRawLine("WHO " + this.getName());
-                    }
-                }
+            return this.snapshot(false);
+        }
+
+        IRCChannelSnapshot snapshot(boolean priority) {
+            if (this.tracked && !this.fullListReceived) {
+                this.getClient().requestWho(this.getName(), priority); // Deduplicated by the scheduler
             }
-            return new IRCChannelSnapshot(this.getName(), this.modes, this.nickMap, this.getClient(), this.fullListReceived);
+            ChannelMembers members = this.members;
+            return new IRCChannelSnapshot(this.getName(), members.modes, members.nickMap, this.getClient(), this.fullListReceived);
         }
 
-        void trackNick(String nick, Set<ChannelUserMode> modes) {
-            this.getModes(nick).addAll(modes);
+        void trackNamesNick(String nick, Set<ChannelUserMode> modes) {
+            this.startNames();
+            String lowerNick = this.toLowerCase(nick);
+            Set<ChannelUserMode> set = this.namesModes.get(lowerNick);
+            if (set == null) {
+                this.namesModes.put(lowerNick, modes);
+            } else {
+                set.addAll(modes);
+            }
+        }
+
+        void trackNamesUser(IRCUser user, Set<ChannelUserMode> modes) {
+            this.startNames();
+            String lowerNick = this.toLowerCase(user.getNick());
+            this.namesNickMap.put(lowerNick, user);
+            this.namesModes.put(lowerNick, modes);
+        }
+
+        /**
+         * Replaces the membership with that collected from NAMES replies,
+         * keeping known users for nicks which arrived without a hostmask.
+         *
+         * @return true if every member has a known user
+         */
+        boolean publishNames() {
+            if (this.namesModes == null) {
+                return false;
+            }
+            Map<String, Set<ChannelUserMode>> newModes = new LCKeyMap<>(this.getClient());
+            Map<String, IRCUser> newNickMap = new LCKeyMap<>(this.getClient());
+            newModes.putAll(this.namesModes);
+            for (String lowerNick : this.namesModes.keySet()) {
+                IRCUser user = this.namesNickMap.get(lowerNick);
+                if (user == null) {
+                    user = this.members.nickMap.get(lowerNick);
+                }
+                if (user != null) {
+                    newNickMap.put(lowerNick, user);
+                }
+            }
+            this.namesModes = null;
+            this.namesNickMap = null;
+            this.members = new ChannelMembers(newModes, newNickMap);
+            return newNickMap.size() == newModes.size();
         }
 
         void trackUser(IRCUser user, Set<ChannelUserMode> modes) {
-            this.nickMap.put(user.getNick(), user);
-            this.modes.put(user.getNick(), modes == null ? new HashSet<>() : new HashSet<>(modes));
+            this.members.nickMap.put(user.getNick(), user);
+            this.members.modes.put(user.getNick(), modes == null ? new HashSet<>() : new HashSet<>(modes));
+            if (this.namesModes != null) {
+                String lowerNick = this.toLowerCase(user.getNick());
+                this.namesNickMap.put(lowerNick, user);
+                this.namesModes.putIfAbsent(lowerNick, modes == null ? new HashSet<>() : new HashSet<>(modes));
+            }
         }
 
         void trackUserJoin(IRCUser user) {
@@ -148,27 +220,87 @@ class ActorProvider {
 
         void trackUserModeAdd(String nick, ChannelUserMode mode) {
             this.getModes(nick).add(mode);
+            if (this.namesModes != null) {
+                this.namesModes.computeIfAbsent(this.toLowerCase(nick), key -> new HashSet<>()).add(mode);
+            }
         }
 
         void trackUserModeRemove(String nick, ChannelUserMode mode) {
             this.getModes(nick).remove(mode);
+            if (this.namesModes != null) {
+                Set<ChannelUserMode> set = this.namesModes.get(this.toLowerCase(nick));
+                if (set != null) {
+                    set.remove(mode);
+                }
+            }
+        }
+
+        void trackUserChange(IRCUser newUser) {
+            if (this.members.nickMap.containsKey(newUser.getNick())) {
+                this.members.nickMap.put(newUser.getNick(), newUser); // Membership and modes untouched
+            }
+            if (this.namesModes != null) {
+                this.namesNickMap.replace(this.toLowerCase(newUser.getNick()), newUser);
+            }
         }
 
         void trackUserNick(IRCUser oldUser, IRCUser newUser) {
-            this.nickMap.remove(oldUser.getNick());
-            this.trackUser(newUser, this.modes.remove(oldUser.getNick()));
+            Set<ChannelUserMode> namesModes = null;
+            if (this.namesModes != null) {
+                String oldLowerNick = this.toLowerCase(oldUser.getNick());
+                this.namesNickMap.remove(oldLowerNick);
+                namesModes = this.namesModes.remove(oldLowerNick);
+            }
+            this.members.nickMap.remove(oldUser.getNick());
+            this.trackUser(newUser, this.members.modes.remove(oldUser.getNick()));
+            if (namesModes != null) {
+                this.namesModes.put(this.toLowerCase(newUser.getNick()), namesModes);
+            }
         }
 
         void trackUserPart(IRCUser user) {
-            this.modes.remove(user.getNick());
-            this.nickMap.remove(user.getNick());
+            this.trackUserPart(this.toLowerCase(user.getNick()));
+        }
+
+        /**
+         * Removes several members at once, walking whichever of the members
+         * and the given nicks is smaller.
+         *
+         * @param lowerNicks lowercased nicks
+         */
+        void trackUsersPart(Set<String> lowerNicks) {
+            if (lowerNicks.size() < this.members.modes.size()) {
+                lowerNicks.forEach(this::trackUserPart);
+            } else {
+                new ArrayList<>(this.members.modes.keySet()).stream().filter(lowerNicks::contains).forEach(this::trackUserPart);
+            }
+        }
+
+        private void trackUserPart(String lowerNick) {
+            this.members.modes.remove(lowerNick);
+            this.members.nickMap.remove(lowerNick);
+            if (this.namesModes != null) {
+                this.namesModes.remove(lowerNick);
+                this.namesNickMap.remove(lowerNick);
+            }
+        }
+
+        private void startNames() {
+            if (this.namesModes == null) {
+                this.namesModes = new HashMap<>();
+                this.namesNickMap = new HashMap<>();
+            }
+        }
+
+        private String toLowerCase(String nick) {
+            return this.getClient().getServerInfo().getCaseMapping().toLowerCase(nick);
         }
 
         private Set<ChannelUserMode> getModes(String nick) {
-            Set<ChannelUserMode> set = this.modes.get(nick);
+            Set<ChannelUserMode> set = this.members.modes.get(nick);
             if (set == null) {
                 set = new HashSet<>();
-                this.modes.put(nick, set);
+                this.members.modes.put(nick, set);
             }
             return set;
         }
@@ -271,8 +403,11 @@ class ActorProvider {
     }
 
     class IRCUser extends IRCActor {
+        private volatile String account;
+        private volatile String awayMessage;
         private final String host;
         private final String nick;
+        private volatile String realName;
         private final String user;
 
         private IRCUser(String mask, String nick, String user, String host, IRCClient client) {
@@ -286,22 +421,58 @@ class ActorProvider {
             return this.nick;
         }
 
+        String getAccount() {
+            return this.account;
+        }
+
+        void setAccount(String account) {
+            this.account = account;
+        }
+
+        String getAwayMessage() {
+            return this.awayMessage;
+        }
+
+        void setAwayMessage(String awayMessage) {
+            this.awayMessage = awayMessage;
+        }
+
+        private void copyStateFrom(IRCUser user) {
+            this.account = user.account;
+            this.awayMessage = user.awayMessage;
+            this.realName = user.realName;
+        }
+
+        String getRealName() {
+            return this.realName;
+        }
+
+        void setRealName(String realName) {
+            this.realName = realName;
+        }
+
         IRCUserSnapshot snapshot() {
-            return new IRCUserSnapshot(this.getName(), this.nick, this.user, this.host, this.getClient());
+            return new IRCUserSnapshot(this.getName(), this.nick, this.user, this.host, this.account, this.awayMessage != null, this.realName, this.getClient());
         }
     }
 
     class IRCUserSnapshot extends IRCMessageReceiverSnapshot implements User {
+        private final String account;
+        private final boolean away;
         private final Set<String> channels;
         private final String host;
         private final String nick;
+        private final String realName;
         private final String user;
 
-        private IRCUserSnapshot(String mask, String nick, String user, String host, IRCClient client) {
+        private IRCUserSnapshot(String mask, String nick, String user, String host, String account, boolean away, String realName, IRCClient client) {
             super(mask, client);
+            this.away = away;
             this.nick = nick;
             this.user = user;
             this.host = host;
+            this.account = account;
+            this.realName = realName;
             this.channels = Collections.unmodifiableSet(ActorProvider.this.trackedChannels.values().stream().filter(channel -> channel.getUser(nick) != null).map(IRCChannel::getName).collect(Collectors.toSet()));
         }
 
@@ -310,6 +481,11 @@ class ActorProvider {
             return o instanceof IRCUserSnapshot && ((IRCUserSnapshot) o).getClient() == this.getClient() && this.toLowerCase(((IRCUserSnapshot) o).getName()).equals(this.toLowerCase((this.getName())));
         }
 
+        @Override
+        public String getAccount() {
+            return this.account;
+        }
+
         @Override
         public Set<String> getChannels() {
             return this.channels;
@@ -330,6 +506,16 @@ class ActorProvider {
             return this.nick;
         }
 
+        @Override
+        public boolean isAway() {
+            return this.away;
+        }
+
+        @Override
+        public String getRealName() {
+            return this.realName;
+        }
+
         @Override
         public String getUser() {
             return this.user;
@@ -387,13 +573,80 @@ class ActorProvider {
         return channel;
     }
 
+    /**
+     * Gets the tracked copy of a user, which holds state such as account
+     * and away status, from any channel in which the user is tracked.
+     *
+     * @param nick user nick
+     * @return tracked user or null if not in any tracked channel
+     */
+    IRCUser getTrackedUser(String nick) {
+        for (IRCChannel channel : this.trackedChannels.values()) {
+            IRCUser user = channel.getUser(nick);
+            if (user != null) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts distinct users across tracked channels.
+     *
+     * @return user count
+     */
+    int getTrackedUserCount() {
+        Set<String> nicks = new HashSet<>();
+        this.trackedChannels.values().forEach(channel -> nicks.addAll(channel.getMemberModes().keySet()));
+        return nicks.size();
+    }
+
+    void trackUserAccount(String nick, String account) {
+        this.trackedChannels.values().forEach(channel -> {
+            IRCUser user = channel.getUser(nick);
+            if (user != null) {
+                user.setAccount(account);
+            }
+        });
+    }
+
+    void trackUserAway(String nick, String awayMessage) {
+        this.trackedChannels.values().forEach(channel -> {
+            IRCUser user = channel.getUser(nick);
+            if (user != null) {
+                user.setAwayMessage(awayMessage);
+            }
+        });
+    }
+
+    IRCUser trackUserHostnameChange(IRCUser user, String newUserString, String newHost) {
+        IRCUser newUser = (IRCUser) this.getActor(user.getNick() + '!' + newUserString + '@' + newHost);
+        this.copyTrackedState(user.getNick(), newUser);
+        this.trackedChannels.values().forEach(channel -> channel.trackUserChange(newUser));
+        return newUser;
+    }
+
     IRCUser trackUserNick(IRCUser user, String newNick) {
         IRCUser newUser = (IRCUser) this.getActor(newNick + user.getName().substring(user.getName().indexOf('!'), user.getName().length()));
+        this.copyTrackedState(user.getNick(), newUser);
         this.trackedChannels.values().forEach(channel -> channel.trackUserNick(user, newUser));
         return newUser;
     }
 
+    private void copyTrackedState(String nick, IRCUser newUser) {
+        IRCUser tracked = this.getTrackedUser(nick);
+        if (tracked != null) {
+            newUser.copyStateFrom(tracked);
+        }
+    }
+
     void trackUserQuit(IRCUser user) {
         this.trackedChannels.values().forEach(channel -> channel.trackUserPart(user));
     }
+
+    void trackUserQuit(Collection<IRCUser> users) {
+        CaseMapping caseMapping = this.client.getServerInfo().getCaseMapping();
+        Set<String> lowerNicks = users.stream().map(user -> caseMapping.toLowerCase(user.getNick())).collect(Collectors.toSet());
+        this.trackedChannels.values().forEach(channel -> channel.trackUsersPart(lowerNicks));
+    }
 }
\ No newline at end of file
@@ -28,16 +28,52 @@ package org.kitteh.irc.client.library;
  */
 public enum AuthType {
     NICKSERV,
-    GAMESURGE(false);
+    GAMESURGE(false),
+    /**
+     * SASL PLAIN, authenticating with the name and password during
+     * capability negotiation, before registration completes.
+     */
+    SASL_PLAIN(true, "PLAIN"),
+    /**
+     * SASL EXTERNAL, authenticating with the client certificate set via
+     * {@link ClientBuilder#secureKeyCertChain(java.io.File)} during
+     * capability negotiation, so the client must be secure and have a
+     * certificate set. The name and password are not used.
+     */
+    SASL_EXTERNAL(true, "EXTERNAL");
 
     private final boolean nicksOwned;
+    private final String saslMechanism;
 
     AuthType() {
         this(true);
     }
 
     AuthType(boolean nickOwned) {
+        this(nickOwned, null);
+    }
+
+    AuthType(boolean nickOwned, String saslMechanism) {
         this.nicksOwned = nickOwned;
+        this.saslMechanism = saslMechanism;
+    }
+
+    /**
+     * Gets the SASL mechanism used by this type.
+     *
+     * @return the mechanism name or null if not SASL
+     */
+    String getSaslMechanism() {
+        return this.saslMechanism;
+    }
+
+    /**
+     * Is authentication performed via SASL during capability negotiation?
+     *
+     * @return true if SASL
+     */
+    public boolean isSasl() {
+        return this.saslMechanism != null;
     }
 
     /**
@@ -23,7 +23,10 @@
  */
 package org.kitteh.irc.client.library;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -31,6 +34,15 @@ import java.util.stream.Collectors;
  * I'm the CAP man!
  */
 class CapabilityManager {
+    /**
+     * Capabilities requested by the client whenever the server supports them.
+     */
+    private static final List<String> REQUESTED = Arrays.asList("account-notify", "account-tag", "away-notify", "batch", "chghost", "extended-join", "message-tags", "multi-prefix", "server-time", "userhost-in-names");
+    /**
+     * Capabilities which cause the server to send message tags.
+     */
+    private static final List<String> TAGGING = Arrays.asList("account-tag", "batch", "message-tags", "server-time");
+
     private final List<String> capabilities = new ArrayList<>();
     private List<String> supportedCapabilities = new ArrayList<>();
     private boolean negotiating = true;
@@ -46,10 +58,74 @@ class CapabilityManager {
         return new ArrayList<>(this.supportedCapabilities);
     }
 
+    /**
+     * Gets the capabilities the client wants out of those supported.
+     *
+     * @param capabilityStates capabilities supported by the server
+     * @param sasl true if SASL authentication is desired
+     * @return capabilities to request, possibly empty
+     */
+    List<String> getRequestedCapabilities(List<CapabilityState> capabilityStates, boolean sasl) {
+        return capabilityStates.stream().map(CapabilityState::getCapabilityName).filter(name -> REQUESTED.contains(name.toLowerCase()) || (sasl && name.equalsIgnoreCase("sasl"))).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the AUTHENTICATE arguments answering the server's empty
+     * challenge, split into the 400 byte chunks SASL over IRC requires.
+     *
+     * @param authType SASL auth type
+     * @param name account name
+     * @param pass account password
+     * @return arguments to send, in order
+     */
+    List<String> getSaslResponse(AuthType authType, String name, String pass) {
+        List<String> response = new ArrayList<>();
+        if (authType != AuthType.SASL_PLAIN) {
+            response.add("+"); // EXTERNAL relies on the client certificate
+            return response;
+        }
+        String encoded = Base64.getEncoder().encodeToString((name + '\0' + name + '\0' + pass).getBytes(StandardCharsets.UTF_8));
+        for (int start = 0; start < encoded.length(); start += 400) {
+            response.add(encoded.substring(start, Math.min(start + 400, encoded.length())));
+        }
+        if (encoded.length() % 400 == 0) {
+            response.add("+"); // Empty final chunk
+        }
+        return response;
+    }
+
+    /**
+     * Gets if a capability has been acknowledged by the server.
+     *
+     * @param name capability name
+     * @return true if enabled
+     */
+    boolean isCapabilityEnabled(String name) {
+        return this.capabilities.stream().anyMatch(name::equalsIgnoreCase);
+    }
+
     boolean isNegotiating() {
         return this.negotiating;
     }
 
+    /**
+     * Gets if an enabled capability causes the server to tag messages.
+     *
+     * @return true if message tags may be received
+     */
+    boolean isTagging() {
+        return this.capabilities.stream().anyMatch(name -> TAGGING.contains(name.toLowerCase()));
+    }
+
+    /**
+     * Resets to the state of a fresh connection.
+     */
+    void reset() {
+        this.capabilities.clear();
+        this.supportedCapabilities = new ArrayList<>();
+        this.negotiating = true;
+    }
+
     void endNegotiation() {
         this.negotiating = false;
     }
@@ -0,0 +1,187 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import javax.net.ssl.SSLEngine;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the certificates a client has accepted, by server and SHA-256
+ * fingerprint, so the same certificate is trusted again from the same
+ * server without asking. A certificate accepted for one server is not
+ * trusted for any other.
+ * <p>
+ * Pins are kept in memory, and optionally in a file shared by every client
+ * configured with that file. Each line holds a server, as host:port with
+ * IPv6 hosts in brackets, then whitespace and the hexadecimal fingerprint.
+ * Lines starting with # are ignored.
+ */
+final class CertificatePins {
+    private static final Map<File, CertificatePins> FILES = new ConcurrentHashMap<>();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Gets the pins kept in a file, loading it if not yet loaded.
+     *
+     * @param file file of pins, which need not exist yet
+     * @return pins
+     * @throws IOException if the file could not be read
+     */
+    static CertificatePins forFile(File file) throws IOException {
+        File canonical = file.getCanonicalFile();
+        CertificatePins pins = FILES.get(canonical);
+        if (pins == null) {
+            CertificatePins loaded = new CertificatePins(canonical);
+            loaded.load();
+            pins = FILES.putIfAbsent(canonical, loaded);
+            if (pins == null) {
+                pins = loaded;
+            }
+        }
+        return pins;
+    }
+
+    /**
+     * Gets the fingerprint of a certificate.
+     *
+     * @param certificate certificate
+     * @return lowercase hexadecimal SHA-256 of the encoded certificate
+     * @throws CertificateEncodingException if the certificate can't be
+     * encoded
+     */
+    static String fingerprint(X509Certificate certificate) throws CertificateEncodingException {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every JRE", e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            hex[(i * 2) + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Gets the server an engine is connecting to, as pinned.
+     *
+     * @param engine engine of a connection
+     * @return host:port, or null if the engine doesn't know its peer
+     */
+    static String server(SSLEngine engine) {
+        String host = engine.getPeerHost();
+        if (host == null || engine.getPeerPort() <= 0) {
+            return null;
+        }
+        host = host.toLowerCase(Locale.ENGLISH);
+        return (host.indexOf(':') >= 0 ? '[' + host + ']' : host) + ':' + engine.getPeerPort();
+    }
+
+    private final File file;
+    private final Set<String> pins = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates pins kept only in memory, or in the given file.
+     *
+     * @param file file of pins, or null for none
+     */
+    CertificatePins(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Gets if a certificate has been accepted before from a server.
+     *
+     * @param server server, per {@link #server(SSLEngine)}
+     * @param certificate certificate
+     * @return true if pinned
+     */
+    boolean isPinned(String server, X509Certificate certificate) {
+        try {
+            return this.pins.contains(server + ' ' + fingerprint(certificate));
+        } catch (CertificateEncodingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Pins a certificate accepted from a server, adding it to the file if
+     * there is one.
+     *
+     * @param server server, per {@link #server(SSLEngine)}
+     * @param certificate certificate
+     * @throws IOException if the pin could not be written
+     */
+    void pin(String server, X509Certificate certificate) throws IOException {
+        String pin;
+        try {
+            pin = server + ' ' + fingerprint(certificate);
+        } catch (CertificateEncodingException e) {
+            throw new IOException("Certificate could not be encoded", e);
+        }
+        if (this.pins.add(pin) && this.file != null) {
+            synchronized (this) {
+                try (Writer writer = Files.newBufferedWriter(this.file.toPath(), StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(pin + '\n');
+                }
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (!this.file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(this.file.toPath(), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] split = line.split("\\s+");
+                if (split.length != 2) {
+                    throw new IOException("Malformed pin in " + this.file + ": " + line);
+                }
+                this.pins.add(split[0].toLowerCase(Locale.ENGLISH) + ' ' + split[1].toLowerCase(Locale.ENGLISH));
+            }
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.channel.ChannelCTCPEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelKickEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelModeEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelNoticeEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelTopicEvent;
+import org.kitteh.irc.client.library.event.user.UserNickChangeEvent;
+import org.kitteh.irc.client.library.event.user.UserQuitEvent;
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a log file per channel from a client's events, as an alternative
+ * to formatting raw lines from an input listener.
+ * <p>
+ * Each log is a series of segment files, mapped into memory at their full
+ * size when created, so appending a line is a copy into memory without a
+ * system call. A background thread writes segments to disk according to
+ * the {@link SyncPolicy}, rotates segments older than the rotation
+ * interval and trims each segment to its contents when it's rotated, full
+ * or aged. It also opens each channel's next segment ahead of time, so
+ * lines are never held up creating files. Logs are written to
+ * {@code directory/channel/yyyy-MM-dd_HH-mm-ss.SSS.log}, the channel named in
+ * lower case with characters unsafe in file names percent-encoded as UTF-8,
+ * so distinct channels never share a directory.
+ * <pre>
+ * ChannelLogger logger = new ChannelLogger.Builder(client, new File("logs")).syncPolicy(ChannelLogger.SyncPolicy.INTERVAL).build();
+ * </pre>
+ */
+public final class ChannelLogger implements AutoCloseable {
+    /**
+     * When written log lines are forced to disk. Unforced lines are still
+     * written back by the operating system, but may be lost if it crashes.
+     */
+    public enum SyncPolicy {
+        /**
+         * Never force, leaving write back to the operating system.
+         */
+        NONE,
+        /**
+         * Force a segment when it's rotated or the logger is closed.
+         */
+        ROTATION,
+        /**
+         * As {@link #ROTATION}, and also force every segment written to
+         * since the last sync each interval, committing all lines written
+         * in that time at once.
+         */
+        INTERVAL
+    }
+
+    /**
+     * Builds a {@link ChannelLogger}.
+     */
+    public static final class Builder {
+        private final IRCClient client;
+        private final File directory;
+        private int segmentSize = 4 * 1024 * 1024;
+        private long rotationInterval = TimeUnit.DAYS.toMillis(1);
+        private SyncPolicy syncPolicy = SyncPolicy.INTERVAL;
+        private long syncInterval = 1000;
+
+        /**
+         * Starts building a logger.
+         *
+         * @param client client whose channels are logged
+         * @param directory directory to write logs under
+         * @throws IllegalArgumentException for null or unsupported
+         * parameters
+         */
+        public Builder(Client client, File directory) {
+            Sanity.nullCheck(client, "Client cannot be null");
+            Sanity.truthiness(client instanceof IRCClient, "Client must be built by ClientBuilder");
+            Sanity.nullCheck(directory, "Directory cannot be null");
+            this.client = (IRCClient) client;
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the size at which segments are rotated. By default, 4 MiB.
+         *
+         * @param bytes size of each segment, at least 64 KiB
+         * @return this builder
+         * @throws IllegalArgumentException for a size below 64 KiB
+         */
+        public Builder segmentSize(int bytes) {
+            Sanity.truthiness(bytes >= 65536, "Segment size must be at least 64 KiB");
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the age at which segments are rotated. By default, one day.
+         *
+         * @param interval interval
+         * @param unit unit of the interval
+         * @return this builder
+         * @throws IllegalArgumentException for a non-positive interval
+         */
+        public Builder rotationInterval(long interval, TimeUnit unit) {
+            Sanity.nullCheck(unit, "Unit cannot be null");
+            Sanity.truthiness(interval > 0, "Interval must be positive");
+            this.rotationInterval = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Sets when log lines are forced to disk. By default,
+         * {@link SyncPolicy#INTERVAL} every second.
+         *
+         * @param syncPolicy sync policy
+         * @return this builder
+         */
+        public Builder syncPolicy(SyncPolicy syncPolicy) {
+            Sanity.nullCheck(syncPolicy, "Sync policy cannot be null");
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the interval between syncs under {@link SyncPolicy#INTERVAL}.
+         * By default, one second.
+         *
+         * @param interval interval
+         * @param unit unit of the interval
+         * @return this builder
+         * @throws IllegalArgumentException for a non-positive interval
+         */
+        public Builder syncInterval(long interval, TimeUnit unit) {
+            Sanity.nullCheck(unit, "Unit cannot be null");
+            Sanity.truthiness(unit.toMillis(interval) > 0, "Interval must be at least a millisecond");
+            this.syncInterval = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Creates the logger and registers it with the client's event
+         * manager.
+         *
+         * @return the logger
+         */
+        public ChannelLogger build() {
+            ChannelLogger logger = new ChannelLogger(this);
+            this.client.getEventManager().registerEventListener(logger);
+            return logger;
+        }
+    }
+
+    private final class Segment {
+        private final Path path;
+        private final FileChannel fileChannel;
+        private final MappedByteBuffer buffer;
+        private long created = System.currentTimeMillis(); // Reset when a spare is put to use
+        private volatile int written;
+        private int synced;
+
+        private Segment(Path path) throws IOException {
+            this.path = path;
+            this.fileChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, ChannelLogger.this.segmentSize);
+        }
+
+        // Only called from the sync thread
+        private void sync() {
+            int written = this.written;
+            if (written > this.synced) {
+                this.buffer.force();
+                this.synced = written;
+            }
+        }
+
+        private void close() throws IOException {
+            if (ChannelLogger.this.syncPolicy != SyncPolicy.NONE) {
+                this.sync();
+            }
+            try {
+                this.fileChannel.truncate(this.written);
+            } catch (IOException ignored) {
+                // Platforms which refuse to truncate a mapped file keep the trailing zeroes
+            }
+            this.fileChannel.close();
+            if (this.written == 0) { // A spare never used
+                Files.deleteIfExists(this.path);
+            }
+        }
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final DateTimeFormatter FILE_NAME = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss.SSS");
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss ");
+
+    private final IRCClient client;
+    private final Path directory;
+    private final int segmentSize;
+    private final long rotationInterval;
+    private final SyncPolicy syncPolicy;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ScheduledExecutorService syncer;
+    private final Map<String, Segment> segments = new HashMap<>();
+    private final Map<String, Segment> spares = new HashMap<>();
+    private final Set<Segment> active = new CopyOnWriteArraySet<>();
+    private final StringBuilder builder = new StringBuilder(512);
+    private long timestampSecond = -1;
+    private String timestamp;
+    private boolean closed;
+
+    private ChannelLogger(Builder builder) {
+        this.client = builder.client;
+        this.directory = builder.directory.toPath();
+        this.segmentSize = builder.segmentSize;
+        this.rotationInterval = builder.rotationInterval;
+        this.syncPolicy = builder.syncPolicy;
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Kitteh IRC Client Channel Logger (" + this.client.getName() + ")");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (this.syncPolicy == SyncPolicy.INTERVAL) {
+            this.syncer.scheduleWithFixedDelay(this::syncAll, builder.syncInterval, builder.syncInterval, TimeUnit.MILLISECONDS);
+        }
+        // Quiet channels still rotate on time, rather than with their next line
+        long agePeriod = Math.min(this.rotationInterval, 1000);
+        this.syncer.scheduleWithFixedDelay(this::retireAged, agePeriod, agePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Unregisters from the client, then rotates out and closes every open
+     * segment, waiting up to ten seconds for them to be written.
+     */
+    @Override
+    public void close() {
+        this.client.getEventManager().unregisterEventListener(this);
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.segments.values().forEach(this::retire);
+            this.segments.clear();
+            this.spares.values().forEach(this::retire);
+            this.spares.clear();
+        }
+        this.syncer.shutdown();
+        try {
+            this.syncer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Logs a channel message.
+     *
+     * @param event event
+     */
+    @Handler
+    public void message(ChannelMessageEvent event) {
+        this.log(event.getChannel(), this.start().append('<').append(event.getActor().getNick()).append("> ").append(event.getMessage()));
+    }
+
+    /**
+     * Logs a channel notice.
+     *
+     * @param event event
+     */
+    @Handler
+    public void notice(ChannelNoticeEvent event) {
+        this.log(event.getChannel(), this.start().append('-').append(event.getActor().getNick()).append("- ").append(event.getMessage()));
+    }
+
+    /**
+     * Logs a channel action.
+     *
+     * @param event event
+     */
+    @Handler
+    public void ctcp(ChannelCTCPEvent event) {
+        if (event.getMessage().startsWith("ACTION ")) {
+            this.log(event.getChannel(), this.start().append("* ").append(event.getActor().getNick()).append(' ').append(event.getMessage(), 7, event.getMessage().length()));
+        }
+    }
+
+    /**
+     * Logs a user joining.
+     *
+     * @param event event
+     */
+    @Handler
+    public void join(ChannelJoinEvent event) {
+        User user = event.getActor();
+        this.log(event.getChannel(), this.start().append("--> ").append(user.getNick()).append(" (").append(user.getUser()).append('@').append(user.getHost()).append(") joined"));
+    }
+
+    /**
+     * Logs a user leaving.
+     *
+     * @param event event
+     */
+    @Handler
+    public void part(ChannelPartEvent event) {
+        this.log(event.getChannel(), this.reason(this.start().append("<-- ").append(event.getActor().getNick()).append(" left"), event.getMessage()));
+    }
+
+    /**
+     * Logs a user being kicked.
+     *
+     * @param event event
+     */
+    @Handler
+    public void kick(ChannelKickEvent event) {
+        this.log(event.getChannel(), this.reason(this.start().append("<-- ").append(event.getTarget().getNick()).append(" was kicked by ").append(event.getActor().getNick()), event.getMessage()));
+    }
+
+    /**
+     * Logs a user quitting, in each channel they were in.
+     *
+     * @param event event
+     */
+    @Handler
+    public void quit(UserQuitEvent event) {
+        for (String channel : event.getActor().getChannels()) {
+            this.log(channel, this.reason(this.start().append("<-- ").append(event.getActor().getNick()).append(" quit"), event.getMessage()));
+        }
+    }
+
+    /**
+     * Logs a nick change, in each channel the user is in.
+     *
+     * @param event event
+     */
+    @Handler
+    public void nick(UserNickChangeEvent event) {
+        for (String channel : event.getActor().getChannels()) {
+            this.log(channel, this.start().append("--- ").append(event.getActor().getNick()).append(" is now ").append(event.getNewUser().getNick()));
+        }
+    }
+
+    /**
+     * Logs a topic change.
+     *
+     * @param event event
+     */
+    @Handler
+    public void topic(ChannelTopicEvent event) {
+        this.log(event.getChannel(), this.start().append("--- ").append(event.getActor().getName()).append(" set the topic: ").append(event.getMessage()));
+    }
+
+    /**
+     * Logs a channel mode change.
+     *
+     * @param event event
+     */
+    @Handler
+    public void mode(ChannelModeEvent event) {
+        StringBuilder line = this.start().append("--- ").append(event.getActor().getName()).append(" set mode ").append(event.isSetting() ? '+' : '-').append(event.getMode());
+        if (event.getArgument() != null) {
+            line.append(' ').append(event.getArgument());
+        }
+        this.log(event.getChannel(), line);
+    }
+
+    private StringBuilder reason(StringBuilder line, String reason) {
+        if (reason != null && !reason.isEmpty()) {
+            line.append(" (").append(reason).append(')');
+        }
+        return line;
+    }
+
+    private StringBuilder start() {
+        return new StringBuilder(128);
+    }
+
+    private void log(Channel channel, StringBuilder line) {
+        this.log(channel.getName(), line);
+    }
+
+    private synchronized void log(String channelName, StringBuilder line) {
+        if (this.closed) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        this.builder.setLength(0);
+        this.builder.append(this.timestamp(now)).append(line).append('\n');
+        byte[] bytes = this.builder.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > this.segmentSize) {
+            byte[] truncated = new byte[this.segmentSize];
+            System.arraycopy(bytes, 0, truncated, 0, this.segmentSize - 1);
+            truncated[this.segmentSize - 1] = '\n';
+            bytes = truncated;
+        }
+
+        final String name = this.client.getServerInfo().getCaseMapping().toLowerCase(channelName);
+        Segment segment = this.segments.get(name);
+        if (segment != null && (segment.buffer.remaining() < bytes.length || (now - segment.created) >= this.rotationInterval)) {
+            this.retire(segment);
+            segment = null;
+        }
+        if (segment == null) {
+            segment = this.spares.remove(name);
+            if (segment != null) {
+                segment.created = now;
+            } else { // First line of the channel, or its spare isn't ready yet
+                try {
+                    segment = this.open(name, now);
+                } catch (IOException e) {
+                    this.segments.remove(name);
+                    this.client.getExceptionListener().queue(e);
+                    return;
+                }
+            }
+            this.segments.put(name, segment);
+            this.prepareSpare(name);
+        }
+        segment.buffer.put(bytes);
+        segment.written = segment.buffer.position();
+    }
+
+    private String timestamp(long now) {
+        long second = now / 1000;
+        if (second != this.timestampSecond) {
+            this.timestampSecond = second;
+            this.timestamp = TIMESTAMP.format(Instant.ofEpochSecond(second).atZone(this.zone));
+        }
+        return this.timestamp;
+    }
+
+    private Segment open(String channelName, long now) throws IOException {
+        Path channelDirectory = this.directory.resolve(fileName(channelName));
+        Files.createDirectories(channelDirectory);
+        String base = FILE_NAME.format(Instant.ofEpochMilli(now).atZone(this.zone));
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Segment segment = new Segment(channelDirectory.resolve(attempt == 0 ? (base + ".log") : (base + '_' + attempt + ".log")));
+                this.active.add(segment);
+                return segment;
+            } catch (FileAlreadyExistsException ignored) {
+                // Rotated more than once this second
+            }
+        }
+    }
+
+    private void prepareSpare(String channelName) {
+        this.syncer.execute(() -> {
+            Segment spare;
+            try {
+                spare = this.open(channelName, System.currentTimeMillis());
+            } catch (IOException e) {
+                this.client.getExceptionListener().queue(e);
+                return;
+            }
+            synchronized (this) {
+                Segment current = this.segments.get(channelName);
+                // Files are read in name order, so drop a spare named before a segment opened meanwhile
+                boolean ordered = current == null || current.path.getFileName().compareTo(spare.path.getFileName()) < 0;
+                if (!this.closed && ordered && !this.spares.containsKey(channelName)) {
+                    this.spares.put(channelName, spare);
+                    return;
+                }
+            }
+            this.close(spare); // Already on the syncer, which may be shutting down
+        });
+    }
+
+    private synchronized void retireAged() {
+        if (this.closed) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        this.segments.values().removeIf(segment -> {
+            if ((now - segment.created) >= this.rotationInterval) {
+                this.retire(segment);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void retire(Segment segment) {
+        this.syncer.execute(() -> this.close(segment));
+    }
+
+    private void close(Segment segment) {
+        this.active.remove(segment);
+        try {
+            segment.close();
+        } catch (IOException e) {
+            this.client.getExceptionListener().queue(e);
+        }
+    }
+
+    private void syncAll() {
+        for (Segment segment : this.active) {
+            segment.sync();
+        }
+    }
+
+    /**
+     * Gets the name of a channel's directory. Characters other than lower
+     * case letters, digits and #&amp;-_.+! are percent-encoded as UTF-8,
+     * so no two names share a directory, even on case insensitive file
+     * systems.
+     *
+     * @param channelName channel name
+     * @return directory name
+     */
+    static String fileName(String channelName) {
+        StringBuilder builder = new StringBuilder(channelName.length());
+        for (byte b : channelName.getBytes(StandardCharsets.UTF_8)) {
+            if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '#' || b == '&' || b == '-' || b == '_' || b == '.' || b == '+' || b == '!') {
+                builder.append((char) b);
+            } else {
+                builder.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -69,6 +69,14 @@ public interface Client {
      */
     Set<Channel> getChannels();
 
+    /**
+     * Gets the client's command handler manager, for handling commands and
+     * numerics not processed by the client.
+     *
+     * @return the command handler manager for this client
+     */
+    CommandHandlerManager getCommandHandlerManager();
+
     /**
      * Gets the client's event manager.
      *
@@ -96,6 +104,14 @@ public interface Client {
      */
     int getMessageDelay();
 
+    /**
+     * Gets the client's metrics, such as lines sent and received and time
+     * spent handling them.
+     *
+     * @return the metrics for this client
+     */
+    Metrics getMetrics();
+
     /**
      * Gets the client name. This name is just an internal name for reference
      * and is not visible from IRC.
@@ -111,6 +127,14 @@ public interface Client {
      */
     String getNick();
 
+    /**
+     * Gets the client's presence tracker, for following whether nicks are
+     * online.
+     *
+     * @return the presence tracker for this client
+     */
+    PresenceTracker getPresenceTracker();
+
     /**
      * Gets information about the server to which the client is currently
      * connected. As long as the client remains connected the information
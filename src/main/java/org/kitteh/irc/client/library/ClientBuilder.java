@@ -27,6 +27,9 @@ import org.kitteh.irc.client.library.util.Sanity;
 
 import java.io.File;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 /**
@@ -92,6 +95,36 @@ public final class ClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Sets the maximum length of an incoming line, excluding the line
+     * break. Longer lines are dropped and reported to the exception
+     * listener.
+     * <p>
+     * By default, the limit is 512 bytes, raised to 8703 bytes once the
+     * server acknowledges a capability which adds message tags.
+     *
+     * @param length maximum line length in bytes
+     * @return this builder
+     */
+    public ClientBuilder inputMaxLineLength(int length) {
+        Sanity.truthiness(length >= 512, "Length must be at least 512");
+        this.config.set(Config.INPUT_MAX_LINE_LENGTH, length);
+        return this;
+    }
+
+    /**
+     * Sets whether the client's {@link Metrics} are registered with the
+     * platform MBean server, as a {@link MetricsMXBean}. By default, they
+     * are not.
+     *
+     * @param jmx true to register
+     * @return this builder
+     */
+    public ClientBuilder jmxMetrics(boolean jmx) {
+        this.config.set(Config.METRICS_JMX, jmx);
+        return this;
+    }
+
     /**
      * Sets a listener for all thrown exceptions on this client.
      * <p>
@@ -131,6 +164,19 @@ public final class ClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Sets the manager whose shared event loop and worker threads the
+     * client uses, and whose global listeners it receives events on. By
+     * default, a client has threads of its own.
+     *
+     * @param manager client manager, or null for none
+     * @return this builder
+     */
+    public ClientBuilder manager(ClientManager manager) {
+        this.config.set(Config.MANAGER, manager);
+        return this;
+    }
+
     /**
      * Names the client, for internal labeling.
      *
@@ -193,6 +239,21 @@ public final class ClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Sets when the client reconnects after losing its connection. Clients
+     * sharing a policy also share its limit on simultaneous attempts.
+     * <p>
+     * By default, clients share a policy of exponential backoff with
+     * jitter, from five seconds up to five minutes.
+     *
+     * @param policy reconnect policy, or null to never reconnect
+     * @return this builder
+     */
+    public ClientBuilder reconnectPolicy(ReconnectPolicy policy) {
+        this.config.set(Config.RECONNECT_POLICY, policy);
+        return this;
+    }
+
     /**
      * Sets whether the client connects via SSL.
      *
@@ -204,6 +265,24 @@ public final class ClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Sets whether secure connections use OpenSSL, or BoringSSL, through
+     * netty-tcnative rather than the JDK's implementation, for cheaper
+     * handshakes. Falls back to the JDK if netty-tcnative is not available
+     * or a {@link #secureKeyCertChain(File) client certificate} is set, as
+     * the OpenSSL client does not support them.
+     * <p>
+     * By default, the JDK is used.
+     *
+     * @param openSsl true to use OpenSSL where available
+     * @return this builder
+     * @see #secure(boolean)
+     */
+    public ClientBuilder secureOpenSsl(boolean openSsl) {
+        this.config.set(Config.SSL_OPENSSL, openSsl);
+        return this;
+    }
+
     /**
      * Sets the public key for SSL connection.
      *
@@ -240,6 +319,23 @@ public final class ClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Sets a file in which to keep the fingerprints of accepted server
+     * certificates, so they are trusted on later runs without firing
+     * {@link org.kitteh.irc.client.library.event.client.SSLCertificateAcceptEvent}.
+     * Accepted certificates are always remembered for the life of the
+     * client, and only trusted again from the server which presented them.
+     *
+     * @param trustFile file of host:port and SHA-256 fingerprint pairs, one
+     * per line, or null to keep them only in memory
+     * @return this builder
+     * @see #secure(boolean)
+     */
+    public ClientBuilder secureTrustFile(File trustFile) {
+        this.config.set(Config.SSL_TRUST_FILE, trustFile);
+        return this;
+    }
+
     /**
      * Sets the delay between messages being sent to the server
      *
@@ -280,6 +376,72 @@ public final class ClientBuilder implements Cloneable {
         return this;
     }
 
+    /**
+     * Adds a server to connect to if the primary server, set via
+     * {@link #server(String)} and {@link #server(int)}, can't be reached.
+     * The host is resolved each time it's connected to.
+     *
+     * @param host IRC server host
+     * @param port IRC server port
+     * @return this builder
+     * @throws IllegalArgumentException for null host or invalid port
+     * @see #serverSelection(ServerSelection)
+     */
+    public ClientBuilder fallbackServer(String host, int port) {
+        Sanity.nullCheck(host, "Host cannot be null");
+        Sanity.truthiness(port > 0 && port <= 65535, "Port must be between 1 and 65535");
+        InetSocketAddress[] fallbacks = this.config.get(Config.SERVER_FALLBACKS);
+        fallbacks = Arrays.copyOf(fallbacks, fallbacks.length + 1);
+        fallbacks[fallbacks.length - 1] = InetSocketAddress.createUnresolved(host, port);
+        this.config.set(Config.SERVER_FALLBACKS, fallbacks);
+        return this;
+    }
+
+    /**
+     * Sets the order in which the primary and fallback servers are tried.
+     * <p>
+     * By default, {@link ServerSelection#PRIORITY}.
+     *
+     * @param selection server ordering
+     * @return this builder
+     * @throws IllegalArgumentException for null selection
+     */
+    public ClientBuilder serverSelection(ServerSelection selection) {
+        Sanity.nullCheck(selection, "Selection cannot be null");
+        this.config.set(Config.SERVER_SELECTION, selection);
+        return this;
+    }
+
+    /**
+     * Sets a file to which every line received from the server is appended,
+     * with the time it arrived, for later playback with a
+     * {@link TrafficReplay}. Recordings contain everything the server sent,
+     * including private messages and any authentication exchange, so should
+     * be stored accordingly.
+     *
+     * @param recording file to record to, or null to not record
+     * @return this builder
+     */
+    public ClientBuilder recordInput(File recording) {
+        this.config.set(Config.RECORD_INPUT, recording);
+        return this;
+    }
+
+    /**
+     * Sets a file in which to keep channel, user and server state between
+     * runs. The state is saved periodically and on shutdown, and loaded
+     * when the client is built so it is available before the connection
+     * completes. Loaded state is provisional until replaced by the
+     * server's own replies after rejoining.
+     *
+     * @param stateFile state file, or null to not keep state
+     * @return this builder
+     */
+    public ClientBuilder stateFile(File stateFile) {
+        this.config.set(Config.STATE_FILE, stateFile);
+        return this;
+    }
+
     /**
      * Sets the user the client connects as.
      * <p>
@@ -299,15 +461,51 @@ public final class ClientBuilder implements Cloneable {
 
     /**
      * Clientmaker, clientmaker, make me a client!
+     * <p>
+     * The client connects in the background, so this returns without
+     * waiting for the connection. Messages sent in the meantime are queued.
      *
      * @return a client designed to your liking
+     * @throws IllegalArgumentException for {@link AuthType#SASL_EXTERNAL}
+     * without a secure connection and client certificate
+     * @see #connect()
      */
     public Client build() {
+        if (this.config.get(Config.AUTH_TYPE) == AuthType.SASL_EXTERNAL) {
+            Sanity.truthiness(this.config.get(Config.SSL) && this.config.get(Config.SSL_KEY_CERT_CHAIN) != null, "SASL EXTERNAL requires a secure connection with a client certificate");
+        }
         this.inetSet(Config.BIND_ADDRESS, this.bindHost, this.bindPort);
         this.inetSet(Config.SERVER_ADDRESS, this.serverHost, this.serverPort);
         return new IRCClient(this.config);
     }
 
+    /**
+     * Builds a client, as {@link #build()}, returning a future completing
+     * once it has connected. Should every server fail, the future completes
+     * exceptionally, while the client continues to reconnect per its
+     * {@link #reconnectPolicy(ReconnectPolicy) reconnect policy} until shut
+     * down.
+     *
+     * @return a future of the connected client
+     * @throws IllegalArgumentException as {@link #build()}
+     */
+    public CompletableFuture<Client> connect() {
+        return ((IRCClient) this.build()).whenConnected();
+    }
+
+    /**
+     * Builds a client connecting to the given address in place of the
+     * configured servers.
+     *
+     * @param server address to connect to
+     * @return a client
+     */
+    IRCClient build(SocketAddress server) {
+        this.config.set(Config.SERVER_ADDRESS, server);
+        this.config.set(Config.SERVER_FALLBACKS, new InetSocketAddress[0]);
+        return new IRCClient(this.config);
+    }
+
     /**
      * Clones this builder.
      *
@@ -325,7 +523,7 @@ public final class ClientBuilder implements Cloneable {
 
     }
 
-    private void inetSet(Config.Entry<InetSocketAddress> entry, String host, int port) {
+    private void inetSet(Config.Entry<? super InetSocketAddress> entry, String host, int port) {
         if (host != null) {
             this.config.set(entry, new InetSocketAddress(host, port));
         } else if (port > 0) {
@@ -0,0 +1,264 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares infrastructure between many clients. Clients built with
+ * {@link ClientBuilder#manager(ClientManager)} use the manager's event loop
+ * and process input and run their listeners on its worker pool, rather
+ * than each having threads of their own, and receive events on the
+ * manager's global listeners. Secure clients also share SSL contexts, and
+ * so can resume each other's sessions, and every client's {@link Metrics}
+ * can be read from the manager.
+ * <p>
+ * The manager's threads keep running until it's {@link #close() closed}.
+ */
+public final class ClientManager implements AutoCloseable {
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, this.name + " #" + this.count.incrementAndGet());
+        }
+    }
+
+    private final EventLoopGroup eventLoopGroup;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+    private final Set<IRCClient> clients = new LinkedHashSet<>();
+    private final Set<Object> listeners = new HashSet<>();
+
+    /**
+     * Creates a manager with as many event loop and worker threads as
+     * there are processors.
+     */
+    public ClientManager() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param eventLoopThreads threads handling network I/O
+     * @param workerThreads threads processing input and running listeners
+     * @throws IllegalArgumentException for fewer than one thread of either
+     */
+    public ClientManager(int eventLoopThreads, int workerThreads) {
+        Sanity.truthiness(eventLoopThreads > 0, "Must have at least one event loop thread");
+        Sanity.truthiness(workerThreads > 0, "Must have at least one worker thread");
+        this.eventLoopGroup = new NioEventLoopGroup(eventLoopThreads, new NamedThreadFactory("Kitteh IRC Client Manager Event Loop"));
+        this.workers = Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("Kitteh IRC Client Manager Worker"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Kitteh IRC Client Manager Scheduler"));
+    }
+
+    /**
+     * Creates a builder for a client of this manager.
+     *
+     * @return a client builder
+     */
+    public ClientBuilder builder() {
+        return new ClientBuilder().manager(this);
+    }
+
+    /**
+     * Gets the clients of this manager which haven't been shut down.
+     *
+     * @return clients
+     */
+    public synchronized Set<Client> getClients() {
+        return new LinkedHashSet<>(this.clients);
+    }
+
+    /**
+     * Gets the metrics of each client of this manager which hasn't been
+     * shut down, for reading every client's metrics in one place.
+     *
+     * @return metrics by client
+     */
+    public synchronized Map<Client, Metrics> getMetrics() {
+        Map<Client, Metrics> metrics = new LinkedHashMap<>();
+        this.clients.forEach(client -> metrics.put(client, client.getMetrics()));
+        return metrics;
+    }
+
+    /**
+     * Gets the global listeners.
+     *
+     * @return a set of listeners
+     */
+    public synchronized Set<Object> getRegisteredEventListeners() {
+        return new HashSet<>(this.listeners);
+    }
+
+    /**
+     * Registers a listener with every client of this manager, current and
+     * future. See {@link EventManager#registerEventListener(Object)}.
+     *
+     * @param listener listener to register
+     */
+    public synchronized void registerEventListener(Object listener) {
+        Sanity.nullCheck(listener, "Listener cannot be null");
+        if (this.listeners.add(listener)) {
+            this.clients.forEach(client -> client.getEventManager().registerEventListener(listener));
+        }
+    }
+
+    /**
+     * Unregisters a global listener from every client of this manager.
+     *
+     * @param listener listener to unregister
+     */
+    public synchronized void unregisterEventListener(Object listener) {
+        if (this.listeners.remove(listener)) {
+            this.clients.forEach(client -> client.getEventManager().unregisterEventListener(listener));
+        }
+    }
+
+    /**
+     * Builds clients one at a time, waiting an interval between each, so
+     * as not to flood the network or trip connection throttles. Each
+     * builder is cloned and set to this manager.
+     *
+     * @param builders builders of the clients
+     * @param interval time between connections
+     * @param unit unit of the interval
+     * @return the clients, in order, once all are built
+     */
+    public CompletableFuture<List<Client>> connect(List<ClientBuilder> builders, long interval, TimeUnit unit) {
+        Sanity.nullCheck(builders, "Builders cannot be null");
+        Sanity.nullCheck(unit, "Unit cannot be null");
+        List<ClientBuilder> toBuild = new ArrayList<>(builders);
+        List<Client> built = new ArrayList<>(toBuild.size()); // Only touched on the scheduler
+        CompletableFuture<List<Client>> future = new CompletableFuture<>();
+        if (toBuild.isEmpty()) {
+            future.complete(Collections.emptyList());
+        }
+        for (int i = 0; i < toBuild.size(); i++) {
+            final ClientBuilder builder = toBuild.get(i);
+            this.scheduler.schedule(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    built.add(builder.clone().manager(this).build());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                if (built.size() == toBuild.size()) {
+                    future.complete(Collections.unmodifiableList(built));
+                }
+            }, i * interval, unit);
+        }
+        return future;
+    }
+
+    /**
+     * Shuts down every current client one at a time, waiting an interval
+     * between each.
+     *
+     * @param reason quit message, or null for none
+     * @param interval time between disconnections
+     * @param unit unit of the interval
+     * @return a future completing once all are shut down
+     */
+    public CompletableFuture<Void> shutdownClients(String reason, long interval, TimeUnit unit) {
+        Sanity.nullCheck(unit, "Unit cannot be null");
+        List<Client> toShutdown = new ArrayList<>(this.getClients());
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (toShutdown.isEmpty()) {
+            future.complete(null);
+        }
+        AtomicInteger remaining = new AtomicInteger(toShutdown.size());
+        for (int i = 0; i < toShutdown.size(); i++) {
+            final Client client = toShutdown.get(i);
+            this.scheduler.schedule(() -> {
+                try {
+                    client.shutdown(reason);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        future.complete(null);
+                    }
+                }
+            }, i * interval, unit);
+        }
+        return future;
+    }
+
+    /**
+     * Shuts down any remaining clients immediately, then stops the
+     * manager's threads once they've finished their work.
+     */
+    @Override
+    public void close() {
+        this.getClients().forEach(client -> client.shutdown(null));
+        SslContextCache.release(this);
+        this.scheduler.shutdownNow();
+        this.workers.shutdown();
+        this.eventLoopGroup.shutdownGracefully();
+    }
+
+    EventLoopGroup getEventLoopGroup() {
+        return this.eventLoopGroup;
+    }
+
+    ExecutorService getWorkers() {
+        return this.workers;
+    }
+
+    synchronized void register(IRCClient client) {
+        this.clients.add(client);
+        this.listeners.forEach(listener -> client.getEventManager().registerEventListener(listener));
+    }
+
+    synchronized void unregister(IRCClient client) {
+        this.clients.remove(client);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.element.ChannelUserMode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves and loads tracked client state, so a restarted client has usable
+ * channel and user information before it has finished reconnecting.
+ * <p>
+ * The file holds the raw ISUPPORT tokens, replayed on load, and for each
+ * channel its members with prefixes and, where known, hostmask, account,
+ * real name and away message.
+ */
+final class ClientStateStore {
+    private static final int MAGIC = 0x4B495243; // KIRC
+    private static final byte VERSION = 1;
+
+    private ClientStateStore() {
+    }
+
+    /**
+     * Loads state into a client which has not yet connected. Loaded
+     * channels are tracked but not complete, until reconciled with the
+     * NAMES reply after rejoining.
+     *
+     * @param client client to load into
+     * @param file file to read
+     * @throws IOException if the file cannot be read or is not a state file
+     */
+    static void load(IRCClient client, File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Not a state file: " + file);
+            }
+            int iSupportCount = in.readInt();
+            for (int i = 0; i < iSupportCount; i++) {
+                client.processISupport(in.readUTF());
+            }
+            ActorProvider actorProvider = client.getActorProvider();
+            IRCServerInfo serverInfo = client.getServerInfo();
+            int channelCount = in.readInt();
+            for (int c = 0; c < channelCount; c++) {
+                ActorProvider.IRCChannel channel = actorProvider.getChannel(in.readUTF());
+                int memberCount = in.readInt();
+                for (int m = 0; m < memberCount; m++) {
+                    String prefixes = in.readUTF();
+                    Set<ChannelUserMode> modes = new HashSet<>(2);
+                    for (int i = 0; i < prefixes.length(); i++) {
+                        ChannelUserMode mode = serverInfo.getChannelUserModeByPrefix(prefixes.charAt(i));
+                        if (mode != null) {
+                            modes.add(mode);
+                        }
+                    }
+                    if (in.readBoolean()) {
+                        ActorProvider.IRCActor actor = actorProvider.getActor(in.readUTF());
+                        String account = readNullable(in);
+                        String realName = readNullable(in);
+                        String awayMessage = readNullable(in);
+                        if (actor instanceof ActorProvider.IRCUser) {
+                            ActorProvider.IRCUser user = (ActorProvider.IRCUser) actor;
+                            user.setAccount(account);
+                            user.setRealName(realName);
+                            user.setAwayMessage(awayMessage);
+                            if (channel != null) {
+                                channel.trackNamesUser(user, modes);
+                            }
+                        }
+                    } else {
+                        String nick = in.readUTF();
+                        if (channel != null) {
+                            channel.trackNamesNick(nick, modes);
+                        }
+                    }
+                }
+                if (channel != null) {
+                    channel.publishNames();
+                    client.restoreChannel(channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a client's state. Reads live channel state, so must be run
+     * on the client's input thread.
+     *
+     * @param client client to save
+     * @return encoded state, to be passed to {@link #write(byte[], File)}
+     * @throws IOException if the state cannot be encoded
+     */
+    static byte[] snapshot(IRCClient client) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            List<String> iSupport = client.getISupportTokens();
+            out.writeInt(iSupport.size());
+            for (String token : iSupport) {
+                out.writeUTF(token);
+            }
+            List<ActorProvider.IRCChannel> channels = new ArrayList<>();
+            for (String name : client.getTrackedChannelNames()) {
+                ActorProvider.IRCChannel channel = client.getActorProvider().getChannel(name);
+                if (channel != null) {
+                    channels.add(channel);
+                }
+            }
+            out.writeInt(channels.size());
+            for (ActorProvider.IRCChannel channel : channels) {
+                out.writeUTF(channel.getName());
+                Map<String, Set<ChannelUserMode>> members = channel.getMemberModes();
+                out.writeInt(members.size());
+                StringBuilder prefixes = new StringBuilder();
+                for (Map.Entry<String, Set<ChannelUserMode>> entry : members.entrySet()) {
+                    prefixes.setLength(0);
+                    for (ChannelUserMode mode : entry.getValue()) {
+                        prefixes.append(mode.getPrefix());
+                    }
+                    out.writeUTF(prefixes.toString());
+                    ActorProvider.IRCUser user = channel.getUser(entry.getKey());
+                    out.writeBoolean(user != null);
+                    if (user != null) {
+                        out.writeUTF(user.getName());
+                        writeNullable(out, user.getAccount());
+                        writeNullable(out, user.getRealName());
+                        writeNullable(out, user.getAwayMessage());
+                    } else {
+                        out.writeUTF(entry.getKey());
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes encoded state, replacing the file only once fully written.
+     *
+     * @param state state from {@link #snapshot(IRCClient)}
+     * @param file file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void write(byte[] state, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(state);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+}
@@ -30,7 +30,12 @@ import java.util.Map;
  * Commands used in client/server communication.
  */
 enum Command {
+    ACCOUNT,
+    AUTHENTICATE,
+    AWAY,
+    BATCH,
     CAP,
+    CHGHOST,
     INVITE,
     JOIN,
     KICK,
@@ -42,12 +47,14 @@ enum Command {
     TOPIC,
     QUIT;
 
-    private static final Map<String, Command> nameMap = new HashMap<>();
+    private static final CommandTable<Command> nameTable;
 
     static {
+        Map<String, Command> nameMap = new HashMap<>();
         for (Command command : values()) {
             nameMap.put(command.name(), command);
         }
+        nameTable = new CommandTable<>(nameMap);
     }
 
     /**
@@ -57,7 +64,7 @@ enum Command {
      * @return the matching Command or null if no match
      */
     public static Command getByName(String name) {
-        return nameMap.get(name.toUpperCase());
+        return nameTable.get(name);
     }
 
     @Override
@@ -0,0 +1,130 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.element.Actor;
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registers {@link CommandHandler}s for a single {@link Client} instance,
+ * allowing commands and numerics the client does not process itself to be
+ * handled without modifying the client.
+ */
+public final class CommandHandlerManager {
+    private final IRCClient client;
+    private final Map<String, List<CommandHandler>> handlers = new HashMap<>();
+    private volatile CommandTable<CommandHandler[]> table = new CommandTable<>(Collections.emptyMap());
+    private volatile boolean empty = true;
+
+    CommandHandlerManager(IRCClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Gets all handlers registered for a command. Case insensitive.
+     *
+     * @param command command name or numeric
+     * @return a list of handlers
+     */
+    public List<CommandHandler> getRegisteredCommandHandlers(String command) {
+        Sanity.nullCheck(command, "Command cannot be null");
+        CommandHandler[] handlers = this.table.get(command);
+        return handlers == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(handlers));
+    }
+
+    /**
+     * Registers a handler for a command or numeric. Case insensitive.
+     * <p>
+     * Handlers are called on the input processing thread after the client
+     * has completed its own processing of the line.
+     *
+     * @param command command name or numeric, such as AWAY or 354
+     * @param handler handler to register
+     */
+    public synchronized void registerCommandHandler(String command, CommandHandler handler) {
+        Sanity.nullCheck(command, "Command cannot be null");
+        Sanity.nullCheck(handler, "Handler cannot be null");
+        Sanity.truthiness(command.indexOf(' ') == -1, "Command cannot have spaces");
+        this.handlers.computeIfAbsent(command.toUpperCase(), name -> new ArrayList<>()).add(handler);
+        this.rebuild();
+    }
+
+    /**
+     * Unregisters a handler for a command or numeric. Case insensitive.
+     *
+     * @param command command name or numeric
+     * @param handler handler to unregister
+     */
+    public synchronized void unregisterCommandHandler(String command, CommandHandler handler) {
+        Sanity.nullCheck(command, "Command cannot be null");
+        List<CommandHandler> list = this.handlers.get(command.toUpperCase());
+        if (list != null && list.remove(handler)) {
+            if (list.isEmpty()) {
+                this.handlers.remove(command.toUpperCase());
+            }
+            this.rebuild();
+        }
+    }
+
+    /**
+     * Passes a line to any handlers registered for its command.
+     *
+     * @param actor source of the line
+     * @param command command
+     * @param args arguments
+     * @param tags message tags
+     */
+    void handle(ActorProvider.IRCActor actor, String command, String[] args, MessageTags tags) {
+        if (this.empty) {
+            return;
+        }
+        CommandHandler[] handlers = this.table.get(command);
+        if (handlers == null) {
+            return;
+        }
+        Actor snapshot = actor.snapshot();
+        List<String> argsList = Collections.unmodifiableList(Arrays.asList(args));
+        for (CommandHandler handler : handlers) {
+            try {
+                handler.handle(this.client, snapshot, command, argsList, tags);
+            } catch (final Exception e) {
+                this.client.getExceptionListener().queue(e);
+            }
+        }
+    }
+
+    private void rebuild() {
+        Map<String, CommandHandler[]> map = new HashMap<>();
+        this.handlers.forEach((command, list) -> map.put(command, list.toArray(new CommandHandler[list.size()])));
+        this.table = new CommandTable<>(map);
+        this.empty = map.isEmpty();
+    }
+}
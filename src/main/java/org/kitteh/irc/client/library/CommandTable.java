@@ -0,0 +1,96 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import java.util.Map;
+
+/**
+ * Immutable, case insensitive lookup table for command names.
+ * <p>
+ * Lookups fold ASCII case while hashing and compare with {@link
+ * String#equalsIgnoreCase(String)}, so no lowercased or uppercased copy of
+ * the name is created per line.
+ *
+ * @param <Value> type of value stored
+ */
+final class CommandTable<Value> {
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    /**
+     * Creates a table holding the given entries.
+     *
+     * @param entries entries, keyed by command name in any case
+     */
+    CommandTable(Map<String, Value> entries) {
+        int size = 4;
+        while (size < entries.size() * 2) {
+            size <<= 1;
+        }
+        this.keys = new String[size];
+        this.values = new Object[size];
+        this.mask = size - 1;
+        for (Map.Entry<String, Value> entry : entries.entrySet()) {
+            int index = hash(entry.getKey()) & this.mask;
+            while (this.keys[index] != null) {
+                index = (index + 1) & this.mask;
+            }
+            this.keys[index] = entry.getKey();
+            this.values[index] = entry.getValue();
+        }
+    }
+
+    /**
+     * Gets the value stored for a command name. Case insensitive.
+     *
+     * @param name command name
+     * @return the matching value or null if no match
+     */
+    Value get(String name) {
+        int index = hash(name) & this.mask;
+        String key;
+        while ((key = this.keys[index]) != null) {
+            if (key.length() == name.length() && key.equalsIgnoreCase(name)) {
+                @SuppressWarnings("unchecked")
+                Value value = (Value) this.values[index];
+                return value;
+            }
+            index = (index + 1) & this.mask;
+        }
+        return null;
+    }
+
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 32;
+            }
+            hash = 31 * hash + c;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -25,6 +25,7 @@ package org.kitteh.irc.client.library;
 
 import java.io.File;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -97,18 +98,28 @@ final class Config {
     static final Entry<String> AUTH_PASS = new Entry<>(null, String.class);
     static final Entry<AuthType> AUTH_TYPE = new Entry<>(null, AuthType.class);
     static final Entry<InetSocketAddress> BIND_ADDRESS = new Entry<>(null, InetSocketAddress.class);
+    static final Entry<Integer> INPUT_MAX_LINE_LENGTH = new Entry<>(null, Integer.class);
     static final Entry<ExceptionConsumerWrapper> LISTENER_EXCEPTION = new Entry<>(null, ExceptionConsumerWrapper.class);
     static final Entry<StringConsumerWrapper> LISTENER_INPUT = new Entry<>(null, StringConsumerWrapper.class);
     static final Entry<StringConsumerWrapper> LISTENER_OUTPUT = new Entry<>(null, StringConsumerWrapper.class);
+    static final Entry<ClientManager> MANAGER = new Entry<>(null, ClientManager.class);
+    static final Entry<Boolean> METRICS_JMX = new Entry<>(false, Boolean.class);
     static final Entry<Integer> MESSAGE_DELAY = new Entry<>(1200, Integer.class);
     static final Entry<String> NICK = new Entry<>("Kitteh", String.class);
     static final Entry<String> REAL_NAME = new Entry<>("Kitteh", String.class);
-    static final Entry<InetSocketAddress> SERVER_ADDRESS = new Entry<>(new InetSocketAddress("localhost", 6667), InetSocketAddress.class);
+    static final Entry<ReconnectPolicy> RECONNECT_POLICY = new Entry<>(ReconnectPolicy.DEFAULT, ReconnectPolicy.class);
+    static final Entry<File> RECORD_INPUT = new Entry<>(null, File.class);
+    static final Entry<SocketAddress> SERVER_ADDRESS = new Entry<>(new InetSocketAddress("localhost", 6667), SocketAddress.class);
+    static final Entry<InetSocketAddress[]> SERVER_FALLBACKS = new Entry<>(new InetSocketAddress[0], InetSocketAddress[].class);
     static final Entry<String> SERVER_PASSWORD = new Entry<>(null, String.class);
+    static final Entry<ServerSelection> SERVER_SELECTION = new Entry<>(ServerSelection.PRIORITY, ServerSelection.class);
     static final Entry<Boolean> SSL = new Entry<>(false, Boolean.class);
+    static final Entry<Boolean> SSL_OPENSSL = new Entry<>(false, Boolean.class);
     static final Entry<File> SSL_KEY_CERT_CHAIN = new Entry<>(null, File.class);
     static final Entry<File> SSL_KEY = new Entry<>(null, File.class);
     static final Entry<String> SSL_KEY_PASSWORD = new Entry<>(null, String.class);
+    static final Entry<File> SSL_TRUST_FILE = new Entry<>(null, File.class);
+    static final Entry<File> STATE_FILE = new Entry<>(null, File.class);
     static final Entry<String> USER = new Entry<>("Kitteh", String.class);
 
     /**
@@ -29,9 +29,13 @@ import net.engio.mbassy.bus.config.BusConfiguration;
 import net.engio.mbassy.bus.config.Feature;
 import net.engio.mbassy.bus.error.IPublicationErrorHandler;
 import net.engio.mbassy.bus.error.PublicationError;
+import net.engio.mbassy.dispatch.IHandlerInvocation;
 import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.subscription.SubscriptionContext;
+import net.engio.mbassy.subscription.SubscriptionFactory;
 import org.kitteh.irc.client.library.exception.KittehEventException;
 
+import java.lang.reflect.Method;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -47,7 +51,41 @@ public final class EventManager {
         }
     }
 
-    private final SyncMessageBus<Object> bus = new SyncMessageBus<>(new BusConfiguration().addFeature(Feature.SyncPubSub.Default()).setProperty(Properties.Handler.PublicationError, new Exceptional()));
+    private static final class RecordedInvocation<H, M> implements IHandlerInvocation<H, M> {
+        private final IHandlerInvocation<H, M> invocation;
+        private final Method method;
+
+        private RecordedInvocation(IHandlerInvocation<H, M> invocation) {
+            this.invocation = invocation;
+            this.method = invocation.getContext().getHandler().getMethod();
+        }
+
+        @Override
+        public void invoke(H listener, M message) {
+            final Object handlerEvent = FlightRecorderSupport.beginHandlerCompleted();
+            this.invocation.invoke(listener, message);
+            FlightRecorderSupport.commitHandlerCompleted(handlerEvent, this.method, message);
+        }
+
+        @Override
+        public SubscriptionContext getContext() {
+            return this.invocation.getContext();
+        }
+    }
+
+    private static final class RecordedSubscriptionFactory extends SubscriptionFactory {
+        @Override
+        protected IHandlerInvocation<?, ?> buildInvocationForHandler(SubscriptionContext context) throws Exception {
+            IHandlerInvocation<?, ?> invocation = super.buildInvocationForHandler(context);
+            return FlightRecorderSupport.isAvailable() ? record(invocation) : invocation;
+        }
+
+        private static <H, M> IHandlerInvocation<H, M> record(IHandlerInvocation<H, M> invocation) {
+            return new RecordedInvocation<>(invocation);
+        }
+    }
+
+    private final SyncMessageBus<Object> bus = new SyncMessageBus<>(new BusConfiguration().addFeature(Feature.SyncPubSub.Default().setSubscriptionFactory(new RecordedSubscriptionFactory())).setProperty(Properties.Handler.PublicationError, new Exceptional()));
     private final IRCClient client;
     private final Set<Object> listeners = new HashSet<>();
 
@@ -61,7 +99,15 @@ public final class EventManager {
      * @param event event to call
      */
     public void callEvent(Object event) {
+        if (this.client == null) { // Nothing to record against
+            this.bus.publish(event);
+            return;
+        }
+        final long start = System.nanoTime();
+        final Object dispatchEvent = FlightRecorderSupport.beginEventDispatched();
         this.bus.publish(event);
+        this.client.getMetrics().recordEvent(event.getClass(), System.nanoTime() - start);
+        FlightRecorderSupport.commitEventDispatched(dispatchEvent, this.client, event);
     }
 
     /**
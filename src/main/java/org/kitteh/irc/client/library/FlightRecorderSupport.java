@@ -0,0 +1,157 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emits Java Flight Recorder events when the jdk.jfr API is available,
+ * otherwise does nothing. Spans are opened with a {@code begin} method,
+ * which returns null when the event type isn't being recorded, and closed
+ * by passing that result to the matching {@code commit} method.
+ * <p>
+ * The event types live in src/main/jfr, which is only compiled on a JDK
+ * providing jdk.jfr, and are loaded by name so this class still compiles
+ * and runs without them.
+ */
+final class FlightRecorderSupport {
+    /**
+     * Implemented by the event types' holder, FlightRecorderEvents.
+     */
+    interface Recorder {
+        void lineReceived(IRCClient client, int length);
+
+        Object beginLineParsed();
+
+        void commitLineParsed(Object begun, IRCClient client, String command, String[] args);
+
+        Object beginEventDispatched();
+
+        void commitEventDispatched(Object begun, IRCClient client, Object dispatched);
+
+        Object beginHandlerCompleted();
+
+        void commitHandlerCompleted(Object begun, Method method, Object dispatched);
+
+        void messageQueued(IRCClient client, int queueSize);
+
+        Object beginMessageFlushed();
+
+        void commitMessageFlushed(Object begun, IRCClient client, long queueWait, boolean success);
+
+        void reconnect(IRCClient client, long delay, TimeUnit unit);
+
+        Object beginSslHandshake();
+
+        void commitSslHandshake(Object begun, IRCClient client, boolean success, String protocol, String cipherSuite);
+    }
+
+    private static final Recorder RECORDER = load();
+
+    private static Recorder load() {
+        try {
+            ClassLoader loader = FlightRecorderSupport.class.getClassLoader();
+            Class.forName("jdk.jfr.Event", false, loader);
+            return (Recorder) Class.forName("org.kitteh.irc.client.library.FlightRecorderEvents", true, loader).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException ignored) {
+            return null;
+        }
+    }
+
+    private FlightRecorderSupport() {
+    }
+
+    static boolean isAvailable() {
+        return RECORDER != null;
+    }
+
+    static void lineReceived(IRCClient client, int length) {
+        if (RECORDER != null) {
+            RECORDER.lineReceived(client, length);
+        }
+    }
+
+    static Object beginLineParsed() {
+        return (RECORDER != null) ? RECORDER.beginLineParsed() : null;
+    }
+
+    static void commitLineParsed(Object event, IRCClient client, String command, String[] args) {
+        if (event != null) {
+            RECORDER.commitLineParsed(event, client, command, args);
+        }
+    }
+
+    static Object beginEventDispatched() {
+        return (RECORDER != null) ? RECORDER.beginEventDispatched() : null;
+    }
+
+    static void commitEventDispatched(Object event, IRCClient client, Object dispatched) {
+        if (event != null) {
+            RECORDER.commitEventDispatched(event, client, dispatched);
+        }
+    }
+
+    static Object beginHandlerCompleted() {
+        return (RECORDER != null) ? RECORDER.beginHandlerCompleted() : null;
+    }
+
+    static void commitHandlerCompleted(Object event, Method method, Object dispatched) {
+        if (event != null) {
+            RECORDER.commitHandlerCompleted(event, method, dispatched);
+        }
+    }
+
+    static void messageQueued(IRCClient client, int queueSize) {
+        if (RECORDER != null) {
+            RECORDER.messageQueued(client, queueSize);
+        }
+    }
+
+    static Object beginMessageFlushed() {
+        return (RECORDER != null) ? RECORDER.beginMessageFlushed() : null;
+    }
+
+    static void commitMessageFlushed(Object event, IRCClient client, long queueWait, boolean success) {
+        if (event != null) {
+            RECORDER.commitMessageFlushed(event, client, queueWait, success);
+        }
+    }
+
+    static void reconnect(IRCClient client, long delay, TimeUnit unit) {
+        if (RECORDER != null) {
+            RECORDER.reconnect(client, delay, unit);
+        }
+    }
+
+    static Object beginSslHandshake() {
+        return (RECORDER != null) ? RECORDER.beginSslHandshake() : null;
+    }
+
+    static void commitSslHandshake(Object event, IRCClient client, boolean success, String protocol, String cipherSuite) {
+        if (event != null) {
+            RECORDER.commitSslHandshake(event, client, success, protocol, cipherSuite);
+        }
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * On-disk message history for one channel, as a series of append-only
+ * segment files named for the id of their first message.
+ * <p>
+ * A segment record is its length followed by id, time, type, nick, text and
+ * message id. Each segment has an index of record offsets and times, plus
+ * the records of each nick and message id. The active segment's index is
+ * kept in memory and written alongside the segment when it's sealed.
+ * Sealed indexes are loaded on demand into a small cache. Ids are
+ * contiguous within a channel and times never decrease, so lookups by id
+ * or time are binary searches.
+ */
+final class HistoryStore {
+    private static final int INDEX_MAGIC = 0x4B494458; // KIDX
+    private static final int INDEX_CACHE_SIZE = 8;
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private IntList() {
+        }
+
+        private IntList(int[] values) {
+            this.values = values;
+            this.size = values.length;
+        }
+
+        private void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+    }
+
+    private static final class Index {
+        private int[] offsets = new int[64];
+        private long[] times = new long[64];
+        private int count;
+        private final Map<String, IntList> nicks = new HashMap<>();
+        private final Map<String, Integer> messageIds = new HashMap<>();
+
+        private void add(int offset, long time, String nick, String messageId) {
+            if (this.count == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+                this.times = Arrays.copyOf(this.times, this.count * 2);
+            }
+            this.offsets[this.count] = offset;
+            this.times[this.count] = time;
+            this.nicks.computeIfAbsent(nick, k -> new IntList()).add(this.count);
+            if (!messageId.isEmpty()) {
+                this.messageIds.put(messageId, this.count);
+            }
+            this.count++;
+        }
+
+        // First ordinal with a time at or after the given time
+        private int search(long time) {
+            int low = 0;
+            int high = this.count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final class Segment {
+        private final File file;
+        private final long firstId;
+        private final long firstTime;
+
+        private Segment(File file, long firstId, long firstTime) {
+            this.file = file;
+            this.firstId = firstId;
+            this.firstTime = firstTime;
+        }
+
+        private File getIndexFile() {
+            return new File(this.file.getPath().replaceFirst("\\.dat$", ".idx"));
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final Function<String, String> toLowerCase;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Segment, Index> indexCache = new LinkedHashMap<Segment, Index>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Segment, Index> eldest) {
+            return this.size() > INDEX_CACHE_SIZE;
+        }
+    };
+    private Segment active;
+    private Index activeIndex;
+    private DataOutputStream out;
+    private int activeSize;
+    private int readableCount;
+    private long nextId;
+    private long lastTime;
+
+    /**
+     * Opens a channel's store, indexing the last segment.
+     *
+     * @param directory channel directory
+     * @param segmentSize size at which to seal a segment
+     * @param toLowerCase lower cases nicks for the nick index
+     * @throws IOException if the store cannot be read
+     */
+    HistoryStore(File directory, int segmentSize, Function<String, String> toLowerCase) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.toLowerCase = toLowerCase;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".dat"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                long firstId;
+                try {
+                    firstId = Long.parseLong(file.getName().substring(0, file.getName().length() - 4));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                long firstTime = -1;
+                try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                    in.readInt();
+                    in.readLong();
+                    firstTime = in.readLong();
+                } catch (EOFException ignored) {
+                    // Empty, dropped below unless it's the active segment
+                }
+                this.segments.add(new Segment(file, firstId, firstTime));
+            }
+        }
+        // Sealed segments without an index were interrupted mid-seal
+        for (int i = 0; i < this.segments.size() - 1; i++) {
+            Segment segment = this.segments.get(i);
+            if (!segment.getIndexFile().isFile()) {
+                this.writeIndex(segment, this.scan(segment));
+            }
+        }
+        this.segments.removeIf(segment -> segment.firstTime < 0 && segment != this.last());
+        if (!this.segments.isEmpty()) {
+            this.active = this.last();
+            this.activeIndex = this.scan(this.active);
+            this.readableCount = this.activeIndex.count;
+            this.activeSize = this.activeIndex.count == 0 ? 0 : (int) this.active.file.length();
+            this.nextId = this.active.firstId + this.activeIndex.count;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.active.file, true)));
+            // The active segment may be empty, if rolled just before closing
+            for (int i = this.segments.size() - 1; i >= 0; i--) {
+                Segment segment = this.segments.get(i);
+                Index index = segment == this.active ? this.activeIndex : this.getIndex(segment);
+                if (index.count > 0) {
+                    this.lastTime = index.times[index.count - 1];
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the id the next message must have.
+     *
+     * @return next id
+     */
+    synchronized long getNextId() {
+        return this.nextId;
+    }
+
+    /**
+     * Gets the time of the last message stored, which later messages must
+     * not precede.
+     *
+     * @return time in milliseconds since the epoch, or 0 if none stored
+     */
+    synchronized long getLastTime() {
+        return this.lastTime;
+    }
+
+    /**
+     * Appends a message, sealing the active segment if it's full. Ids must
+     * follow on from {@link #getNextId()}.
+     *
+     * @param message message
+     * @throws IOException if writing fails
+     */
+    synchronized void append(MessageHistory.Message message) throws IOException {
+        if (this.active == null || (this.activeSize >= this.segmentSize)) {
+            this.roll(message);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeLong(message.getId());
+        record.writeLong(message.getTime().toEpochMilli());
+        record.writeByte(message.getType().ordinal());
+        record.writeUTF(message.getNick());
+        record.writeUTF(message.getText());
+        record.writeUTF(message.getMessageId() == null ? "" : message.getMessageId());
+        this.out.writeInt(bytes.size());
+        bytes.writeTo(this.out);
+        this.activeIndex.add(this.activeSize, message.getTime().toEpochMilli(), message.getLowerCaseNick(), message.getMessageId() == null ? "" : message.getMessageId());
+        this.activeSize += 4 + bytes.size();
+        this.nextId = message.getId() + 1;
+        this.lastTime = message.getTime().toEpochMilli();
+    }
+
+    /**
+     * Pushes appended messages to the operating system, making them
+     * visible to reads.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void flush() throws IOException {
+        if (this.out != null) {
+            this.out.flush();
+            this.readableCount = this.activeIndex.count;
+        }
+    }
+
+    /**
+     * Closes the active segment.
+     *
+     * @throws IOException if writing fails
+     */
+    synchronized void close() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    /**
+     * Gets messages with ids in a range, oldest first.
+     *
+     * @param channel channel name for the returned messages
+     * @param fromId lowest id, inclusive
+     * @param toId highest id, exclusive
+     * @param limit maximum number of messages
+     * @param newest true to take the newest messages in the range when
+     * there are more than the limit, false for the oldest
+     * @return messages
+     * @throws IOException if reading fails
+     */
+    List<MessageHistory.Message> read(String channel, long fromId, long toId, int limit, boolean newest) throws IOException {
+        List<MessageHistory.Message> messages = new ArrayList<>();
+        List<Segment> segments = this.getSegments();
+        if (newest) {
+            for (int i = segments.size() - 1; i >= 0 && messages.size() < limit; i--) {
+                Segment segment = segments.get(i);
+                if (segment.firstId >= toId) {
+                    continue;
+                }
+                if (i + 1 < segments.size() && segments.get(i + 1).firstId <= fromId) {
+                    break;
+                }
+                Index index = this.getIndex(segment);
+                int end = (int) Math.min(this.count(segment, index), toId - segment.firstId);
+                int start = (int) Math.max(0, fromId - segment.firstId);
+                List<MessageHistory.Message> found = new ArrayList<>();
+                try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+                    for (int ordinal = end - 1; ordinal >= start && messages.size() + found.size() < limit; ordinal--) {
+                        found.add(this.readRecord(channel, file, index.offsets[ordinal]));
+                    }
+                }
+                Collections.reverse(found);
+                messages.addAll(0, found);
+            }
+        } else {
+            for (int i = 0; i < segments.size() && messages.size() < limit; i++) {
+                Segment segment = segments.get(i);
+                if (i + 1 < segments.size() && segments.get(i + 1).firstId <= fromId) {
+                    continue;
+                }
+                if (segment.firstId >= toId) {
+                    break;
+                }
+                Index index = this.getIndex(segment);
+                int end = (int) Math.min(this.count(segment, index), toId - segment.firstId);
+                try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+                    for (int ordinal = (int) Math.max(0, fromId - segment.firstId); ordinal < end && messages.size() < limit; ordinal++) {
+                        messages.add(this.readRecord(channel, file, index.offsets[ordinal]));
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Gets the newest messages from a nick with ids below a bound, oldest
+     * first.
+     *
+     * @param channel channel name for the returned messages
+     * @param lowerCaseNick nick, in lower case
+     * @param beforeId highest id, exclusive
+     * @param limit maximum number of messages
+     * @return messages
+     * @throws IOException if reading fails
+     */
+    List<MessageHistory.Message> readFrom(String channel, String lowerCaseNick, long beforeId, int limit) throws IOException {
+        List<MessageHistory.Message> messages = new ArrayList<>();
+        List<Segment> segments = this.getSegments();
+        for (int i = segments.size() - 1; i >= 0 && messages.size() < limit; i--) {
+            Segment segment = segments.get(i);
+            if (segment.firstId >= beforeId) {
+                continue;
+            }
+            Index index = this.getIndex(segment);
+            int count = this.count(segment, index);
+            int[] ordinals;
+            int size;
+            synchronized (this) {
+                IntList list = index.nicks.get(lowerCaseNick);
+                if (list == null) {
+                    continue;
+                }
+                ordinals = list.values;
+                size = list.size;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+                for (int j = size - 1; j >= 0 && messages.size() < limit; j--) {
+                    int ordinal = ordinals[j];
+                    if (ordinal < count && segment.firstId + ordinal < beforeId) {
+                        messages.add(this.readRecord(channel, file, index.offsets[ordinal]));
+                    }
+                }
+            }
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Gets the id of the first message at or after a time.
+     *
+     * @param time time in milliseconds
+     * @return id, or the next id if every message is older
+     * @throws IOException if reading fails
+     */
+    long search(long time) throws IOException {
+        List<Segment> segments = this.getSegments();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.firstTime < time || i == 0) {
+                Index index = this.getIndex(segment);
+                int ordinal;
+                synchronized (this) {
+                    ordinal = index.search(time);
+                }
+                ordinal = Math.min(ordinal, this.count(segment, index));
+                return segment.firstId + ordinal;
+            }
+        }
+        return this.getNextId();
+    }
+
+    /**
+     * Finds a message by its IRCv3 message id.
+     *
+     * @param channel channel name for the returned message
+     * @param messageId message id
+     * @return message, or null if not found
+     * @throws IOException if reading fails
+     */
+    MessageHistory.Message find(String channel, String messageId) throws IOException {
+        List<Segment> segments = this.getSegments();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            Index index = this.getIndex(segment);
+            Integer ordinal;
+            synchronized (this) {
+                ordinal = index.messageIds.get(messageId);
+            }
+            if (ordinal != null && ordinal < this.count(segment, index)) {
+                try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+                    return this.readRecord(channel, file, index.offsets[ordinal]);
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized List<Segment> getSegments() {
+        return new ArrayList<>(this.segments);
+    }
+
+    private Segment last() {
+        return this.segments.get(this.segments.size() - 1);
+    }
+
+    // Records appended to the active segment but not yet flushed aren't readable
+    private synchronized int count(Segment segment, Index index) {
+        return segment == this.active ? this.readableCount : index.count;
+    }
+
+    private Index getIndex(Segment segment) throws IOException {
+        synchronized (this) {
+            if (segment == this.active) {
+                return this.activeIndex;
+            }
+            Index index = this.indexCache.get(segment);
+            if (index != null) {
+                return index;
+            }
+        }
+        Index index = this.readIndex(segment);
+        synchronized (this) {
+            this.indexCache.put(segment, index);
+        }
+        return index;
+    }
+
+    private MessageHistory.Message readRecord(String channel, RandomAccessFile file, int offset) throws IOException {
+        file.seek(offset);
+        byte[] record = new byte[file.readInt()];
+        file.readFully(record);
+        return this.decode(channel, new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    private MessageHistory.Message decode(String channel, DataInputStream in) throws IOException {
+        long id = in.readLong();
+        long time = in.readLong();
+        MessageHistory.Type type = MessageHistory.Type.values()[in.readUnsignedByte()];
+        String nick = in.readUTF();
+        String text = in.readUTF();
+        String messageId = in.readUTF();
+        return new MessageHistory.Message(id, time, channel, nick, null, type, text, messageId.isEmpty() ? null : messageId);
+    }
+
+    private void roll(MessageHistory.Message first) throws IOException {
+        if (this.active != null) {
+            this.out.close();
+            if (this.activeIndex.count > 0) {
+                this.writeIndex(this.active, this.activeIndex);
+                this.indexCache.put(this.active, this.activeIndex);
+            } else {
+                this.segments.remove(this.active);
+                this.active.file.delete();
+            }
+        }
+        File file = new File(this.directory, String.format("%019d.dat", first.getId()));
+        this.active = new Segment(file, first.getId(), first.getTime().toEpochMilli());
+        this.activeIndex = new Index();
+        this.activeSize = 0;
+        this.readableCount = 0;
+        this.segments.add(this.active);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    private Index scan(Segment segment) throws IOException {
+        Index index = new Index();
+        int offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break; // Partial record from a crash
+                }
+                MessageHistory.Message message = this.decode("", new DataInputStream(new ByteArrayInputStream(record)));
+                index.add(offset, message.getTime().toEpochMilli(), this.toLowerCase.apply(message.getNick()), message.getMessageId() == null ? "" : message.getMessageId());
+                offset += 4 + length;
+            }
+        }
+        if (offset < segment.file.length()) {
+            try (RandomAccessFile file = new RandomAccessFile(segment.file, "rw")) {
+                file.setLength(offset);
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Segment segment, Index index) throws IOException {
+        // Replaced whole, so a crash mid-seal can't leave a truncated index
+        File file = segment.getIndexFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(index.count);
+            for (int i = 0; i < index.count; i++) {
+                out.writeInt(index.offsets[i]);
+                out.writeLong(index.times[i]);
+            }
+            out.writeInt(index.nicks.size());
+            for (Map.Entry<String, IntList> entry : index.nicks.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size);
+                for (int i = 0; i < entry.getValue().size; i++) {
+                    out.writeInt(entry.getValue().values[i]);
+                }
+            }
+            out.writeInt(index.messageIds.size());
+            for (Map.Entry<String, Integer> entry : index.messageIds.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Index readIndex(Segment segment) throws IOException {
+        File file = segment.getIndexFile();
+        if (file.isFile()) {
+            try {
+                return this.readIndex(file);
+            } catch (IOException e) {
+                // Unreadable, such as truncated before indexes were replaced whole, so rebuild it below
+            }
+        }
+        Index index = this.scan(segment);
+        synchronized (this) {
+            this.writeIndex(segment, index);
+        }
+        return index;
+    }
+
+    private Index readIndex(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a history index: " + file);
+            }
+            Index index = new Index();
+            index.count = in.readInt();
+            index.offsets = new int[index.count];
+            index.times = new long[index.count];
+            for (int i = 0; i < index.count; i++) {
+                index.offsets[i] = in.readInt();
+                index.times[i] = in.readLong();
+            }
+            int nicks = in.readInt();
+            for (int i = 0; i < nicks; i++) {
+                String nick = in.readUTF();
+                int[] ordinals = new int[in.readInt()];
+                for (int j = 0; j < ordinals.length; j++) {
+                    ordinals[j] = in.readInt();
+                }
+                index.nicks.put(nick, new IntList(ordinals));
+            }
+            int messageIds = in.readInt();
+            for (int i = 0; i < messageIds; i++) {
+                index.messageIds.put(in.readUTF(), in.readInt());
+            }
+            return index;
+        }
+    }
+}
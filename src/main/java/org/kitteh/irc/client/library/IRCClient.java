@@ -26,7 +26,11 @@ package org.kitteh.irc.client.library;
 import org.kitteh.irc.client.library.element.Channel;
 import org.kitteh.irc.client.library.element.ChannelUserMode;
 import org.kitteh.irc.client.library.element.MessageReceiver;
+import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.event.CapabilityNegotiationResponseEvent;
+import org.kitteh.irc.client.library.event.batch.BatchEvent;
+import org.kitteh.irc.client.library.event.batch.NetjoinEvent;
+import org.kitteh.irc.client.library.event.batch.NetsplitEvent;
 import org.kitteh.irc.client.library.event.capabilities.CapabilitiesAcknowledgedEvent;
 import org.kitteh.irc.client.library.event.capabilities.CapabilitiesListEvent;
 import org.kitteh.irc.client.library.event.capabilities.CapabilitiesRejectedEvent;
@@ -47,50 +51,142 @@ import org.kitteh.irc.client.library.event.channel.ChannelTargetedNoticeEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelTopicEvent;
 import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
 import org.kitteh.irc.client.library.event.client.ClientConnectedEvent;
+import org.kitteh.irc.client.library.event.client.ClientReconnectScheduledEvent;
+import org.kitteh.irc.client.library.event.client.ClientReconnectingEvent;
 import org.kitteh.irc.client.library.event.client.NickRejectedEvent;
 import org.kitteh.irc.client.library.event.user.PrivateCTCPQueryEvent;
 import org.kitteh.irc.client.library.event.user.PrivateCTCPReplyEvent;
 import org.kitteh.irc.client.library.event.user.PrivateMessageEvent;
 import org.kitteh.irc.client.library.event.user.PrivateNoticeEvent;
+import org.kitteh.irc.client.library.event.user.UserAccountStatusEvent;
+import org.kitteh.irc.client.library.event.user.UserAwayMessageEvent;
+import org.kitteh.irc.client.library.event.user.UserHostnameChangeEvent;
 import org.kitteh.irc.client.library.event.user.UserNickChangeEvent;
 import org.kitteh.irc.client.library.event.user.UserQuitEvent;
+import org.kitteh.irc.client.library.exception.KittehConnectionException;
 import org.kitteh.irc.client.library.exception.KittehISupportProcessingFailureException;
 import org.kitteh.irc.client.library.util.LCSet;
 import org.kitteh.irc.client.library.util.QueueProcessingThread;
 import org.kitteh.irc.client.library.util.Sanity;
 import org.kitteh.irc.client.library.util.StringUtil;
 
+import javax.management.JMException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 final class IRCClient implements Client {
-    private class InputProcessor extends QueueProcessingThread<String> {
+    private interface InputQueue {
+        void queue(String line);
+
+        /**
+         * Queues a task to run once the lines queued before it have been
+         * handled.
+         *
+         * @param task task to run
+         */
+        void queue(Runnable task);
+
+        int getQueueSize();
+
+        /**
+         * Gets if the current thread is the one handling input.
+         *
+         * @return true if called while handling input
+         */
+        boolean isInputThread();
+
+        void shutdown();
+    }
+
+    // Tasks share the queue with lines, so they're kept in order without wrapping every line
+    private class InputProcessor extends QueueProcessingThread<Object> implements InputQueue {
         private InputProcessor() {
             super("Kitteh IRC Client Input Processor (" + IRCClient.this.getName() + ")");
         }
 
         @Override
-        protected void processElement(String element) {
-            try {
-                IRCClient.this.handleLine(element);
-            } catch (final Throwable thrown) {
-                if (thrown instanceof Exception) {
-                    IRCClient.this.exceptionListener.queue((Exception) thrown);
-                }
-            }
+        public void queue(String line) {
+            super.queue(line);
+        }
+
+        @Override
+        public void queue(Runnable task) {
+            super.queue(task);
+        }
+
+        @Override
+        protected void processElement(Object element) {
+            IRCClient.this.handleInput(element);
+        }
+
+        @Override
+        public boolean isInputThread() {
+            return Thread.currentThread() == this;
+        }
+
+        @Override
+        public void shutdown() {
+            this.interrupt();
+        }
+    }
+
+    private class PooledInputProcessor implements InputQueue {
+        private final PooledQueue<Object> queue;
+
+        private PooledInputProcessor(Executor executor) {
+            this.queue = new PooledQueue<>(executor, IRCClient.this::handleInput);
+        }
+
+        @Override
+        public void queue(String line) {
+            this.queue.queue(line);
+        }
+
+        @Override
+        public void queue(Runnable task) {
+            this.queue.queue(task);
+        }
+
+        @Override
+        public int getQueueSize() {
+            return this.queue.getQueueSize();
+        }
+
+        @Override
+        public boolean isInputThread() {
+            return this.queue.isWorkerThread();
+        }
+
+        @Override
+        public void shutdown() {
+            this.queue.shutdown(false);
         }
     }
 
@@ -186,6 +282,12 @@ final class IRCClient implements Client {
                 return true;
             }
         },
+        MONITOR {
+            @Override
+            boolean process(String value, IRCClient client) {
+                return client.processListLimit(value, client.serverInfo::setMonitorLimit);
+            }
+        },
         NETWORK {
             @Override
             boolean process(String value, IRCClient client) {
@@ -224,10 +326,43 @@ final class IRCClient implements Client {
                 }
                 return true;
             }
+        },
+        TARGMAX {
+            @Override
+            boolean process(String value, IRCClient client) {
+                for (String pair : value.split(",")) {
+                    String[] split = pair.split(":", 2);
+                    if (split.length == 2 && split[0].equalsIgnoreCase("WHO")) {
+                        if (split[1].isEmpty()) {
+                            client.serverInfo.setWhoTargetLimit(Integer.MAX_VALUE);
+                        } else {
+                            try {
+                                client.serverInfo.setWhoTargetLimit(Math.max(1, Integer.parseInt(split[1])));
+                            } catch (NumberFormatException ignored) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                return true;
+            }
+        },
+        WATCH {
+            @Override
+            boolean process(String value, IRCClient client) {
+                return client.processListLimit(value, client.serverInfo::setWatchLimit);
+            }
+        },
+        WHOX {
+            @Override
+            boolean process(String value, IRCClient client) {
+                client.serverInfo.setWhoXSupported(true);
+                return true;
+            }
         };
 
         private static final Map<String, ISupport> MAP;
-        private static final Pattern PATTERN = Pattern.compile("([A-Z0-9]+)=(.*)");
+        private static final Pattern PATTERN = Pattern.compile("([A-Z0-9]+)(?:=(.*))?");
 
         static {
             MAP = new ConcurrentHashMap<>();
@@ -243,7 +378,7 @@ final class IRCClient implements Client {
             }
             ISupport iSupport = MAP.get(matcher.group(1));
             if (iSupport != null) {
-                boolean success = iSupport.process(matcher.group(2), client);
+                boolean success = iSupport.process(matcher.group(2) == null ? "" : matcher.group(2), client);
                 if (!success) {
                     client.exceptionListener.queue(new KittehISupportProcessingFailureException(arg));
                 }
@@ -253,6 +388,31 @@ final class IRCClient implements Client {
         abstract boolean process(String value, IRCClient client);
     }
 
+    /**
+     * A place under a reconnect policy's attempt cap, held by one attempt.
+     */
+    private static final class ReconnectSlot {
+        private final ReconnectPolicy policy;
+
+        private ReconnectSlot(ReconnectPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    private static final class Batch {
+        private final String referenceId;
+        private final String type;
+        private final List<String> parameters;
+        private final List<String> lines = new ArrayList<>();
+        private ScheduledFuture<?> timeout;
+
+        private Batch(String referenceId, String type, List<String> parameters) {
+            this.referenceId = referenceId;
+            this.type = type;
+            this.parameters = parameters;
+        }
+    }
+
     private enum MessageTarget {
         CHANNEL,
         CHANNEL_TARGETED,
@@ -260,11 +420,42 @@ final class IRCClient implements Client {
         UNKNOWN
     }
 
+    /**
+     * Query type token sent with WHOX requests, identifying our replies.
+     */
+    private static final String WHOX_TOKEN = "724";
+    private static final long STATE_SAVE_INTERVAL = 300000;
+    /**
+     * How long shutdown waits for the input thread to snapshot state.
+     */
+    private static final long STATE_SHUTDOWN_TIMEOUT = 5000;
+    /**
+     * Batches which haven't ended within these limits are handled as they
+     * stand, rather than buffered forever.
+     */
+    private static final int BATCH_MAX_LINES = 10000;
+    private static final long BATCH_TIMEOUT = 30000;
+    /**
+     * Authentication unanswered within this time is aborted, so
+     * registration goes ahead unauthenticated rather than stalling.
+     */
+    private static final long SASL_TIMEOUT = 30000;
+    /**
+     * Saving blocks on file I/O, so is done on a thread of its own rather
+     * than the event loop.
+     */
+    private static final ScheduledExecutorService STATE_SAVER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Kitteh IRC Client State Save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final String[] pingPurr = new String[]{"MEOW", "MEOW!", "PURR", "PURRRRRRR"};
     private int pingPurrCount;
 
     private final Config config;
-    private final InputProcessor processor;
+    private final ClientManager manager;
+    private final InputQueue processor;
     private IRCServerInfo serverInfo = new IRCServerInfo(this);
 
     private String goalNick;
@@ -273,17 +464,35 @@ final class IRCClient implements Client {
 
     private final Set<String> channels = new LCSet(this);
     private final Set<String> channelsIntended = new LCSet(this);
+    private final Set<String> channelsRestored = new LCSet(this);
+    private final List<String> iSupportTokens = new CopyOnWriteArrayList<>();
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
 
     private NettyManager.ClientConnection connection;
+    private volatile boolean registered;
+    private volatile boolean shutdown;
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+    private final AtomicReference<ReconnectSlot> reconnectSlot = new AtomicReference<>();
+    private volatile int inputLineLimit;
+    private volatile ScheduledFuture<?> stateSave;
+    private volatile ScheduledFuture<?> saslTimeout;
 
     private final CapabilityManager capabilityManager = new CapabilityManager();
+    private final CommandHandlerManager commandHandlerManager = new CommandHandlerManager(this);
     private final EventManager eventManager = new EventManager(this);
 
     private final Listener<Exception> exceptionListener;
     private final Listener<String> inputListener;
     private final Listener<String> outputListener;
+    private final TrafficRecorder trafficRecorder;
+    private final ServerConnector serverConnector;
+    private final CertificatePins certificatePins;
 
     private final ActorProvider actorProvider = new ActorProvider(this);
+    private final Metrics metrics = new Metrics(this);
+    private final PresenceTracker presenceTracker = new PresenceTracker(this);
+    private final WhoScheduler whoScheduler = new WhoScheduler(this);
 
     IRCClient(Config config) {
         this.config = config;
@@ -291,14 +500,56 @@ final class IRCClient implements Client {
 
         final String name = this.config.get(Config.NAME);
 
+        this.manager = this.config.get(Config.MANAGER);
+        final Executor workers = this.manager == null ? null : this.manager.getWorkers();
+
         Config.ExceptionConsumerWrapper exceptionListenerWrapper = this.config.get(Config.LISTENER_EXCEPTION);
-        this.exceptionListener = new Listener<>(name, exceptionListenerWrapper == null ? null : exceptionListenerWrapper.getConsumer());
+        this.exceptionListener = new Listener<>(name, exceptionListenerWrapper == null ? null : exceptionListenerWrapper.getConsumer(), workers);
         Config.StringConsumerWrapper inputListenerWrapper = this.config.get(Config.LISTENER_INPUT);
-        this.inputListener = new Listener<>(name, inputListenerWrapper == null ? null : inputListenerWrapper.getConsumer());
+        this.inputListener = new Listener<>(name, inputListenerWrapper == null ? null : inputListenerWrapper.getConsumer(), workers);
         Config.StringConsumerWrapper outputListenerWrapper = this.config.get(Config.LISTENER_OUTPUT);
-        this.outputListener = new Listener<>(name, outputListenerWrapper == null ? null : outputListenerWrapper.getConsumer());
+        this.outputListener = new Listener<>(name, outputListenerWrapper == null ? null : outputListenerWrapper.getConsumer(), workers);
 
-        this.processor = new InputProcessor();
+        this.processor = workers == null ? new InputProcessor() : new PooledInputProcessor(workers);
+        this.serverConnector = new ServerConnector(this);
+        if (this.manager != null) {
+            this.manager.register(this);
+        }
+        File recording = this.config.get(Config.RECORD_INPUT);
+        TrafficRecorder trafficRecorder = null;
+        if (recording != null) {
+            try {
+                trafficRecorder = new TrafficRecorder(this, recording);
+            } catch (IOException e) {
+                this.exceptionListener.queue(e);
+            }
+        }
+        this.trafficRecorder = trafficRecorder;
+        File trustFile = this.config.get(Config.SSL_TRUST_FILE);
+        CertificatePins certificatePins = null;
+        if (trustFile != null) {
+            try {
+                certificatePins = CertificatePins.forFile(trustFile);
+            } catch (IOException e) {
+                this.exceptionListener.queue(e);
+            }
+        }
+        this.certificatePins = certificatePins == null ? new CertificatePins(null) : certificatePins;
+        if (this.config.get(Config.METRICS_JMX)) {
+            try {
+                this.metrics.registerJmx();
+            } catch (JMException e) {
+                this.exceptionListener.queue(e);
+            }
+        }
+        File stateFile = this.config.get(Config.STATE_FILE);
+        if (stateFile != null && stateFile.isFile()) {
+            try {
+                ClientStateStore.load(this, stateFile);
+            } catch (IOException e) {
+                this.exceptionListener.queue(e);
+            }
+        }
         this.connect();
     }
 
@@ -311,7 +562,9 @@ final class IRCClient implements Client {
                 continue;
             }
             this.channelsIntended.add(channelName);
-            this.sendRawLine("JOIN :" + channelName);
+            if (this.registered) {
+                this.sendRawLine("JOIN :" + channelName);
+            }
         }
     }
 
@@ -322,7 +575,9 @@ final class IRCClient implements Client {
         for (Channel channel : channels) {
             if (channel.getClient().equals(this) && channel instanceof ActorProvider.IRCChannel) {
                 this.channelsIntended.add(channel.getName());
-                this.sendRawLine("JOIN :" + channel.getName());
+                if (this.registered) {
+                    this.sendRawLine("JOIN :" + channel.getName());
+                }
             }
         }
     }
@@ -330,12 +585,17 @@ final class IRCClient implements Client {
     @Override
     public Channel getChannel(String name) {
         ActorProvider.IRCChannel channel = this.actorProvider.getChannel(name);
-        return channel == null ? null : channel.snapshot();
+        return channel == null ? null : channel.snapshot(true);
     }
 
     @Override
     public Set<Channel> getChannels() {
-        return this.channels.stream().map(this.actorProvider::getChannel).map(ActorProvider.IRCChannel::snapshot).collect(Collectors.toSet());
+        return this.channels.stream().map(this.actorProvider::getChannel).map(channel -> channel.snapshot(true)).collect(Collectors.toSet());
+    }
+
+    @Override
+    public CommandHandlerManager getCommandHandlerManager() {
+        return this.commandHandlerManager;
     }
 
     @Override
@@ -353,6 +613,11 @@ final class IRCClient implements Client {
         return this.config.get(Config.MESSAGE_DELAY);
     }
 
+    @Override
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
     @Override
     public String getName() {
         return this.config.get(Config.NAME);
@@ -363,6 +628,11 @@ final class IRCClient implements Client {
         return this.currentNick;
     }
 
+    @Override
+    public PresenceTracker getPresenceTracker() {
+        return this.presenceTracker;
+    }
+
     @Override
     public IRCServerInfo getServerInfo() {
         return this.serverInfo;
@@ -501,7 +771,28 @@ final class IRCClient implements Client {
         if (reason != null) {
             Sanity.safeMessageCheck(reason, "quit reason");
         }
-        this.processor.interrupt();
+        this.shutdown = true;
+        byte[] state = this.snapshotStateOnShutdown();
+        this.processor.shutdown();
+        if (this.manager != null) {
+            this.manager.unregister(this);
+        }
+        if (this.trafficRecorder != null) {
+            this.trafficRecorder.shutdown();
+        }
+        SslContextCache.release(this);
+        ScheduledFuture<?> stateSave = this.stateSave;
+        if (stateSave != null) {
+            stateSave.cancel(false);
+        }
+        if (state != null) {
+            this.writeState(state);
+        }
+        try {
+            this.metrics.unregisterJmx();
+        } catch (JMException e) {
+            this.exceptionListener.queue(e);
+        }
 
         this.connection.shutdown(reason != null && reason.isEmpty() ? null : reason);
 
@@ -517,13 +808,67 @@ final class IRCClient implements Client {
      * @param line line to be processed
      */
     void processLine(String line) {
-        if (line.startsWith("PING ")) {
-            this.sendPriorityRawLine("PONG " + line.substring(5));
+        if (this.trafficRecorder != null) {
+            this.trafficRecorder.record(line);
+        }
+        final int start = line.startsWith("@") ? line.indexOf(' ') + 1 : 0; // Skip message tags
+        if (line.startsWith("PING ", start)) {
+            this.sendPriorityRawLine("PONG " + line.substring(start + 5));
         } else {
             this.processor.queue(line);
         }
     }
 
+    /**
+     * Queues a line to be handled in order with those received, as if it
+     * had been received itself, though without being recorded.
+     *
+     * @param line line to handle
+     */
+    void queueInput(String line) {
+        this.processor.queue(line);
+    }
+
+    /**
+     * Gets a future completing once every line queued so far has been
+     * handled.
+     *
+     * @return input future
+     */
+    CompletableFuture<Void> whenInputHandled() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        this.processor.queue(() -> future.complete(null));
+        return future;
+    }
+
+    /**
+     * Gets a future completing once the current connection attempt has
+     * connected, or failed to connect to every server.
+     *
+     * @return connection future
+     */
+    CompletableFuture<Client> whenConnected() {
+        CompletableFuture<Client> future = new CompletableFuture<>();
+        this.connection.getConnectFuture().addListener(connected -> {
+            if (connected.isSuccess()) {
+                future.complete(this);
+            } else if (connected.isCancelled()) {
+                future.cancel(false);
+            } else {
+                future.completeExceptionally(connected.cause());
+            }
+        });
+        return future;
+    }
+
+    ServerConnector getServerConnector() {
+        return this.serverConnector;
+    }
+
+    CertificatePins getCertificatePins() {
+        return this.certificatePins;
+    }
+
     Config getConfig() {
         return this.config;
     }
@@ -532,6 +877,10 @@ final class IRCClient implements Client {
         return this.exceptionListener;
     }
 
+    TrafficRecorder getTrafficRecorder() {
+        return this.trafficRecorder;
+    }
+
     Listener<String> getInputListener() {
         return this.inputListener;
     }
@@ -540,9 +889,18 @@ final class IRCClient implements Client {
         return this.outputListener;
     }
 
+    /**
+     * Gets the current maximum length of an incoming line.
+     *
+     * @return maximum line length in bytes, excluding the line break
+     */
+    int getInputLineLimit() {
+        return this.inputLineLimit;
+    }
+
     void authenticate() {
         AuthType authType = this.config.get(Config.AUTH_TYPE);
-        if (authType != null) {
+        if (authType != null && !authType.isSasl()) { // SASL is handled during capability negotiation
             String auth;
             String authReclaim;
             String name = this.config.get(Config.AUTH_NAME);
@@ -566,6 +924,14 @@ final class IRCClient implements Client {
     }
 
     void connect() {
+        this.registered = false;
+        this.capabilityManager.reset();
+        this.batches.values().forEach(batch -> batch.timeout.cancel(false));
+        this.batches.clear();
+        this.cancelSaslTimeout();
+        this.whoScheduler.reset();
+        this.presenceTracker.reset();
+        this.updateInputLineLimit();
         this.connection = NettyManager.connect(this);
 
         this.sendPriorityRawLine("CAP LS");
@@ -580,6 +946,154 @@ final class IRCClient implements Client {
         this.sendNickChange(this.goalNick);
     }
 
+    /**
+     * Schedules the next reconnect attempt, if the reconnect policy allows
+     * another and the client hasn't been shut down.
+     *
+     * @param executor executor to schedule the attempt on
+     * @return true if an attempt was scheduled
+     */
+    boolean scheduleReconnect(ScheduledExecutorService executor) {
+        final ReconnectPolicy policy = this.config.get(Config.RECONNECT_POLICY);
+        if (this.shutdown || policy == null) {
+            return false;
+        }
+        final int attempt = this.reconnectAttempts.incrementAndGet();
+        final long delay = policy.getDelay(attempt);
+        if (delay < 0) {
+            return false;
+        }
+        FlightRecorderSupport.reconnect(this, delay, TimeUnit.MILLISECONDS);
+        // Fired after the task scheduling this, so after the disconnection has been announced
+        executor.execute(() -> this.eventManager.callEvent(new ClientReconnectScheduledEvent(this, attempt, delay)));
+        executor.schedule(() -> policy.acquire(() -> executor.execute(() -> this.reconnect(executor, policy, attempt))), delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void reconnect(ScheduledExecutorService executor, ReconnectPolicy policy, int attempt) {
+        final ReconnectSlot slot = new ReconnectSlot(policy);
+        this.reconnectSlot.set(slot);
+        if (this.shutdown) {
+            this.releaseReconnectSlot();
+        } else {
+            // Don't keep other clients waiting on a server which never registers us
+            executor.schedule(() -> this.releaseReconnectSlot(slot), policy.getAttemptTimeout(), TimeUnit.MILLISECONDS);
+            this.eventManager.callEvent(new ClientReconnectingEvent(this, attempt));
+            this.connect(); // A failure to connect schedules the next attempt
+        }
+        NettyManager.reconnectEnded(this);
+    }
+
+    /**
+     * Ends the current reconnect attempt, if any, letting another client
+     * sharing the reconnect policy begin one.
+     */
+    void releaseReconnectSlot() {
+        ReconnectSlot slot = this.reconnectSlot.getAndSet(null);
+        if (slot != null) {
+            slot.policy.release();
+        }
+    }
+
+    private void releaseReconnectSlot(ReconnectSlot slot) {
+        if (this.reconnectSlot.compareAndSet(slot, null)) {
+            slot.policy.release();
+        }
+    }
+
+    /**
+     * Schedules a request for the user list of a channel.
+     *
+     * @param channel channel name
+     * @param priority true if the list is wanted ahead of other channels
+     */
+    void requestWho(String channel, boolean priority) {
+        if (!this.isWhoNeeded()) {
+            return; // NAMES has already given us everything
+        }
+        if (this.channelsRestored.contains(channel)) {
+            return; // Until rejoined and reconciled with NAMES
+        }
+        this.whoScheduler.request(channel, priority);
+    }
+
+    /**
+     * Gets if WHO adds anything to NAMES replies. With userhost-in-names,
+     * WHO only adds away status, accounts and real names, which are only
+     * needed when kept current by away-notify, account-notify or
+     * extended-join.
+     *
+     * @return true if channels should be sent WHO
+     */
+    private boolean isWhoNeeded() {
+        return !this.capabilityManager.isCapabilityEnabled("userhost-in-names") || this.capabilityManager.isCapabilityEnabled("away-notify") ||
+                this.capabilityManager.isCapabilityEnabled("account-notify") || this.capabilityManager.isCapabilityEnabled("extended-join");
+    }
+
+    /**
+     * Sends a request for the user list of channels, via WHOX if supported
+     * so only the fields tracked by the client are sent.
+     *
+     * @param target channel name, or comma separated channel names
+     */
+    void sendWho(String target) {
+        if (this.serverInfo.isWhoXSupported()) {
+            // Token, channel, user, host, nick, flags, account, real name
+            this.sendRawLine("WHO " + target + " %tcuhnfar," + WHOX_TOKEN);
+        } else {
+            this.sendRawLine("WHO " + target);
+        }
+    }
+
+    /**
+     * Schedules a task on the current connection.
+     *
+     * @param task task to run
+     * @param delay delay in milliseconds
+     * @return the scheduled task
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return this.connection.schedule(task, delay);
+    }
+
+    ActorProvider getActorProvider() {
+        return this.actorProvider;
+    }
+
+    List<String> getISupportTokens() {
+        return new ArrayList<>(this.iSupportTokens);
+    }
+
+    int getInputBacklog() {
+        return this.processor.getQueueSize();
+    }
+
+    int getOutputQueueSize() {
+        NettyManager.ClientConnection connection = this.connection;
+        return connection == null ? 0 : connection.getQueueSize();
+    }
+
+    Set<String> getTrackedChannelNames() {
+        return new HashSet<>(this.channels);
+    }
+
+    void processISupport(String token) {
+        this.iSupportTokens.add(token);
+        ISupport.handle(token, this);
+    }
+
+    /**
+     * Tracks a channel loaded from the state file, until reconciled with
+     * NAMES after rejoining or found not to be wanted.
+     *
+     * @param channel loaded channel
+     */
+    void restoreChannel(ActorProvider.IRCChannel channel) {
+        this.channels.add(channel.getName());
+        this.channelsRestored.add(channel.getName());
+        this.actorProvider.channelTrack(channel);
+    }
+
     void ping() {
         this.sendRawLine("PING :" + this.pingPurr[this.pingPurrCount++ % this.pingPurr.length]); // Connection's asleep, post cat sounds
     }
@@ -600,12 +1114,42 @@ final class IRCClient implements Client {
         return argsList.toArray(new String[argsList.size()]);
     }
 
-    private void handleLine(final String line) {
+    private void handleInput(Object element) {
+        try {
+            if (element instanceof Runnable) {
+                ((Runnable) element).run();
+            } else {
+                this.handleLine((String) element);
+            }
+        } catch (final Throwable thrown) {
+            if (thrown instanceof Exception) {
+                this.exceptionListener.queue((Exception) thrown);
+            }
+        }
+    }
+
+    void handleLine(final String line) {
         if ((line == null) || (line.length() == 0)) {
             return;
         }
+        final long start = System.nanoTime();
+        final Object parseEvent = FlightRecorderSupport.beginLineParsed();
+
+        final MessageTags tags;
+        final String content;
+        if (line.charAt(0) == '@') {
+            final int tagsEnd = line.indexOf(' ');
+            if (tagsEnd == -1) {
+                return;
+            }
+            tags = new MessageTags(line.substring(1, tagsEnd));
+            content = line.substring(tagsEnd + 1);
+        } else {
+            tags = MessageTags.EMPTY;
+            content = line;
+        }
 
-        final String[] split = line.split(" ");
+        final String[] split = content.split(" ");
 
         int argsIndex = 1;
 
@@ -620,6 +1164,15 @@ final class IRCClient implements Client {
 
         final String commandString = split[argsIndex - 1];
 
+        final Batch batch = this.getHoldingBatch(tags, commandString, split, argsIndex);
+        if (batch != null) {
+            batch.lines.add(line);
+            if (batch.lines.size() >= BATCH_MAX_LINES && this.batches.remove(batch.referenceId, batch)) {
+                this.endBatch(batch);
+            }
+            return;
+        }
+
         final String[] args = this.handleArgs(split, argsIndex);
 
         int numeric = -1;
@@ -627,14 +1180,17 @@ final class IRCClient implements Client {
             numeric = Integer.parseInt(commandString);
         } catch (NumberFormatException ignored) {
         }
+        this.metrics.recordParseTime(System.nanoTime() - start);
+        FlightRecorderSupport.commitLineParsed(parseEvent, this, commandString, args);
         if (numeric > -1) {
             this.handleLineNumeric(actor, numeric, args);
         } else {
             Command command = Command.getByName(commandString);
             if (command != null) {
-                this.handleLineCommand(actor, command, args);
+                this.handleLineCommand(actor, command, args, tags);
             }
         }
+        this.commandHandlerManager.handle(actor, commandString, args, tags);
     }
 
     private void handleLineNumeric(final ActorProvider.IRCActor actor, final int command, final String[] args) {
@@ -650,12 +1206,19 @@ final class IRCClient implements Client {
                 this.authenticate();
                 this.serverInfo = new IRCServerInfo(this);
                 this.serverInfo.setServerVersion(args[2]);
+                this.reconnectAttempts.set(0);
+                this.releaseReconnectSlot();
                 this.eventManager.callEvent(new ClientConnectedEvent(this, actor.snapshot(), this.serverInfo));
+                this.registered = true;
+                this.iSupportTokens.clear();
+                this.joinIntendedChannels();
+                this.dropRestoredChannels();
                 this.connection.startSending();
                 break;
             case 5: // ISUPPORT
-                for (String arg : args) {
-                    ISupport.handle(arg, this);
+                // Self is arg 0, description is the last arg
+                for (int i = 1; i < args.length - 1; i++) {
+                    this.processISupport(args[i]);
                 }
                 break;
             case 250: // Highest connection count
@@ -667,12 +1230,21 @@ final class IRCClient implements Client {
             case 265: // Local users, max
             case 266: // global users, max
                 break;
+            case 303: // ISON
+                this.presenceTracker.handleIsonReply(args[1]);
+                break;
             case 315: // WHO completed
                 // Self is arg 0
-                if (this.serverInfo.isValidChannel(args[1])) { // target
-                    this.actorProvider.getChannel(args[1]).setListReceived();
-                    this.eventManager.callEvent(new ChannelUsersUpdatedEvent(this, this.actorProvider.getChannel(args[1]).snapshot()));
+                for (String target : args[1].split(",")) { // Possibly multiple targets
+                    if (this.serverInfo.isValidChannel(target)) {
+                        ActorProvider.IRCChannel whoChannel = this.actorProvider.getChannel(target);
+                        if (whoChannel != null) {
+                            whoChannel.setListReceived();
+                            this.eventManager.callEvent(new ChannelUsersUpdatedEvent(this, whoChannel.snapshot()));
+                        }
+                    }
                 }
+                this.whoScheduler.complete(args[1]);
                 break;
             // Channel info
             case 332: // Channel topic
@@ -681,42 +1253,32 @@ final class IRCClient implements Client {
             case 352: // WHO list
                 // Self is arg 0
                 if (this.serverInfo.isValidChannel(args[1])) {
-                    final String channelName = args[1];
-                    final String ident = args[2];
-                    final String host = args[3];
-                    // server is arg 4
-                    final String nick = args[5];
-                    final String status = args[6];
-                    // The rest I don't care about
-                    final ActorProvider.IRCUser user = (ActorProvider.IRCUser) this.actorProvider.getActor(nick + "!" + ident + "@" + host);
-                    final ActorProvider.IRCChannel channel = this.actorProvider.getChannel(channelName);
-                    final Set<ChannelUserMode> modes = new HashSet<>();
-                    for (char prefix : status.substring(1).toCharArray()) {
-                        for (ChannelUserMode mode : this.serverInfo.getChannelUserModes()) {
-                            if (mode.getPrefix() == prefix) {
-                                modes.add(mode);
-                                break;
-                            }
-                        }
-                    }
-                    channel.trackUser(user, modes);
+                    // server is arg 4, then status, and hop count before the real name
+                    String[] hopsAndName = args.length > 7 ? args[7].split(" ", 2) : new String[0];
+                    this.trackWhoReply(args[1], args[2], args[3], args[5], args[6], null, hopsAndName.length > 1 ? hopsAndName[1] : null);
                 }
                 break;
             case 353: // Channel users list (/names). format is 353 nick = #channel :names
                 if (this.serverInfo.isValidChannel(args[2])) {
+                    // Collected separately and published at 366
                     ActorProvider.IRCChannel channel = this.actorProvider.getChannel(args[2]);
-                    List<ChannelUserMode> channelUserModes = this.serverInfo.getChannelUserModes();
                     for (String combo : args[3].split(" ")) {
-                        Set<ChannelUserMode> modes = new HashSet<>();
-                        for (int i = 0; i < combo.length(); i++) {
-                            char c = combo.charAt(i);
-                            Optional<ChannelUserMode> mode = channelUserModes.stream().filter(m -> m.getPrefix() == c).findFirst();
-                            if (mode.isPresent()) {
-                                modes.add(mode.get());
-                            } else {
-                                channel.trackNick(combo.substring(i), modes);
-                                break;
-                            }
+                        Set<ChannelUserMode> modes = new HashSet<>(2);
+                        int i = 0;
+                        ChannelUserMode mode;
+                        while (i < combo.length() && (mode = this.serverInfo.getChannelUserModeByPrefix(combo.charAt(i))) != null) {
+                            modes.add(mode);
+                            i++;
+                        }
+                        if (i == combo.length()) {
+                            continue;
+                        }
+                        final String name = i == 0 ? combo : combo.substring(i);
+                        final ActorProvider.IRCActor named = name.indexOf('!') == -1 ? null : this.actorProvider.getActor(name); // userhost-in-names
+                        if (named instanceof ActorProvider.IRCUser) {
+                            channel.trackNamesUser((ActorProvider.IRCUser) named, modes);
+                        } else {
+                            channel.trackNamesNick(name, modes);
                         }
                     }
                 }
@@ -724,13 +1286,52 @@ final class IRCClient implements Client {
             case 366: // End of /names
                 if (this.serverInfo.isValidChannel(args[1])) {
                     ActorProvider.IRCChannel channel = this.actorProvider.getChannel(args[1]);
+                    // Every member known, from userhost-in-names or from before rejoining
+                    boolean complete = channel.publishNames();
+                    this.channelsRestored.remove(channel.getName());
+                    if (complete) {
+                        channel.setListReceived();
+                        this.whoScheduler.cancel(channel.getName());
+                    }
                     this.eventManager.callEvent(new ChannelNamesUpdatedEvent(this, channel.snapshot()));
+                    if (complete) {
+                        this.eventManager.callEvent(new ChannelUsersUpdatedEvent(this, channel.snapshot()));
+                    }
+                    if (this.channels.contains(channel.getName())) { // Not for NAMES of channels we aren't in
+                        this.requestWho(channel.getName(), false); // Skipped if complete with nothing to add
+                    }
+                }
+                break;
+            case 354: // WHOX list
+                // Self is arg 0, then our requested fields in order: token, channel, user, host, nick, flags, account, real name
+                if (args.length > 7 && WHOX_TOKEN.equals(args[1]) && this.serverInfo.isValidChannel(args[2])) {
+                    this.trackWhoReply(args[2], args[3], args[4], args[5], args[6], args[7], args.length > 8 ? args[8] : null);
                 }
                 break;
             case 372: // info, such as continued motd
             case 375: // motd start
+                break;
             case 376: // motd end
             case 422: // MOTD missing
+                // ISUPPORT is complete by now
+                this.presenceTracker.start();
+                if (this.stateSave == null) {
+                    this.scheduleStateSave();
+                }
+                break;
+            // Join errors
+            case 403: // No such channel
+            case 405: // Too many channels
+            case 437: // Channel temporarily unavailable
+            case 471: // Channel full
+            case 473: // Invite only
+            case 474: // Banned
+            case 475: // Bad key
+            case 477: // Registered nicks only
+            case 489: // Secure connections only
+                if (args.length > 1) { // Restored state won't be reconciled
+                    this.dropRestoredChannel(args[1]);
+                }
                 break;
             // Nick errors, try for new nick below
             case 431: // No nick given
@@ -740,15 +1341,126 @@ final class IRCClient implements Client {
                 this.eventManager.callEvent(nickRejectedEvent);
                 this.sendNickChange(nickRejectedEvent.getNewNick());
                 break;
+            case 512: // WATCH list full
+                this.presenceTracker.handleListFull(args[1]);
+                break;
+            case 600: // WATCH logon
+            case 604: // WATCH now online
+                this.presenceTracker.setOnline(args[1]);
+                break;
+            case 601: // WATCH logoff
+            case 605: // WATCH now offline
+                this.presenceTracker.setOffline(args[1]);
+                break;
+            case 602: // WATCH stopped
+            case 603: // WATCH stats
+            case 606: // WATCH list
+            case 607: // WATCH list end
+                break;
             case 710: // KNOCK KNOCK, WHO'S THERE?
                 ActorProvider.IRCChannel channel = this.actorProvider.getChannel(args[1]);
                 ActorProvider.IRCUser user = (ActorProvider.IRCUser) this.actorProvider.getActor(args[2]);
                 this.eventManager.callEvent(new ChannelKnockEvent(this, channel.snapshot(), user.snapshot()));
                 break;
+            case 730: // MONITOR online
+                for (String target : args[1].split(",")) {
+                    this.presenceTracker.setOnline(target);
+                }
+                break;
+            case 731: // MONITOR offline
+                for (String target : args[1].split(",")) {
+                    this.presenceTracker.setOffline(target);
+                }
+                break;
+            case 732: // MONITOR list
+            case 733: // MONITOR list end
+                break;
+            case 734: // MONITOR list full
+                this.presenceTracker.handleListFull(args[2]);
+                break;
+            case 900: // Logged in as
+            case 901: // Logged out
+            case 908: // SASL mechanisms available
+                break;
+            case 902: // SASL nick locked
+            case 903: // SASL success
+            case 904: // SASL failure
+            case 905: // SASL message too long
+            case 906: // SASL aborted
+            case 907: // SASL already authenticated
+                this.cancelSaslTimeout();
+                if (this.capabilityManager.isNegotiating()) {
+                    this.sendRawLineImmediately("CAP END");
+                    this.capabilityManager.endNegotiation();
+                }
+                break;
+        }
+    }
+
+    private void cancelSaslTimeout() {
+        if (this.saslTimeout != null) {
+            this.saslTimeout.cancel(false);
+            this.saslTimeout = null;
         }
     }
 
-    private void handleLineCommand(final ActorProvider.IRCActor actor, final Command command, final String[] args) {
+    /**
+     * Aborts SASL authentication and ends capability negotiation, unless
+     * the server has answered since the timeout was scheduled.
+     */
+    void abortSasl() {
+        if (this.saslTimeout == null) { // Answered while the abort was queued
+            return;
+        }
+        this.saslTimeout = null;
+        if (this.capabilityManager.isNegotiating()) {
+            this.exceptionListener.queue(new KittehConnectionException(new TimeoutException("SASL authentication went unanswered"), false));
+            this.sendRawLineImmediately("AUTHENTICATE *");
+            this.sendRawLineImmediately("CAP END");
+            this.capabilityManager.endNegotiation();
+        }
+    }
+
+    private void trackExtendedJoin(ActorProvider.IRCUser user, String[] args) {
+        if (args.length > 2 && this.capabilityManager.isCapabilityEnabled("extended-join")) { // channel, account, realname
+            user.setAccount(args[1].equals("*") ? null : args[1]);
+            user.setRealName(args[2]);
+        }
+    }
+
+    private void trackWhoReply(String channelName, String ident, String host, String nick, String status, String account, String realName) {
+        final ActorProvider.IRCUser user = (ActorProvider.IRCUser) this.actorProvider.getActor(nick + "!" + ident + "@" + host);
+        final ActorProvider.IRCUser tracked = this.actorProvider.getTrackedUser(nick);
+        if (tracked != null) {
+            user.setAwayMessage(tracked.getAwayMessage());
+            user.setRealName(tracked.getRealName());
+            user.setAccount(tracked.getAccount());
+        }
+        if (realName != null) {
+            user.setRealName(realName);
+        }
+        if (status.charAt(0) == 'G') { // Gone
+            if (user.getAwayMessage() == null) {
+                user.setAwayMessage(""); // Message unknown
+            }
+        } else {
+            user.setAwayMessage(null);
+        }
+        if (account != null) { // Only WHOX has the field, 0 if not logged in
+            user.setAccount(account.equals("0") ? null : account);
+        }
+        final ActorProvider.IRCChannel channel = this.actorProvider.getChannel(channelName);
+        final Set<ChannelUserMode> modes = new HashSet<>();
+        for (int i = 1; i < status.length(); i++) {
+            ChannelUserMode mode = this.serverInfo.getChannelUserModeByPrefix(status.charAt(i));
+            if (mode != null) {
+                modes.add(mode);
+            }
+        }
+        channel.trackUser(user, modes);
+    }
+
+    private void handleLineCommand(final ActorProvider.IRCActor actor, final Command command, final String[] args, final MessageTags tags) {
         // CTCP
         if ((command == Command.NOTICE || command == Command.PRIVMSG) && CTCPUtil.isCTCP(args[1])) {
             final String ctcpMessage = CTCPUtil.fromCTCP(args[1]);
@@ -757,7 +1469,7 @@ final class IRCClient implements Client {
             switch (command) {
                 case NOTICE:
                     if (messageTarget == MessageTarget.PRIVATE) {
-                        this.eventManager.callEvent(new PrivateCTCPReplyEvent(this, user.snapshot(), ctcpMessage));
+                        this.eventManager.callEvent(new PrivateCTCPReplyEvent(this, user.snapshot(), ctcpMessage, tags));
                     }
                     break;
                 case PRIVMSG:
@@ -773,7 +1485,7 @@ final class IRCClient implements Client {
                             } else if (ctcpMessage.startsWith("PING ")) {
                                 reply = ctcpMessage;
                             }
-                            PrivateCTCPQueryEvent event = new PrivateCTCPQueryEvent(this, user.snapshot(), ctcpMessage, reply);
+                            PrivateCTCPQueryEvent event = new PrivateCTCPQueryEvent(this, user.snapshot(), ctcpMessage, reply, tags);
                             this.eventManager.callEvent(event);
                             reply = event.getReply();
                             if (reply != null) {
@@ -781,10 +1493,10 @@ final class IRCClient implements Client {
                             }
                             break;
                         case CHANNEL:
-                            this.eventManager.callEvent(new ChannelCTCPEvent(this, user.snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), ctcpMessage));
+                            this.eventManager.callEvent(new ChannelCTCPEvent(this, user.snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), ctcpMessage, tags));
                             break;
                         case CHANNEL_TARGETED:
-                            this.eventManager.callEvent(new ChannelTargetedCTCPEvent(this, user.snapshot(), this.actorProvider.getChannel(args[0].substring(1)).snapshot(), this.serverInfo.getTargetedChannelInfo(args[0]), ctcpMessage));
+                            this.eventManager.callEvent(new ChannelTargetedCTCPEvent(this, user.snapshot(), this.actorProvider.getChannel(args[0].substring(1)).snapshot(), this.serverInfo.getTargetedChannelInfo(args[0]), ctcpMessage, tags));
                             break;
                     }
                     break;
@@ -794,19 +1506,33 @@ final class IRCClient implements Client {
         switch (command) {
             case CAP:
                 CapabilityNegotiationResponseEvent event = null;
-                List<CapabilityState> capabilityStateList = Arrays.stream(args[2].split(" ")).map(CapabilityState::new).collect(Collectors.toList());
+                List<CapabilityState> capabilityStateList = Arrays.stream(args[2].split(" ")).filter(name -> !name.isEmpty()).map(CapabilityState::new).collect(Collectors.toList());
                 switch (args[1].toLowerCase()) {
                     case "ack":
+                        this.capabilityManager.updateCapabilities(capabilityStateList);
+                        this.updateInputLineLimit();
                         event = new CapabilitiesAcknowledgedEvent(this, this.capabilityManager.isNegotiating(), capabilityStateList);
+                        AuthType authType = this.config.get(Config.AUTH_TYPE);
+                        if (authType != null && authType.isSasl() && capabilityStateList.stream().anyMatch(state -> !state.isDisabled() && state.getCapabilityName().equalsIgnoreCase("sasl"))) {
+                            this.sendRawLineImmediately("AUTHENTICATE " + authType.getSaslMechanism());
+                            this.cancelSaslTimeout();
+                            this.saslTimeout = this.schedule(() -> this.processor.queue(this::abortSasl), SASL_TIMEOUT);
+                            event.setEndingNegotiation(false); // Ends once SASL completes
+                        }
                         this.eventManager.callEvent(event);
                         break;
                     case "list":
                         this.eventManager.callEvent(new CapabilitiesListEvent(this, capabilityStateList));
                         break;
                     case "ls":
+                        this.capabilityManager.setSupportedCapabilities(capabilityStateList);
                         event = new CapabilitiesSupportedListEvent(this, this.capabilityManager.isNegotiating(), capabilityStateList);
-                        if (capabilityStateList.stream().filter(state -> state.getCapabilityName().equalsIgnoreCase("multi-prefix")).findFirst().isPresent()) {
-                            this.sendRawLineImmediately("CAP REQ :multi-prefix");
+                        List<String> requested = this.capabilityManager.getRequestedCapabilities(capabilityStateList, this.isSaslDesired());
+                        if (!requested.isEmpty()) {
+                            this.sendRawLineImmediately("CAP REQ :" + String.join(" ", requested));
+                            if (requested.stream().anyMatch(name -> name.equalsIgnoreCase("sasl"))) {
+                                event.setEndingNegotiation(false); // Wait for the ACK
+                            }
                         }
                         this.eventManager.callEvent(event);
                         break;
@@ -825,26 +1551,26 @@ final class IRCClient implements Client {
             case NOTICE:
                 switch (this.getTypeByTarget(args[0])) {
                     case CHANNEL:
-                        this.eventManager.callEvent(new ChannelNoticeEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), args[1]));
+                        this.eventManager.callEvent(new ChannelNoticeEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), args[1], tags));
                         break;
                     case CHANNEL_TARGETED:
-                        this.eventManager.callEvent(new ChannelTargetedNoticeEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0].substring(1)).snapshot(), this.serverInfo.getTargetedChannelInfo(args[0]), args[1]));
+                        this.eventManager.callEvent(new ChannelTargetedNoticeEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0].substring(1)).snapshot(), this.serverInfo.getTargetedChannelInfo(args[0]), args[1], tags));
                         break;
                     case PRIVATE:
-                        this.eventManager.callEvent(new PrivateNoticeEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), args[1]));
+                        this.eventManager.callEvent(new PrivateNoticeEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), args[1], tags));
                         break;
                 }
                 break;
             case PRIVMSG:
                 switch (this.getTypeByTarget(args[0])) {
                     case CHANNEL:
-                        this.eventManager.callEvent(new ChannelMessageEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), args[1]));
+                        this.eventManager.callEvent(new ChannelMessageEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), args[1], tags));
                         break;
                     case CHANNEL_TARGETED:
-                        this.eventManager.callEvent(new ChannelTargetedMessageEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0].substring(1)).snapshot(), this.serverInfo.getTargetedChannelInfo(args[0]), args[1]));
+                        this.eventManager.callEvent(new ChannelTargetedMessageEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), this.actorProvider.getChannel(args[0].substring(1)).snapshot(), this.serverInfo.getTargetedChannelInfo(args[0]), args[1], tags));
                         break;
                     case PRIVATE:
-                        this.eventManager.callEvent(new PrivateMessageEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), args[1]));
+                        this.eventManager.callEvent(new PrivateMessageEvent(this, ((ActorProvider.IRCUser) actor).snapshot(), args[1], tags));
                         break;
                 }
                 break;
@@ -903,11 +1629,14 @@ final class IRCClient implements Client {
                 if (actor instanceof ActorProvider.IRCUser) { // Just in case
                     ActorProvider.IRCChannel channel = this.actorProvider.getChannel(args[0]);
                     ActorProvider.IRCUser user = (ActorProvider.IRCUser) actor;
+                    this.trackExtendedJoin(user, args);
                     channel.trackUserJoin(user);
                     if (user.getNick().equals(this.currentNick)) {
                         this.channels.add(args[0]);
                         this.actorProvider.channelTrack(channel);
-                        this.sendRawLine("WHO " + channel.getName());
+                        if (!this.channelsRestored.contains(args[0])) {
+                            this.requestWho(channel.getName(), false);
+                        } // Otherwise reconciled with NAMES
                     }
                     this.eventManager.callEvent(new ChannelJoinEvent(this, channel.snapshot(), user.snapshot()));
                 }
@@ -921,6 +1650,7 @@ final class IRCClient implements Client {
                     if (user.getNick().equals(this.currentNick)) {
                         this.channels.remove(channel.getName());
                         this.actorProvider.channelUntrack(channel);
+                        this.whoScheduler.cancel(channel.getName());
                     }
                 }
                 break;
@@ -937,6 +1667,7 @@ final class IRCClient implements Client {
                 if (args[1].equals(this.currentNick)) {
                     this.channels.remove(kickedChannel.getName());
                     this.actorProvider.channelUntrack(kickedChannel);
+                    this.whoScheduler.cancel(kickedChannel.getName());
                 }
                 this.eventManager.callEvent(new ChannelKickEvent(this, kickedChannel.snapshot(), ((ActorProvider.IRCUser) actor).snapshot(), kickedUser.snapshot(), args.length > 2 ? args[2] : ""));
                 break;
@@ -960,11 +1691,186 @@ final class IRCClient implements Client {
             case TOPIC:
                 this.eventManager.callEvent(new ChannelTopicEvent(this, actor.snapshot(), this.actorProvider.getChannel(args[0]).snapshot(), args[1]));
                 break;
+            case AUTHENTICATE:
+                if (args.length > 0 && args[0].equals("+") && this.isSaslDesired()) {
+                    for (String response : this.capabilityManager.getSaslResponse(this.config.get(Config.AUTH_TYPE), this.config.get(Config.AUTH_NAME), this.config.get(Config.AUTH_PASS))) {
+                        this.sendRawLineImmediately("AUTHENTICATE " + response);
+                    }
+                }
+                break;
+            case ACCOUNT:
+                if (actor instanceof ActorProvider.IRCUser && args.length > 0) {
+                    final String account = args[0].equals("*") ? null : args[0];
+                    ActorProvider.IRCUser user = (ActorProvider.IRCUser) actor;
+                    this.actorProvider.trackUserAccount(user.getNick(), account);
+                    this.eventManager.callEvent(new UserAccountStatusEvent(this, this.getTrackedSnapshot(user), account));
+                }
+                break;
+            case AWAY:
+                if (actor instanceof ActorProvider.IRCUser) {
+                    final String awayMessage = args.length > 0 ? args[0] : null;
+                    ActorProvider.IRCUser user = (ActorProvider.IRCUser) actor;
+                    this.actorProvider.trackUserAway(user.getNick(), awayMessage);
+                    this.eventManager.callEvent(new UserAwayMessageEvent(this, this.getTrackedSnapshot(user), awayMessage));
+                }
+                break;
+            case CHGHOST:
+                if (actor instanceof ActorProvider.IRCUser && args.length > 1) {
+                    ActorProvider.IRCUser user = (ActorProvider.IRCUser) actor;
+                    User oldUser = this.getTrackedSnapshot(user);
+                    ActorProvider.IRCUser newUser = this.actorProvider.trackUserHostnameChange(user, args[0], args[1]);
+                    this.eventManager.callEvent(new UserHostnameChangeEvent(this, oldUser, newUser.snapshot()));
+                }
+                break;
+            case BATCH:
+                if (args.length > 0 && args[0].length() > 1) {
+                    final String referenceId = args[0].substring(1);
+                    if (args[0].charAt(0) == '+' && args.length > 1) {
+                        final Batch batch = new Batch(referenceId, args[1], new ArrayList<>(Arrays.asList(args).subList(2, args.length)));
+                        // Ended in line with the input, in case the server never does, unless already ended
+                        batch.timeout = this.schedule(() -> this.processor.queue(() -> {
+                            if (this.batches.remove(referenceId, batch)) {
+                                this.endBatch(batch);
+                            }
+                        }), BATCH_TIMEOUT);
+                        final Batch replaced = this.batches.put(referenceId, batch);
+                        if (replaced != null && replaced.referenceId.equals(referenceId)) {
+                            this.endBatch(replaced);
+                        }
+                    } else if (args[0].charAt(0) == '-') {
+                        final Batch batch = this.batches.remove(referenceId);
+                        if (batch != null) {
+                            this.endBatch(batch);
+                        }
+                    }
+                }
+                break;
             default:
                 break;
         }
     }
 
+    private void joinIntendedChannels() {
+        // Combine into as few JOINs as fit in a line
+        StringBuilder builder = new StringBuilder();
+        for (String channel : this.channelsIntended) {
+            if (builder.length() > 0 && builder.length() + channel.length() > 400) {
+                this.sendRawLine("JOIN " + builder);
+                builder.setLength(0);
+            }
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(channel);
+        }
+        if (builder.length() > 0) {
+            this.sendRawLine("JOIN " + builder);
+        }
+    }
+
+    private boolean isSaslDesired() {
+        AuthType authType = this.config.get(Config.AUTH_TYPE);
+        return authType != null && authType.isSasl();
+    }
+
+    /**
+     * Gets the open batch holding a line until it ends. A batch nested in
+     * one still open is held in its parent, along with its lines, so the
+     * parent's lines are all handled in order before the nested batch.
+     *
+     * @return the holding batch, or null to handle the line now
+     */
+    private Batch getHoldingBatch(MessageTags tags, String commandString, String[] split, int argsIndex) {
+        final String batchReference = tags.getBatch();
+        Batch batch = (batchReference == null) ? null : this.batches.get(batchReference);
+        if (commandString.equalsIgnoreCase("BATCH") && split.length > argsIndex && split[argsIndex].length() > 1) {
+            final String referenceId = split[argsIndex].substring(1);
+            if (split[argsIndex].charAt(0) == '+') {
+                if (batch != null) {
+                    this.batches.put(referenceId, batch); // Lines of the nested batch go to the parent
+                }
+            } else if (split[argsIndex].charAt(0) == '-') {
+                final Batch nestedIn = this.batches.get(referenceId);
+                if (nestedIn != null && !nestedIn.referenceId.equals(referenceId)) {
+                    this.batches.remove(referenceId, nestedIn);
+                    batch = nestedIn;
+                }
+            }
+        }
+        return batch;
+    }
+
+    private void endBatch(Batch batch) {
+        batch.timeout.cancel(false);
+        this.batches.values().removeIf(held -> held == batch); // Nested batches still open within it
+        this.handleBatch(batch);
+    }
+
+    private void handleBatch(Batch batch) {
+        BatchEvent event = new BatchEvent(this, batch.referenceId, batch.type, batch.parameters, batch.lines);
+        this.eventManager.callEvent(event);
+        switch (batch.type.toLowerCase()) {
+            case "netjoin":
+                this.handleNetjoin(batch);
+                break;
+            case "netsplit":
+                this.handleNetsplit(batch);
+                break;
+            default:
+                if (event.isProcessingLines()) {
+                    batch.lines.forEach(this::handleLine);
+                }
+        }
+    }
+
+    private void handleNetjoin(Batch batch) {
+        final Map<String, ActorProvider.IRCUser> joined = new LinkedHashMap<>();
+        for (String line : batch.lines) {
+            final String[] split = this.stripTags(line).split(" ");
+            if (split.length > 2 && split[0].startsWith(":") && Command.getByName(split[1]) == Command.JOIN) {
+                final ActorProvider.IRCActor actor = this.actorProvider.getActor(split[0].substring(1));
+                if (actor instanceof ActorProvider.IRCUser && !((ActorProvider.IRCUser) actor).getNick().equals(this.currentNick)) {
+                    final String[] args = this.handleArgs(split, 2);
+                    final ActorProvider.IRCChannel channel = this.actorProvider.getChannel(args[0]);
+                    if (channel != null) {
+                        this.trackExtendedJoin((ActorProvider.IRCUser) actor, args);
+                        channel.trackUserJoin((ActorProvider.IRCUser) actor);
+                        joined.put(((ActorProvider.IRCUser) actor).getNick(), (ActorProvider.IRCUser) actor);
+                        continue;
+                    }
+                }
+            }
+            this.handleLine(line);
+        }
+        this.eventManager.callEvent(new NetjoinEvent(this, batch.parameters, joined.values().stream().map(ActorProvider.IRCUser::snapshot).collect(Collectors.toList())));
+    }
+
+    private void handleNetsplit(Batch batch) {
+        final List<ActorProvider.IRCUser> quitting = new ArrayList<>();
+        for (String line : batch.lines) {
+            final String[] split = this.stripTags(line).split(" ");
+            if (split.length > 1 && split[0].startsWith(":") && Command.getByName(split[1]) == Command.QUIT) {
+                final ActorProvider.IRCActor actor = this.actorProvider.getActor(split[0].substring(1));
+                if (actor instanceof ActorProvider.IRCUser) {
+                    quitting.add((ActorProvider.IRCUser) actor);
+                    continue;
+                }
+            }
+            this.handleLine(line);
+        }
+        this.eventManager.callEvent(new NetsplitEvent(this, batch.parameters, quitting.stream().map(ActorProvider.IRCUser::snapshot).collect(Collectors.toList())));
+        this.actorProvider.trackUserQuit(quitting);
+    }
+
+    private String stripTags(String line) {
+        return line.startsWith("@") ? line.substring(line.indexOf(' ') + 1) : line;
+    }
+
+    private User getTrackedSnapshot(ActorProvider.IRCUser user) {
+        ActorProvider.IRCUser tracked = this.actorProvider.getTrackedUser(user.getNick());
+        return tracked == null ? user.snapshot() : tracked.snapshot();
+    }
+
     private MessageTarget getTypeByTarget(String target) {
         if (this.currentNick.equalsIgnoreCase(target)) {
             return MessageTarget.PRIVATE;
@@ -978,6 +1884,113 @@ final class IRCClient implements Client {
         return MessageTarget.UNKNOWN;
     }
 
+    /**
+     * Drops restored channels which aren't being rejoined. Those being
+     * rejoined stay restored, without WHO requests, until the NAMES reply
+     * after joining ends or the join fails.
+     */
+    private void dropRestoredChannels() {
+        for (String name : new ArrayList<>(this.channelsRestored)) {
+            if (!this.channelsIntended.contains(name)) {
+                this.dropRestoredChannel(name);
+            }
+        }
+    }
+
+    private void dropRestoredChannel(String name) {
+        if (this.channelsRestored.remove(name)) {
+            ActorProvider.IRCChannel channel = this.actorProvider.getChannel(name);
+            this.channels.remove(name);
+            if (channel != null) {
+                this.actorProvider.channelUntrack(channel);
+            }
+        }
+    }
+
+    private byte[] snapshotState() {
+        try {
+            return ClientStateStore.snapshot(this);
+        } catch (IOException | RuntimeException e) {
+            this.exceptionListener.queue(e);
+            return null;
+        }
+    }
+
+    /**
+     * Snapshots state on the input thread, before it stops, for a final
+     * save.
+     *
+     * @return encoded state, or null if not saving or it couldn't be taken
+     */
+    private byte[] snapshotStateOnShutdown() {
+        if (this.config.get(Config.STATE_FILE) == null) {
+            return null;
+        }
+        if (this.processor.isInputThread()) {
+            return this.snapshotState();
+        }
+        CompletableFuture<byte[]> snapshot = new CompletableFuture<>();
+        this.processor.queue(() -> snapshot.complete(this.snapshotState()));
+        try {
+            return snapshot.get(STATE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            this.exceptionListener.queue(e);
+        }
+        return null;
+    }
+
+    private void writeState(byte[] state) {
+        try {
+            ClientStateStore.write(state, this.config.get(Config.STATE_FILE));
+        } catch (IOException | RuntimeException e) {
+            this.exceptionListener.queue(e);
+        }
+    }
+
+    /**
+     * Snapshots state on the input thread, so it isn't read while being
+     * changed, and hands the copy to the saver.
+     */
+    private void queueStateSave() {
+        this.processor.queue(() -> {
+            byte[] state = this.snapshotState();
+            if (state != null) {
+                STATE_SAVER.execute(() -> this.writeState(state));
+            }
+        });
+    }
+
+    private void scheduleStateSave() {
+        if (this.config.get(Config.STATE_FILE) != null) {
+            this.stateSave = STATE_SAVER.scheduleWithFixedDelay(this::queueStateSave, STATE_SAVE_INTERVAL, STATE_SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean processListLimit(String value, IntConsumer setter) {
+        if (value.isEmpty()) {
+            setter.accept(-1);
+            return true;
+        }
+        try {
+            setter.accept(Math.max(1, Integer.parseInt(value)));
+            return true;
+        } catch (NumberFormatException ignored) {
+            return false;
+        }
+    }
+
+    private void updateInputLineLimit() {
+        Integer configured = this.config.get(Config.INPUT_MAX_LINE_LENGTH);
+        if (configured != null) {
+            this.inputLineLimit = configured;
+        } else {
+            // Tags get up to 8191 bytes of their own on top of the usual 512
+            this.inputLineLimit = this.capabilityManager.isTagging() ? 8191 + 512 : 512;
+        }
+    }
+
     private void sendNickChange(String newnick) {
         this.requestedNick = newnick;
         this.sendPriorityRawLine("NICK " + newnick);
@@ -39,9 +39,14 @@ final class IRCServerInfo implements ServerInfo {
     private Map<Character, ChannelModeType> channelModes = ChannelModeType.getDefaultModes();
     private List<Character> channelPrefixes = Arrays.asList('#', '&', '!', '+');
     private List<ChannelUserMode> channelUserModes;
+    private ChannelUserMode[] channelUserModePrefixes;
     private String networkName;
+    private int monitorLimit;
     private int nickLengthLimit = -1;
     private String serverVersion;
+    private int watchLimit;
+    private int whoTargetLimit = 1;
+    private boolean whoXSupported;
 
     // TODO adapt for changes
     // Pattern: ([#!&\+][^ ,\07\r\n]{1,49})
@@ -50,12 +55,12 @@ final class IRCServerInfo implements ServerInfo {
     private final Pattern channelPattern = Pattern.compile("([#!&\\+][^ ,\\07\\r\\n]+)");
 
     IRCServerInfo(Client client) {
-        channelUserModes = new ArrayList<ChannelUserMode>() {
+        this.setChannelUserModes(new ArrayList<ChannelUserMode>() {
             {
                 this.add(new ActorProvider.IRCChannelUserMode(client, 'o', '@'));
                 this.add(new ActorProvider.IRCChannelUserMode(client, 'v', '+'));
             }
-        };
+        });
     }
 
     @Override
@@ -109,9 +114,30 @@ final class IRCServerInfo implements ServerInfo {
     }
 
     void setChannelUserModes(List<ChannelUserMode> channelUserModes) {
+        char highest = 0;
+        for (ChannelUserMode mode : channelUserModes) {
+            highest = (char) Math.max(highest, mode.getPrefix());
+        }
+        ChannelUserMode[] prefixes = new ChannelUserMode[highest + 1];
+        for (ChannelUserMode mode : channelUserModes) {
+            prefixes[mode.getPrefix()] = mode;
+        }
+        this.channelUserModePrefixes = prefixes;
         this.channelUserModes = channelUserModes;
     }
 
+    /**
+     * Gets the channel user mode for a prefix, without copying the mode
+     * list as {@link #getChannelUserModes()} does.
+     *
+     * @param prefix prefix character, such as @
+     * @return the mode, or null if not a prefix
+     */
+    ChannelUserMode getChannelUserModeByPrefix(char prefix) {
+        ChannelUserMode[] prefixes = this.channelUserModePrefixes;
+        return prefix < prefixes.length ? prefixes[prefix] : null;
+    }
+
     @Override
     public String getNetworkName() {
         return this.networkName;
@@ -139,6 +165,49 @@ final class IRCServerInfo implements ServerInfo {
         this.serverVersion = serverVersion;
     }
 
+    /**
+     * Gets the MONITOR list size limit.
+     *
+     * @return 0 if unsupported, -1 if unlimited
+     */
+    int getMonitorLimit() {
+        return this.monitorLimit;
+    }
+
+    void setMonitorLimit(int monitorLimit) {
+        this.monitorLimit = monitorLimit;
+    }
+
+    /**
+     * Gets the WATCH list size limit.
+     *
+     * @return 0 if unsupported, -1 if unlimited
+     */
+    int getWatchLimit() {
+        return this.watchLimit;
+    }
+
+    void setWatchLimit(int watchLimit) {
+        this.watchLimit = watchLimit;
+    }
+
+    int getWhoTargetLimit() {
+        return this.whoTargetLimit;
+    }
+
+    void setWhoTargetLimit(int whoTargetLimit) {
+        this.whoTargetLimit = whoTargetLimit;
+    }
+
+    @Override
+    public boolean isWhoXSupported() {
+        return this.whoXSupported;
+    }
+
+    void setWhoXSupported(boolean whoXSupported) {
+        this.whoXSupported = whoXSupported;
+    }
+
     // Util stuffs
 
     boolean isValidChannel(String name) {
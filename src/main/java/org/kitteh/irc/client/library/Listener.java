@@ -26,6 +26,7 @@ package org.kitteh.irc.client.library;
 import org.kitteh.irc.client.library.util.QueueProcessingThread;
 
 import java.util.Queue;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 final class Listener<Type> {
@@ -59,21 +60,46 @@ final class Listener<Type> {
     }
 
     private final String clientName;
+    private final Executor executor;
     private ListenerThread thread;
+    private PooledQueue<Type> pooled;
+    private volatile Consumer<Type> consumer;
 
     Listener(String clientName, Consumer<Type> consumer) {
+        this(clientName, consumer, null);
+    }
+
+    /**
+     * Creates a listener.
+     *
+     * @param clientName name of the client
+     * @param consumer consumer, or null for none yet
+     * @param executor shared executor to run the consumer on, or null for
+     * a thread of its own
+     */
+    Listener(String clientName, Consumer<Type> consumer, Executor executor) {
         this.clientName = clientName;
-        this.thread = consumer == null ? null : new ListenerThread(clientName, consumer);
+        this.executor = executor;
+        if (consumer != null) {
+            this.setConsumer(consumer);
+        }
     }
 
     void queue(Type item) {
         if (this.thread != null) {
             this.thread.queue(item);
+        } else if (this.pooled != null) {
+            this.pooled.queue(item);
         }
     }
 
     void setConsumer(Consumer<Type> consumer) {
-        if (this.thread == null) {
+        if (this.executor != null) {
+            this.consumer = consumer;
+            if (this.pooled == null) {
+                this.pooled = new PooledQueue<>(this.executor, this::accept);
+            }
+        } else if (this.thread == null) {
             this.thread = new ListenerThread(this.clientName, consumer);
         } else {
             this.thread.consumer = consumer;
@@ -84,5 +110,16 @@ final class Listener<Type> {
         if (this.thread != null) {
             this.thread.interrupt();
         }
+        if (this.pooled != null) {
+            this.pooled.shutdown(true);
+        }
+    }
+
+    private void accept(Type item) {
+        try {
+            this.consumer.accept(item);
+        } catch (final Throwable thrown) {
+            // NOOP
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,695 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.ActorChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelCTCPEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelNoticeEvent;
+import org.kitteh.irc.client.library.util.QueueProcessingThread;
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a searchable history of channel messages, notices and actions, for
+ * answering commands such as {@code !seen} or serving IRCv3 chathistory
+ * style requests.
+ * <p>
+ * The most recent messages of each channel are held in memory. With a
+ * directory set, every message is also written to disk by a background
+ * thread, indexed by time, nick and message id, and queries reaching past
+ * what's in memory continue on disk. Messages are given an id, counting up
+ * per channel, and their times never go backwards within a channel, using
+ * the IRCv3 server-time where sent.
+ * <p>
+ * Query results are oldest first. Messages received during a flood may
+ * take a moment to become visible on disk after leaving memory.
+ */
+public final class MessageHistory implements AutoCloseable {
+    /**
+     * Kind of message.
+     */
+    public enum Type {
+        /**
+         * A PRIVMSG.
+         */
+        MESSAGE,
+        /**
+         * A NOTICE.
+         */
+        NOTICE,
+        /**
+         * A CTCP ACTION, with the text following the command.
+         */
+        ACTION
+    }
+
+    /**
+     * A message in the history.
+     */
+    public static final class Message {
+        private final long id;
+        private final long time;
+        private final String channel;
+        private final String nick;
+        private final String lowerCaseNick;
+        private final Type type;
+        private final String text;
+        private final String messageId;
+
+        Message(long id, long time, String channel, String nick, String lowerCaseNick, Type type, String text, String messageId) {
+            this.id = id;
+            this.time = time;
+            this.channel = channel;
+            this.nick = nick;
+            this.lowerCaseNick = lowerCaseNick;
+            this.type = type;
+            this.text = text;
+            this.messageId = messageId;
+        }
+
+        /**
+         * Gets the id of the message, counting up within the channel.
+         *
+         * @return id
+         */
+        public long getId() {
+            return this.id;
+        }
+
+        /**
+         * Gets when the message was sent.
+         *
+         * @return time
+         */
+        public Instant getTime() {
+            return Instant.ofEpochMilli(this.time);
+        }
+
+        /**
+         * Gets the channel the message was sent to.
+         *
+         * @return channel name
+         */
+        public String getChannel() {
+            return this.channel;
+        }
+
+        /**
+         * Gets the nick of the sender.
+         *
+         * @return nick
+         */
+        public String getNick() {
+            return this.nick;
+        }
+
+        /**
+         * Gets the kind of message.
+         *
+         * @return type
+         */
+        public Type getType() {
+            return this.type;
+        }
+
+        /**
+         * Gets the text of the message.
+         *
+         * @return text
+         */
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * Gets the IRCv3 message id, if the server sent one.
+         *
+         * @return message id or null
+         */
+        public String getMessageId() {
+            return this.messageId;
+        }
+
+        String getLowerCaseNick() {
+            return this.lowerCaseNick;
+        }
+
+        @Override
+        public String toString() {
+            return "Message{id=" + this.id + ", time=" + this.getTime() + ", channel=" + this.channel + ", nick=" + this.nick + ", type=" + this.type + ", text=" + this.text + '}';
+        }
+    }
+
+    /**
+     * Builds a {@link MessageHistory}.
+     */
+    public static final class Builder {
+        private final IRCClient client;
+        private int capacity = 1000;
+        private File directory;
+        private int segmentSize = 16 * 1024 * 1024;
+
+        /**
+         * Starts building a history.
+         *
+         * @param client client whose channels are recorded
+         * @throws IllegalArgumentException for null or unsupported client
+         */
+        public Builder(Client client) {
+            Sanity.nullCheck(client, "Client cannot be null");
+            Sanity.truthiness(client instanceof IRCClient, "Client must be built by ClientBuilder");
+            this.client = (IRCClient) client;
+        }
+
+        /**
+         * Sets how many recent messages of each channel are kept in memory.
+         * By default, 1000.
+         *
+         * @param capacity messages per channel
+         * @return this builder
+         * @throws IllegalArgumentException for a capacity below 1
+         */
+        public Builder capacity(int capacity) {
+            Sanity.truthiness(capacity > 0, "Capacity must be at least 1");
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets a directory in which to keep all history. By default, only
+         * history in memory is kept.
+         *
+         * @param directory directory, or null to keep history in memory
+         * @return this builder
+         */
+        public Builder directory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Sets the size at which files on disk are sealed and indexed. By
+         * default, 16 MiB.
+         *
+         * @param bytes segment size, at least 64 KiB
+         * @return this builder
+         * @throws IllegalArgumentException for a size below 64 KiB
+         */
+        public Builder segmentSize(int bytes) {
+            Sanity.truthiness(bytes >= 65536, "Segment size must be at least 64 KiB");
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        /**
+         * Creates the history, opening any existing history in the
+         * directory, and registers it with the client's event manager.
+         *
+         * @return the history
+         * @throws IOException if existing history cannot be read
+         */
+        public MessageHistory build() throws IOException {
+            MessageHistory history = new MessageHistory(this);
+            this.client.getEventManager().registerEventListener(history);
+            return history;
+        }
+    }
+
+    private static final String NAME_FILE = "channel";
+
+    private final class ChannelHistory {
+        private final String name;
+        private final HistoryStore store;
+        private final Message[] ring = new Message[MessageHistory.this.capacity];
+        private int start;
+        private int size;
+        private long nextId;
+        private long lastTime;
+
+        private ChannelHistory(String name, HistoryStore store) {
+            this.name = name;
+            this.store = store;
+            this.nextId = (store == null) ? 0 : store.getNextId();
+            this.lastTime = (store == null) ? 0 : store.getLastTime();
+        }
+
+        private synchronized Message add(String nick, Type type, String text, MessageTags tags) {
+            Instant serverTime = tags.getServerTime();
+            this.lastTime = Math.max(this.lastTime, (serverTime == null) ? System.currentTimeMillis() : serverTime.toEpochMilli());
+            Message message = new Message(this.nextId++, this.lastTime, this.name, nick, MessageHistory.this.toLowerCase(nick), type, text, tags.getMessageId());
+            if (this.size < this.ring.length) {
+                this.ring[(this.start + this.size++) % this.ring.length] = message;
+            } else {
+                this.ring[this.start] = message;
+                this.start = (this.start + 1) % this.ring.length;
+            }
+            return message;
+        }
+
+        private Message get(int index) {
+            return this.ring[(this.start + index) % this.ring.length];
+        }
+
+        private long firstRingId() {
+            return this.nextId - this.size;
+        }
+
+        // First id at or after the time
+        private long search(long time) throws IOException {
+            synchronized (this) {
+                if (this.size > 0 && this.get(0).time < time) {
+                    int low = 0;
+                    int high = this.size;
+                    while (low < high) {
+                        int mid = (low + high) >>> 1;
+                        if (this.get(mid).time < time) {
+                            low = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    return this.firstRingId() + low;
+                }
+                if (this.store == null) {
+                    return this.firstRingId();
+                }
+            }
+            return this.store.search(time);
+        }
+
+        private List<Message> range(long fromId, long toId, int limit, boolean newest) throws IOException {
+            List<Message> ringPart = new ArrayList<>();
+            long firstRingId;
+            synchronized (this) {
+                firstRingId = this.firstRingId();
+                long ringFrom = Math.max(fromId, firstRingId);
+                long ringTo = Math.min(toId, this.nextId);
+                if (ringFrom < ringTo) {
+                    long count = Math.min(limit, ringTo - ringFrom);
+                    long first = newest ? (ringTo - count) : ringFrom;
+                    for (long id = first; id < first + count; id++) {
+                        ringPart.add(this.get((int) (id - firstRingId)));
+                    }
+                }
+            }
+            int remaining = limit - ringPart.size();
+            if (remaining == 0 || this.store == null || fromId >= firstRingId) {
+                return ringPart;
+            }
+            if (newest) {
+                List<Message> messages = this.store.read(this.name, fromId, Math.min(toId, firstRingId), remaining, true);
+                messages.addAll(ringPart);
+                return messages;
+            }
+            List<Message> messages = this.store.read(this.name, fromId, Math.min(toId, firstRingId), limit, false);
+            messages.addAll(ringPart.subList(0, Math.min(ringPart.size(), limit - messages.size())));
+            return messages;
+        }
+
+        private List<Message> from(String lowerCaseNick, int limit) throws IOException {
+            List<Message> messages = new ArrayList<>();
+            long firstRingId;
+            synchronized (this) {
+                firstRingId = this.firstRingId();
+                for (int i = this.size - 1; i >= 0 && messages.size() < limit; i--) {
+                    Message message = this.get(i);
+                    if (message.lowerCaseNick.equals(lowerCaseNick)) {
+                        messages.add(message);
+                    }
+                }
+            }
+            Collections.reverse(messages);
+            if (messages.size() < limit && this.store != null) {
+                messages.addAll(0, this.store.readFrom(this.name, lowerCaseNick, firstRingId, limit - messages.size()));
+            }
+            return messages;
+        }
+
+        private Message find(String messageId) throws IOException {
+            synchronized (this) {
+                for (int i = this.size - 1; i >= 0; i--) {
+                    if (messageId.equals(this.get(i).messageId)) {
+                        return this.get(i);
+                    }
+                }
+            }
+            return (this.store == null) ? null : this.store.find(this.name, messageId);
+        }
+    }
+
+    private static final class Write {
+        private final HistoryStore store;
+        private final Message message;
+
+        private Write(HistoryStore store, Message message) {
+            this.store = store;
+            this.message = message;
+        }
+    }
+
+    private final class Writer extends QueueProcessingThread<Write> {
+        private final Set<HistoryStore> unflushed = new HashSet<>();
+
+        private Writer() {
+            super("Kitteh IRC Client History Writer (" + MessageHistory.this.client.getName() + ")");
+        }
+
+        @Override
+        protected void processElement(Write element) {
+            try {
+                element.store.append(element.message);
+                this.unflushed.add(element.store);
+            } catch (IOException e) {
+                MessageHistory.this.client.getExceptionListener().queue(e);
+            }
+            if (this.getQueueSize() == 0) {
+                this.flush();
+            }
+        }
+
+        @Override
+        protected void cleanup(Queue<Write> remainingQueue) {
+            while (!remainingQueue.isEmpty()) {
+                Write write = remainingQueue.poll();
+                try {
+                    write.store.append(write.message);
+                } catch (IOException e) {
+                    MessageHistory.this.client.getExceptionListener().queue(e);
+                }
+            }
+            for (ChannelHistory history : MessageHistory.this.channels.values()) {
+                if (history.store != null) {
+                    try {
+                        history.store.close();
+                    } catch (IOException e) {
+                        MessageHistory.this.client.getExceptionListener().queue(e);
+                    }
+                }
+            }
+        }
+
+        private void flush() {
+            for (HistoryStore store : this.unflushed) {
+                try {
+                    store.flush();
+                } catch (IOException e) {
+                    MessageHistory.this.client.getExceptionListener().queue(e);
+                }
+            }
+            this.unflushed.clear();
+        }
+    }
+
+    private final IRCClient client;
+    private final int capacity;
+    private final File directory;
+    private final int segmentSize;
+    private final Map<String, ChannelHistory> channels = new ConcurrentHashMap<>();
+    private final Writer writer;
+
+    private MessageHistory(Builder builder) throws IOException {
+        this.client = builder.client;
+        this.capacity = builder.capacity;
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        if (this.directory != null) {
+            File[] channelDirectories = this.directory.listFiles(File::isDirectory);
+            if (channelDirectories != null) {
+                for (File channelDirectory : channelDirectories) {
+                    File nameFile = new File(channelDirectory, NAME_FILE);
+                    if (nameFile.isFile()) {
+                        String name = new String(Files.readAllBytes(nameFile.toPath()), StandardCharsets.UTF_8);
+                        this.channels.put(this.toLowerCase(name), new ChannelHistory(name, new HistoryStore(channelDirectory, this.segmentSize, this::toLowerCase)));
+                    }
+                }
+            }
+            this.writer = new Writer();
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Unregisters from the client and finishes writing history to disk,
+     * waiting up to ten seconds.
+     */
+    @Override
+    public void close() {
+        this.client.getEventManager().unregisterEventListener(this);
+        if (this.writer != null) {
+            this.writer.interrupt();
+            try {
+                this.writer.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Records a channel message.
+     *
+     * @param event event
+     */
+    @Handler
+    public void message(ChannelMessageEvent event) {
+        this.add(event, Type.MESSAGE, event.getMessage());
+    }
+
+    /**
+     * Records a channel notice.
+     *
+     * @param event event
+     */
+    @Handler
+    public void notice(ChannelNoticeEvent event) {
+        this.add(event, Type.NOTICE, event.getMessage());
+    }
+
+    /**
+     * Records a channel action.
+     *
+     * @param event event
+     */
+    @Handler
+    public void ctcp(ChannelCTCPEvent event) {
+        if (event.getMessage().startsWith("ACTION ")) {
+            this.add(event, Type.ACTION, event.getMessage().substring(7));
+        }
+    }
+
+    /**
+     * Gets the latest messages in a channel.
+     *
+     * @param channel channel name
+     * @param limit maximum number of messages
+     * @return messages, oldest first
+     */
+    public List<Message> getLatest(String channel, int limit) {
+        return this.query(channel, limit, history -> history.range(0, Long.MAX_VALUE, limit, true));
+    }
+
+    /**
+     * Gets the latest messages from a nick in a channel.
+     *
+     * @param channel channel name
+     * @param nick sender nick
+     * @param limit maximum number of messages
+     * @return messages, oldest first
+     */
+    public List<Message> getLatest(String channel, String nick, int limit) {
+        Sanity.nullCheck(nick, "Nick cannot be null");
+        return this.query(channel, limit, history -> history.from(this.toLowerCase(nick), limit));
+    }
+
+    /**
+     * Gets the messages in a channel immediately before a time.
+     *
+     * @param channel channel name
+     * @param time time, exclusive
+     * @param limit maximum number of messages
+     * @return messages, oldest first
+     */
+    public List<Message> getBefore(String channel, Instant time, int limit) {
+        Sanity.nullCheck(time, "Time cannot be null");
+        return this.query(channel, limit, history -> history.range(0, history.search(time.toEpochMilli()), limit, true));
+    }
+
+    /**
+     * Gets the messages in a channel immediately after a time.
+     *
+     * @param channel channel name
+     * @param time time, exclusive
+     * @param limit maximum number of messages
+     * @return messages, oldest first
+     */
+    public List<Message> getAfter(String channel, Instant time, int limit) {
+        Sanity.nullCheck(time, "Time cannot be null");
+        return this.query(channel, limit, history -> history.range(history.search(time.toEpochMilli() + 1), Long.MAX_VALUE, limit, false));
+    }
+
+    /**
+     * Gets the messages in a channel around a time, up to half before it
+     * and the rest at or after it.
+     *
+     * @param channel channel name
+     * @param time time
+     * @param limit maximum number of messages
+     * @return messages, oldest first
+     */
+    public List<Message> getAround(String channel, Instant time, int limit) {
+        Sanity.nullCheck(time, "Time cannot be null");
+        return this.query(channel, limit, history -> {
+            long center = history.search(time.toEpochMilli());
+            List<Message> messages = history.range(0, center, limit / 2, true);
+            messages.addAll(history.range(center, Long.MAX_VALUE, limit - messages.size(), false));
+            return messages;
+        });
+    }
+
+    /**
+     * Gets the earliest messages in a channel between two times.
+     *
+     * @param channel channel name
+     * @param from start time, exclusive
+     * @param to end time, exclusive
+     * @param limit maximum number of messages
+     * @return messages, oldest first
+     */
+    public List<Message> getBetween(String channel, Instant from, Instant to, int limit) {
+        Sanity.nullCheck(from, "Start time cannot be null");
+        Sanity.nullCheck(to, "End time cannot be null");
+        return this.query(channel, limit, history -> history.range(history.search(from.toEpochMilli() + 1), history.search(to.toEpochMilli()), limit, false));
+    }
+
+    /**
+     * Gets a message in a channel by its IRCv3 message id, such as to
+     * resolve a chathistory request referencing a message.
+     *
+     * @param channel channel name
+     * @param messageId message id
+     * @return the message if found
+     */
+    public Optional<Message> getMessage(String channel, String messageId) {
+        Sanity.nullCheck(messageId, "Message id cannot be null");
+        List<Message> messages = this.query(channel, 1, history -> {
+            Message message = history.find(messageId);
+            return (message == null) ? Collections.emptyList() : Collections.singletonList(message);
+        });
+        return messages.isEmpty() ? Optional.empty() : Optional.of(messages.get(0));
+    }
+
+    /**
+     * Gets the last message sent by a nick in any channel.
+     *
+     * @param nick sender nick
+     * @return the latest message if any
+     */
+    public Optional<Message> getLastSeen(String nick) {
+        Sanity.nullCheck(nick, "Nick cannot be null");
+        String lowerCaseNick = this.toLowerCase(nick);
+        Message latest = null;
+        for (ChannelHistory history : this.channels.values()) {
+            List<Message> messages = this.query(history, channelHistory -> channelHistory.from(lowerCaseNick, 1));
+            if (!messages.isEmpty() && (latest == null || messages.get(0).time > latest.time)) {
+                latest = messages.get(0);
+            }
+        }
+        return Optional.ofNullable(latest);
+    }
+
+    @FunctionalInterface
+    private interface Query {
+        List<Message> run(ChannelHistory history) throws IOException;
+    }
+
+    private List<Message> query(String channel, int limit, Query query) {
+        Sanity.nullCheck(channel, "Channel cannot be null");
+        Sanity.truthiness(limit >= 0, "Limit cannot be negative");
+        ChannelHistory history = this.channels.get(this.toLowerCase(channel));
+        if (history == null || limit == 0) {
+            return Collections.emptyList();
+        }
+        return this.query(history, query);
+    }
+
+    private List<Message> query(ChannelHistory history, Query query) {
+        try {
+            return Collections.unmodifiableList(query.run(history));
+        } catch (IOException e) {
+            this.client.getExceptionListener().queue(e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void add(ActorChannelMessageEvent<User> event, Type type, String text) {
+        String channel = event.getChannel().getName();
+        String key = this.toLowerCase(channel);
+        ChannelHistory history = this.channels.get(key);
+        if (history == null) { // Only the input thread adds channels
+            try {
+                history = new ChannelHistory(channel, this.openStore(key, channel));
+            } catch (IOException e) {
+                this.client.getExceptionListener().queue(e);
+                return;
+            }
+            this.channels.put(key, history);
+        }
+        Message message = history.add(event.getActor().getNick(), type, text, event.getTags());
+        if (history.store != null) {
+            this.writer.queue(new Write(history.store, message));
+        }
+    }
+
+    private HistoryStore openStore(String lowerCaseChannel, String channel) throws IOException {
+        if (this.directory == null) {
+            return null;
+        }
+        File channelDirectory = new File(this.directory, ChannelLogger.fileName(lowerCaseChannel));
+        HistoryStore store = new HistoryStore(channelDirectory, this.segmentSize, this::toLowerCase);
+        Files.write(new File(channelDirectory, NAME_FILE).toPath(), channel.getBytes(StandardCharsets.UTF_8));
+        return store;
+    }
+
+    private String toLowerCase(String name) {
+        return this.client.getServerInfo().getCaseMapping().toLowerCase(name);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * IRCv3 message tags attached to a received line, such as the sender's
+ * account, the server time or a message id.
+ * <p>
+ * Only the raw tag section is stored. Individual tags are located and
+ * unescaped when requested, and the full map is only built if {@link
+ * #asMap()} is called. Values are unescaped per the IRCv3 message-tags
+ * specification, and a tag without a value reads as an empty string.
+ * Should a tag be repeated, its last occurrence is used by both {@link
+ * #get(String)} and {@link #asMap()}.
+ */
+public final class MessageTags {
+    /**
+     * Tags of a line which had none.
+     */
+    public static final MessageTags EMPTY = new MessageTags("");
+
+    private final String raw;
+    private volatile Map<String, String> map;
+
+    MessageTags(String raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * Gets a map of all tags. Tags without a value are mapped to an empty
+     * string, and a repeated tag maps to its last value.
+     *
+     * @return unmodifiable map of tag names to unescaped values
+     */
+    public Map<String, String> asMap() {
+        Map<String, String> map = this.map;
+        if (map == null) {
+            if (this.raw.isEmpty()) {
+                map = Collections.emptyMap();
+            } else {
+                map = new HashMap<>();
+                int start = 0;
+                while (start < this.raw.length()) {
+                    int end = this.raw.indexOf(';', start);
+                    if (end == -1) {
+                        end = this.raw.length();
+                    }
+                    int equals = this.raw.indexOf('=', start);
+                    if (equals == -1 || equals > end) {
+                        map.put(this.raw.substring(start, end), "");
+                    } else {
+                        map.put(this.raw.substring(start, equals), unescape(this.raw, equals + 1, end));
+                    }
+                    start = end + 1;
+                }
+                map = Collections.unmodifiableMap(map);
+            }
+            this.map = map;
+        }
+        return map;
+    }
+
+    /**
+     * Gets the unescaped value of a tag. If the tag is repeated, the last
+     * value is returned.
+     *
+     * @param name tag name, such as msgid or vendor.example/tag
+     * @return the tag value, an empty string if the tag has no value, or
+     * null if the tag is not present
+     */
+    public String get(String name) {
+        if (this.raw.isEmpty()) {
+            return null;
+        }
+        Map<String, String> map = this.map;
+        if (map != null) {
+            return map.get(name);
+        }
+        // Scanned from the end, as the last occurrence of a repeated tag wins
+        int end = this.raw.length();
+        while (end >= 0) {
+            int start = this.raw.lastIndexOf(';', end - 1) + 1;
+            int nameEnd = start + name.length();
+            if (nameEnd <= end && this.raw.startsWith(name, start)) {
+                if (nameEnd == end) {
+                    return "";
+                }
+                if (this.raw.charAt(nameEnd) == '=') {
+                    return unescape(this.raw, nameEnd + 1, end);
+                }
+            }
+            end = start - 1;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the account tag, naming the services account of the sender.
+     *
+     * @return the account or null if not present
+     */
+    public String getAccount() {
+        return this.get("account");
+    }
+
+    /**
+     * Gets the batch tag, naming the batch this line belongs to.
+     *
+     * @return the batch reference or null if not present
+     */
+    public String getBatch() {
+        return this.get("batch");
+    }
+
+    /**
+     * Gets the msgid tag.
+     *
+     * @return the message id or null if not present
+     */
+    public String getMessageId() {
+        return this.get("msgid");
+    }
+
+    /**
+     * Gets the raw, still escaped tag section, without the leading '@'.
+     *
+     * @return raw tags, empty if none were sent
+     */
+    public String getRaw() {
+        return this.raw;
+    }
+
+    /**
+     * Gets the time at which the server says the line was sent, via the
+     * server-time tag.
+     *
+     * @return the server time or null if not present or not parseable
+     */
+    public Instant getServerTime() {
+        String time = this.get("time");
+        if (time == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(time);
+        } catch (DateTimeParseException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets if a tag is present.
+     *
+     * @param name tag name
+     * @return true if present
+     */
+    public boolean has(String name) {
+        return this.get(name) != null;
+    }
+
+    /**
+     * Gets if no tags were sent.
+     *
+     * @return true if there are no tags
+     */
+    public boolean isEmpty() {
+        return this.raw.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return this.raw;
+    }
+
+    private static String unescape(String raw, int start, int end) {
+        int escape = raw.indexOf('\\', start);
+        if (escape == -1 || escape >= end) {
+            return raw.substring(start, end);
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(raw, start, escape);
+        for (int i = escape; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (++i == end) {
+                break; // Lone trailing backslash is dropped
+            }
+            c = raw.charAt(i);
+            switch (c) {
+                case ':':
+                    builder.append(';');
+                    break;
+                case 's':
+                    builder.append(' ');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and timings for a single {@link Client}.
+ * <p>
+ * Counters and histograms are recorded with striped adders, so recording
+ * from the network, input and event threads does not contend. Gauges are
+ * read from the client when requested. Counters are kept across
+ * reconnects.
+ */
+public final class Metrics {
+    /**
+     * A distribution of durations, in nanoseconds, kept in power of two
+     * buckets.
+     */
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Gets the number of recorded durations.
+         *
+         * @return count
+         */
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        /**
+         * Gets the longest recorded duration.
+         *
+         * @return maximum in nanoseconds
+         */
+        public long getMax() {
+            return this.max.get();
+        }
+
+        /**
+         * Gets the mean recorded duration.
+         *
+         * @return mean in nanoseconds, or 0 if none recorded
+         */
+        public double getMean() {
+            long count = this.count.sum();
+            return count == 0 ? 0 : (double) this.sum.sum() / count;
+        }
+
+        /**
+         * Gets an upper bound for a percentile of recorded durations,
+         * accurate to within a factor of two.
+         *
+         * @param percentile percentile, from 0 to 100
+         * @return duration in nanoseconds, or 0 if none recorded
+         */
+        public long getPercentile(double percentile) {
+            long[] counts = new long[this.buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = this.buckets[i].sum();
+                total += counts[i];
+            }
+            long target = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0) {
+                    return Math.min(i == 63 ? Long.MAX_VALUE : (1L << i) - 1, this.getMax());
+                }
+            }
+            return 0;
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            this.buckets[Math.min(63, 64 - Long.numberOfLeadingZeros(nanos))].increment(); // Bucket i holds below 2^i
+            this.count.increment();
+            this.sum.add(nanos);
+            this.max.accumulate(nanos);
+        }
+    }
+
+    private final class JmxBridge implements MetricsMXBean {
+        @Override
+        public long getBytesIn() {
+            return Metrics.this.getBytesIn();
+        }
+
+        @Override
+        public long getBytesOut() {
+            return Metrics.this.getBytesOut();
+        }
+
+        @Override
+        public long getDispatchTimeMean() {
+            return (long) Metrics.this.dispatchTime.getMean();
+        }
+
+        @Override
+        public long getDispatchTime99thPercentile() {
+            return Metrics.this.dispatchTime.getPercentile(99);
+        }
+
+        @Override
+        public long getDroppedLines() {
+            return Metrics.this.getDroppedLines();
+        }
+
+        @Override
+        public long getEvents() {
+            return Metrics.this.dispatchTime.getCount();
+        }
+
+        @Override
+        public int getInputBacklog() {
+            return Metrics.this.getInputBacklog();
+        }
+
+        @Override
+        public long getLinesIn() {
+            return Metrics.this.getLinesIn();
+        }
+
+        @Override
+        public long getLinesOut() {
+            return Metrics.this.getLinesOut();
+        }
+
+        @Override
+        public int getOutputQueueSize() {
+            return Metrics.this.getOutputQueueSize();
+        }
+
+        @Override
+        public long getOutputQueueWaitMean() {
+            return (long) Metrics.this.outputQueueWait.getMean();
+        }
+
+        @Override
+        public long getOutputQueueWait99thPercentile() {
+            return Metrics.this.outputQueueWait.getPercentile(99);
+        }
+
+        @Override
+        public long getParseTimeMean() {
+            return (long) Metrics.this.parseTime.getMean();
+        }
+
+        @Override
+        public long getParseTime99thPercentile() {
+            return Metrics.this.parseTime.getPercentile(99);
+        }
+
+        @Override
+        public int getTrackedChannels() {
+            return Metrics.this.getTrackedChannels();
+        }
+
+        @Override
+        public int getTrackedUsers() {
+            return Metrics.this.getTrackedUsers();
+        }
+    }
+
+    private final IRCClient client;
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder droppedLines = new LongAdder();
+    private final Map<Class<?>, LongAdder> events = new ConcurrentHashMap<>();
+    private final LongAdder linesIn = new LongAdder();
+    private final LongAdder linesOut = new LongAdder();
+    private final Histogram dispatchTime = new Histogram();
+    private final Histogram outputQueueWait = new Histogram();
+    private final Histogram parseTime = new Histogram();
+    private ObjectName objectName;
+
+    Metrics(IRCClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Gets the number of bytes received, including line breaks and
+     * dropped lines.
+     *
+     * @return bytes received
+     */
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    /**
+     * Gets the number of bytes sent, including line breaks.
+     *
+     * @return bytes sent
+     */
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    /**
+     * Gets the time spent calling each event, including all handlers.
+     *
+     * @return event dispatch time
+     */
+    public Histogram getDispatchTime() {
+        return this.dispatchTime;
+    }
+
+    /**
+     * Gets the number of incoming lines dropped for exceeding the line
+     * length limit.
+     *
+     * @return dropped lines
+     */
+    public long getDroppedLines() {
+        return this.droppedLines.sum();
+    }
+
+    /**
+     * Gets the number of events called, by event class.
+     *
+     * @return event counts
+     */
+    public Map<Class<?>, Long> getEventCounts() {
+        Map<Class<?>, Long> counts = new HashMap<>();
+        this.events.forEach((type, count) -> counts.put(type, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Gets the number of received lines waiting to be processed.
+     *
+     * @return input backlog
+     */
+    public int getInputBacklog() {
+        return this.client.getInputBacklog();
+    }
+
+    /**
+     * Gets the number of lines received, not counting dropped lines.
+     *
+     * @return lines received
+     */
+    public long getLinesIn() {
+        return this.linesIn.sum();
+    }
+
+    /**
+     * Gets the number of lines sent.
+     *
+     * @return lines sent
+     */
+    public long getLinesOut() {
+        return this.linesOut.sum();
+    }
+
+    /**
+     * Gets the number of lines waiting to be sent under the message delay.
+     *
+     * @return output queue size
+     */
+    public int getOutputQueueSize() {
+        return this.client.getOutputQueueSize();
+    }
+
+    /**
+     * Gets the time lines spend waiting under the message delay before
+     * being sent. Lines sent immediately are not included.
+     *
+     * @return output queue wait
+     */
+    public Histogram getOutputQueueWait() {
+        return this.outputQueueWait;
+    }
+
+    /**
+     * Gets the time spent splitting each line and finding its sender,
+     * before handling it.
+     *
+     * @return parse time
+     */
+    public Histogram getParseTime() {
+        return this.parseTime;
+    }
+
+    /**
+     * Gets the number of channels the client is in.
+     *
+     * @return tracked channels
+     */
+    public int getTrackedChannels() {
+        return this.client.getTrackedChannelNames().size();
+    }
+
+    /**
+     * Gets the number of distinct users across channels the client is in.
+     * This is counted when called.
+     *
+     * @return tracked users
+     */
+    public int getTrackedUsers() {
+        return this.client.getActorProvider().getTrackedUserCount();
+    }
+
+    void recordBytesIn(long bytes) {
+        this.bytesIn.add(bytes);
+    }
+
+    void recordBytesOut(long bytes) {
+        this.bytesOut.add(bytes);
+    }
+
+    void recordDroppedLine() {
+        this.droppedLines.increment();
+    }
+
+    void recordEvent(Class<?> type, long nanos) {
+        LongAdder count = this.events.get(type); // Lock free once seen, unlike computeIfAbsent on Java 8
+        if (count == null) {
+            count = this.events.computeIfAbsent(type, key -> new LongAdder());
+        }
+        count.increment();
+        this.dispatchTime.record(nanos);
+    }
+
+    void recordLineIn() {
+        this.linesIn.increment();
+    }
+
+    void recordLineOut() {
+        this.linesOut.increment();
+    }
+
+    void recordOutputQueueWait(long nanos) {
+        this.outputQueueWait.record(nanos);
+    }
+
+    void recordParseTime(long nanos) {
+        this.parseTime.record(nanos);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @throws JMException if registration fails
+     */
+    synchronized void registerJmx() throws JMException {
+        if (this.objectName == null) {
+            ObjectName objectName = new ObjectName("org.kitteh.irc.client:type=Client,name=" + ObjectName.quote(this.client.getName()) + ",id=" + Integer.toHexString(System.identityHashCode(this.client)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxBridge(), objectName);
+            this.objectName = objectName;
+        }
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server, if
+     * registered.
+     *
+     * @throws JMException if unregistration fails
+     */
+    synchronized void unregisterJmx() throws JMException {
+        if (this.objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+            this.objectName = null;
+        }
+    }
+}
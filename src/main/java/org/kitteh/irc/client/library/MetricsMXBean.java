@@ -0,0 +1,64 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+/**
+ * A client's {@link Metrics} as exposed over JMX. Durations are in
+ * nanoseconds.
+ *
+ * @see ClientBuilder#jmxMetrics(boolean)
+ */
+public interface MetricsMXBean {
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getDispatchTimeMean();
+
+    long getDispatchTime99thPercentile();
+
+    long getDroppedLines();
+
+    long getEvents();
+
+    int getInputBacklog();
+
+    long getLinesIn();
+
+    long getLinesOut();
+
+    int getOutputQueueSize();
+
+    long getOutputQueueWaitMean();
+
+    long getOutputQueueWait99thPercentile();
+
+    long getParseTimeMean();
+
+    long getParseTime99thPercentile();
+
+    int getTrackedChannels();
+
+    int getTrackedUsers();
+}
@@ -0,0 +1,103 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.kitteh.irc.client.library.exception.KittehInputLineTooLongException;
+
+import java.util.List;
+
+/**
+ * Splits input on LF, dropping a preceding CR if present.
+ * <p>
+ * Lines longer than the client's current limit are discarded one at a time
+ * rather than failing the pipeline, so a single oversized line does not
+ * take the connection down with it.
+ */
+final class NettyLineDecoder extends ByteToMessageDecoder {
+    private final IRCClient client;
+    private boolean discarding;
+    private long discardedBytes;
+    private long droppedLines;
+
+    NettyLineDecoder(IRCClient client) {
+        this.client = client;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        final int limit = this.client.getInputLineLimit();
+        final int readerIndex = in.readerIndex();
+        try {
+            this.decodeLines(in, out, limit);
+        } finally {
+            this.client.getMetrics().recordBytesIn(in.readerIndex() - readerIndex);
+        }
+    }
+
+    private void decodeLines(ByteBuf in, List<Object> out, int limit) {
+        while (in.isReadable()) {
+            final int start = in.readerIndex();
+            final int end = in.writerIndex();
+            final int lineFeed = in.indexOf(start, end, (byte) '\n');
+            if (lineFeed == -1) {
+                final int length = end - start;
+                if (this.discarding) {
+                    this.discardedBytes += length;
+                    in.skipBytes(length);
+                } else if ((in.getByte(end - 1) == '\r' ? length - 1 : length) > limit) { // CR of the line break may be here already
+                    this.discarding = true;
+                    this.discardedBytes = length;
+                    in.skipBytes(length);
+                }
+                return;
+            }
+            int length = lineFeed - start;
+            if (this.discarding) {
+                this.discarding = false;
+                this.drop(this.discardedBytes + length);
+            } else {
+                if (length > 0 && in.getByte(lineFeed - 1) == '\r') {
+                    length--;
+                }
+                if (length > limit) {
+                    this.drop(length);
+                } else if (length > 0) {
+                    out.add(in.slice(start, length).retain());
+                    this.client.getMetrics().recordLineIn();
+                    FlightRecorderSupport.lineReceived(this.client, length);
+                }
+            }
+            in.readerIndex(lineFeed + 1);
+        }
+    }
+
+    private void drop(long length) {
+        this.droppedLines++;
+        this.client.getMetrics().recordDroppedLine();
+        this.client.getExceptionListener().queue(new KittehInputLineTooLongException((int) Math.min(length, Integer.MAX_VALUE), this.droppedLines));
+    }
+}
@@ -24,84 +24,166 @@
 package org.kitteh.irc.client.library;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
-import io.netty.handler.ssl.IdentityCipherSuiteFilter;
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import io.netty.util.concurrent.ScheduledFuture;
 import org.kitteh.irc.client.library.event.client.ClientConnectionClosedEvent;
 import org.kitteh.irc.client.library.exception.KittehConnectionException;
 
 import javax.net.ssl.SSLException;
-import java.io.File;
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class NettyManager {
     static class ClientConnection {
+        private static final class QueuedMessage {
+            private final String message;
+            private final long time = System.nanoTime();
+
+            private QueuedMessage(String message) {
+                this.message = message;
+            }
+        }
+
         private final IRCClient client;
-        private final Channel channel;
-        private final Queue<String> queue = new ConcurrentLinkedQueue<>();
-        private boolean reconnect = true;
+        private final EventLoop loop;
+        private Future<Channel> connectFuture;
+        private volatile Channel channel;
+        private final List<String> unsent = new ArrayList<>(); // Written before connecting, guarded by unsentLock
+        private final Object unsentLock = new Object();
+        private boolean closing;
+        private final Queue<QueuedMessage> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queueSize = new AtomicInteger();
+        private volatile boolean reconnect = true;
         private ScheduledFuture<?> scheduledSending;
         private final Object scheduledSendingLock = new Object();
 
-        private ClientConnection(final IRCClient client, ChannelFuture future) {
+        private ClientConnection(final IRCClient client, EventLoop loop) {
             this.client = client;
-            this.channel = future.channel();
+            this.loop = loop;
+        }
 
-            try {
-                future.sync();
-            } catch (InterruptedException e) {
-                this.client.getExceptionListener().queue(e);
-                return;
+        /**
+         * Passes input on to the client, holding any read before the
+         * channel is chosen, such as while its certificate is checked.
+         */
+        private final class InputHandler extends SimpleChannelInboundHandler<String> {
+            private List<String> early = new ArrayList<>();
+
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
+                if (this.early != null) {
+                    this.early.add(msg);
+                } else if (ctx.channel() == ClientConnection.this.channel) {
+                    this.process(msg);
+                }
             }
 
+            /**
+             * Called on the event loop once this handler's channel has won,
+             * before any further input.
+             */
+            private void chosen() {
+                List<String> early = this.early;
+                this.early = null;
+                early.forEach(this::process);
+            }
+
+            private void process(String msg) {
+                ClientConnection.this.client.getInputListener().queue(msg);
+                ClientConnection.this.client.processLine(msg);
+            }
+        }
+
+        private ClientConnection start(Bootstrap bootstrap) {
+            bootstrap.group(this.loop).handler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel channel) throws Exception {
+                    ClientConnection.this.initChannel(channel);
+                }
+            });
+            this.connectFuture = this.client.getServerConnector().connect(bootstrap, this.loop);
+            this.connectFuture.addListener(future -> this.connected());
+            return this;
+        }
+
+        /**
+         * Sets up the pipeline of a channel, before it connects. Several
+         * channels may be set up per connection when racing addresses, and
+         * input is only passed on from the one which wins.
+         *
+         * @param channel channel to set up
+         */
+        private void initChannel(Channel channel) {
             // Outbound - Processed in pipeline back to front.
-            this.channel.pipeline().addFirst("[OUTPUT] Output listener", new MessageToMessageEncoder<String>() {
+            channel.pipeline().addFirst("[OUTPUT] Output listener", new MessageToMessageEncoder<String>() {
                 @Override
                 protected void encode(ChannelHandlerContext ctx, String msg, List<Object> out) throws Exception {
                     ClientConnection.this.client.getOutputListener().queue(msg);
+                    ClientConnection.this.client.getMetrics().recordLineOut();
+                    ClientConnection.this.client.getPresenceTracker().handleLineSent(msg);
                     out.add(msg);
                 }
             });
-            this.channel.pipeline().addFirst("[OUTPUT] Add line breaks", new MessageToMessageEncoder<String>() {
+            channel.pipeline().addFirst("[OUTPUT] Add line breaks", new MessageToMessageEncoder<String>() {
                 @Override
                 protected void encode(ChannelHandlerContext ctx, String msg, List<Object> out) throws Exception {
                     out.add(msg + "\r\n");
                 }
             });
-            this.channel.pipeline().addFirst("[OUTPUT] String encoder", new StringEncoder(CharsetUtil.UTF_8));
+            channel.pipeline().addFirst("[OUTPUT] String encoder", new StringEncoder(CharsetUtil.UTF_8));
+            channel.pipeline().addFirst("[OUTPUT] Byte counter", new ChannelOutboundHandlerAdapter() {
+                @Override
+                public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                    if (msg instanceof ByteBuf) {
+                        ClientConnection.this.client.getMetrics().recordBytesOut(((ByteBuf) msg).readableBytes());
+                    }
+                    super.write(ctx, msg, promise);
+                }
+            });
 
             // Handle timeout
-            this.channel.pipeline().addLast("[INPUT] Idle state handler", new IdleStateHandler(250, 0, 60));
-            this.channel.pipeline().addLast("[INPUT] Catch idle", new ChannelDuplexHandler() {
+            channel.pipeline().addLast("[INPUT] Idle state handler", new IdleStateHandler(250, 0, 60));
+            channel.pipeline().addLast("[INPUT] Catch idle", new ChannelDuplexHandler() {
                 @Override
                 public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
-                    if (evt instanceof IdleStateEvent) {
+                    if (evt instanceof IdleStateEvent && ctx.channel() == ClientConnection.this.channel) {
                         IdleStateEvent e = (IdleStateEvent) evt;
                         if (e.state() == IdleState.READER_IDLE && e.isFirst()) {
                             ClientConnection.this.shutdown("Reconnecting...", true);
@@ -113,46 +195,141 @@ final class NettyManager {
             });
 
             // Inbound
-            this.channel.pipeline().addLast("[INPUT] Line splitter", new DelimiterBasedFrameDecoder(512, Unpooled.wrappedBuffer(new byte[]{'\r', '\n'})));
-            this.channel.pipeline().addLast("[INPUT] String decoder", new StringDecoder(CharsetUtil.UTF_8));
-            this.channel.pipeline().addLast("[INPUT] Send to client", new SimpleChannelInboundHandler<String>() {
-                @Override
-                protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-                    ClientConnection.this.client.getInputListener().queue(msg);
-                    ClientConnection.this.client.processLine(msg);
-                }
-            });
+            channel.pipeline().addLast("[INPUT] Line splitter", new NettyLineDecoder(this.client));
+            channel.pipeline().addLast("[INPUT] String decoder", new StringDecoder(CharsetUtil.UTF_8));
+            channel.pipeline().addLast("[INPUT] Send to client", new InputHandler());
 
             // SSL
             if (this.client.getConfig().get(Config.SSL)) {
                 try {
-                    File keyCertChainFile = this.client.getConfig().get(Config.SSL_KEY_CERT_CHAIN);
-                    File keyFile = this.client.getConfig().get(Config.SSL_KEY);
-                    String keyPassword = this.client.getConfig().get(Config.SSL_KEY_PASSWORD);
-                    SslContext sslContext = SslContext.newClientContext(null, null, new NettyTrustManagerFactory(this.client), keyCertChainFile, keyFile, keyPassword, null, null, IdentityCipherSuiteFilter.INSTANCE, null, 0, 0);
-                    this.channel.pipeline().addFirst(sslContext.newHandler(this.channel.alloc()));
+                    SslContext sslContext = SslContextCache.get(this.client);
+                    SocketAddress server = channel.attr(ServerConnector.SERVER).get();
+                    SslHandler sslHandler;
+                    if (server instanceof InetSocketAddress) { // Sessions are cached by host and port, so can be resumed on reconnecting
+                        InetSocketAddress address = (InetSocketAddress) server;
+                        sslHandler = sslContext.newHandler(channel.alloc(), address.getHostString(), address.getPort());
+                    } else {
+                        sslHandler = sslContext.newHandler(channel.alloc());
+                    }
+                    NettyTrustManagerFactory.SHARED.register(sslHandler.engine(), this.client);
+                    channel.closeFuture().addListener(closed -> NettyTrustManagerFactory.SHARED.unregister(sslHandler.engine()));
+                    final Object handshakeEvent = FlightRecorderSupport.beginSslHandshake();
+                    final Promise<Void> ready = channel.eventLoop().newPromise();
+                    channel.attr(ServerConnector.READY).set(ready);
+                    sslHandler.handshakeFuture().addListener(handshake -> {
+                        SSLSession session = sslHandler.engine().getSession();
+                        FlightRecorderSupport.commitSslHandshake(handshakeEvent, this.client, handshake.isSuccess(), session.getProtocol(), session.getCipherSuite());
+                        CompletableFuture<Boolean> decision = NettyTrustManagerFactory.takeDecision(sslHandler.engine());
+                        if (!handshake.isSuccess()) {
+                            ready.tryFailure(handshake.cause());
+                        } else if (decision == null) {
+                            ready.trySuccess(null);
+                        } else { // Certificate still being checked, so wait before sending anything
+                            // Resuming the session would skip the check, so keep it out of the cache. Once the
+                            // certificate is pinned, later sessions can be resumed.
+                            session.invalidate();
+                            decision.whenComplete((accepted, thrown) -> channel.eventLoop().execute(() -> {
+                                if (Boolean.TRUE.equals(accepted)) {
+                                    ready.trySuccess(null);
+                                } else {
+                                    ready.tryFailure(thrown != null ? thrown : new CertificateException("Certificate denied via SSLCertificateAcceptEvent"));
+                                }
+                            }));
+                        }
+                    });
+                    channel.pipeline().addFirst(sslHandler);
                 } catch (SSLException e) {
                     this.client.getExceptionListener().queue(new KittehConnectionException(e, true));
-                    return;
+                    channel.close();
                 }
             }
+        }
 
-            // Clean up on disconnect
-            this.channel.closeFuture().addListener(futureListener -> {
-                if (ClientConnection.this.reconnect) {
-                    ClientConnection.this.channel.eventLoop().schedule(ClientConnection.this.client::connect, 5, TimeUnit.SECONDS);
+        /**
+         * Called on the event loop once connecting has finished, whether
+         * successfully or not.
+         */
+        private void connected() {
+            if (!this.connectFuture.isSuccess()) {
+                if (!this.connectFuture.isCancelled()) {
+                    this.client.getExceptionListener().queue(new KittehConnectionException(this.connectFuture.cause(), false));
                 }
-                ClientConnection.this.client.getEventManager().callEvent(new ClientConnectionClosedEvent(ClientConnection.this.client, ClientConnection.this.reconnect));
-                removeClientConnection(ClientConnection.this, ClientConnection.this.reconnect);
+                this.client.releaseReconnectSlot();
+                boolean reconnecting = this.reconnect && this.client.scheduleReconnect(this.loop);
+                removeClientConnection(this, reconnecting);
+                return;
+            }
+            final Channel channel = this.connectFuture.getNow();
+
+            // Clean up on disconnect
+            channel.closeFuture().addListener(futureListener -> {
+                ClientConnection.this.client.releaseReconnectSlot();
+                boolean reconnecting = ClientConnection.this.reconnect && ClientConnection.this.client.scheduleReconnect(this.loop);
+                ClientConnection.this.client.getEventManager().callEvent(new ClientConnectionClosedEvent(ClientConnection.this.client, reconnecting));
+                removeClientConnection(ClientConnection.this, reconnecting);
             });
+
+            ((InputHandler) channel.pipeline().get("[INPUT] Send to client")).chosen();
+
+            boolean closing;
+            synchronized (this.unsentLock) {
+                this.channel = channel;
+                this.unsent.forEach(message -> this.write(channel, message, 0));
+                this.unsent.clear();
+                closing = this.closing;
+            }
+            if (closing) { // Shut down while connecting
+                channel.close();
+            }
         }
 
         void sendMessage(String message, boolean priority) {
             if (priority) {
-                this.channel.writeAndFlush(message);
+                this.write(message, 0);
             } else {
-                this.queue.add(message);
+                this.queue.add(new QueuedMessage(message));
+                FlightRecorderSupport.messageQueued(this.client, this.queueSize.incrementAndGet());
+            }
+        }
+
+        private void write(String message, long queueWait) {
+            Channel channel = this.channel;
+            if (channel == null) {
+                synchronized (this.unsentLock) {
+                    channel = this.channel;
+                    if (channel == null) {
+                        this.unsent.add(message);
+                        return;
+                    }
+                }
             }
+            this.write(channel, message, queueWait);
+        }
+
+        private void write(Channel channel, String message, long queueWait) {
+            final Object flushEvent = FlightRecorderSupport.beginMessageFlushed();
+            ChannelFuture future = channel.writeAndFlush(message);
+            if (flushEvent != null) {
+                future.addListener(written -> FlightRecorderSupport.commitMessageFlushed(flushEvent, this.client, queueWait, written.isSuccess()));
+            }
+        }
+
+        /**
+         * Gets the future completing once connected, to whichever of the
+         * client's servers accepted first.
+         *
+         * @return connection future
+         */
+        Future<Channel> getConnectFuture() {
+            return this.connectFuture;
+        }
+
+        int getQueueSize() {
+            return this.queueSize.get();
+        }
+
+        ScheduledFuture<?> schedule(Runnable task, long delay) {
+            return this.loop.schedule(task, delay, TimeUnit.MILLISECONDS);
         }
 
         void shutdown(String message) {
@@ -177,10 +354,13 @@ final class NettyManager {
                     delay = this.scheduledSending.getDelay(TimeUnit.MILLISECONDS); // Negligible added delay processing this
                     this.scheduledSending.cancel(false);
                 }
-                this.scheduledSending = this.channel.eventLoop().scheduleAtFixedRate(() -> {
-                    String message = ClientConnection.this.queue.poll();
-                    if (message != null) {
-                        ClientConnection.this.channel.writeAndFlush(message);
+                this.scheduledSending = this.loop.scheduleAtFixedRate(() -> {
+                    QueuedMessage queued = ClientConnection.this.queue.poll();
+                    if (queued != null) {
+                        ClientConnection.this.queueSize.decrementAndGet();
+                        long queueWait = System.nanoTime() - queued.time;
+                        ClientConnection.this.client.getMetrics().recordOutputQueueWait(queueWait);
+                        ClientConnection.this.write(queued.message, queueWait);
                     }
                 }, delay, this.client.getMessageDelay(), TimeUnit.MILLISECONDS);
             }
@@ -197,47 +377,89 @@ final class NettyManager {
             final String quitMessage = quitBuilder.toString();
 
             this.sendMessage(quitMessage, true);
-            this.channel.close();
+            Channel channel;
+            synchronized (this.unsentLock) {
+                channel = this.channel;
+                this.closing = true;
+            }
+            if (channel != null) {
+                channel.close();
+            } else {
+                this.connectFuture.cancel(false);
+            }
         }
     }
 
     private static final Bootstrap bootstrap = new Bootstrap();
     private static EventLoopGroup eventLoopGroup = null;
+    private static int pendingReconnects;
     private static final Set<ClientConnection> connections = new HashSet<>();
 
     static {
-        bootstrap.channel(NioSocketChannel.class);
-        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
-            @Override
-            public void initChannel(SocketChannel channel) throws Exception {
-                // NOOP
-            }
-        });
         bootstrap.option(ChannelOption.TCP_NODELAY, true);
     }
 
     private static synchronized void removeClientConnection(ClientConnection connection, boolean reconnecting) {
-        connections.remove(connection);
-        if (!reconnecting && connections.isEmpty()) {
+        if (!connections.remove(connection)) { // Manager-owned, so never holding the shared group
+            return;
+        }
+        if (reconnecting) {
+            pendingReconnects++;
+        } else {
+            shutdownIfUnused();
+        }
+    }
+
+    /**
+     * Releases the event loop held for a client between losing its
+     * connection and its reconnect attempts finishing.
+     *
+     * @param client client which was reconnecting
+     */
+    static synchronized void reconnectEnded(IRCClient client) {
+        if (client.getConfig().get(Config.MANAGER) != null) { // Manager-owned connections aren't counted
+            return;
+        }
+        pendingReconnects--;
+        shutdownIfUnused();
+    }
+
+    private static void shutdownIfUnused() {
+        if (connections.isEmpty() && pendingReconnects == 0 && eventLoopGroup != null) {
             eventLoopGroup.shutdownGracefully();
             eventLoopGroup = null;
         }
     }
 
-    synchronized static ClientConnection connect(IRCClient client) {
-        if (eventLoopGroup == null) {
-            eventLoopGroup = new NioEventLoopGroup();
-            bootstrap.group(eventLoopGroup);
-        }
-        SocketAddress bind = client.getConfig().get(Config.BIND_ADDRESS);
-        SocketAddress server = client.getConfig().get(Config.SERVER_ADDRESS);
-        ClientConnection clientConnection;
-        if (bind == null) {
-            clientConnection = new ClientConnection(client, bootstrap.connect(server));
+    /**
+     * Starts connecting a client, without waiting for the connection.
+     *
+     * @param client client to connect
+     * @return the connection, which buffers priority messages until
+     * connected
+     */
+    static ClientConnection connect(IRCClient client) {
+        ClientManager manager = client.getConfig().get(Config.MANAGER);
+        // Bootstrap's group can't be replaced, so the template stays without one.
+        // All of a connection's attempts share one loop, so racing them needs no locking.
+        Bootstrap connectBootstrap = bootstrap.clone();
+        if (client.getConfig().get(Config.SERVER_ADDRESS) instanceof LocalAddress) { // In-process, such as for replaying recorded traffic
+            connectBootstrap.channel(LocalChannel.class).option(ChannelOption.TCP_NODELAY, null);
         } else {
-            clientConnection = new ClientConnection(client, bootstrap.connect(server, bind));
+            connectBootstrap.channel(NioSocketChannel.class);
+        }
+        if (manager != null) {
+            return new ClientConnection(client, manager.getEventLoopGroup().next()).start(connectBootstrap);
+        }
+        ClientConnection connection;
+        // Only held while taking a loop, as the shared group is shut down once without connections
+        synchronized (NettyManager.class) {
+            if (eventLoopGroup == null) {
+                eventLoopGroup = new NioEventLoopGroup();
+            }
+            connection = new ClientConnection(client, eventLoopGroup.next());
+            connections.add(connection);
         }
-        connections.add(clientConnection);
-        return clientConnection;
+        return connection.start(connectBootstrap);
     }
-}
\ No newline at end of file
+}
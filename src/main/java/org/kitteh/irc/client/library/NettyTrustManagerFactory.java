@@ -28,26 +28,85 @@ import io.netty.util.internal.EmptyArrays;
 import org.kitteh.irc.client.library.event.client.SSLCertificateAcceptEvent;
 
 import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.net.Socket;
 import java.security.KeyStore;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+/**
+ * Asks a client, via {@link SSLCertificateAcceptEvent}, whether to trust a
+ * server's certificate.
+ * <p>
+ * A factory either belongs to one client, or is {@link #SHARED} between
+ * any number, finding the client from the engine performing the handshake.
+ * Sharing lets one SSL context serve many clients, but only works with
+ * providers passing the engine to the trust manager, such as the JDK's.
+ * <p>
+ * Accepted certificates are pinned to the server presenting them, and
+ * trusted from then on without asking. When the engine is known, the event
+ * is fired off the event loop and the handshake allowed to continue
+ * meanwhile, leaving the connection to wait on {@link #takeDecision}
+ * before use. Without the engine there's no server to pin to, so the
+ * event fires every time.
+ */
 final class NettyTrustManagerFactory extends SimpleTrustManagerFactory {
-    private class EventTrustManager implements X509TrustManager {
+    private class EventTrustManager extends X509ExtendedTrustManager {
         @Override
         public void checkClientTrusted(X509Certificate[] chain, String s) {
             // NOOP
         }
 
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String s, Socket socket) {
+            // NOOP
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String s, SSLEngine engine) {
+            // NOOP
+        }
+
         @Override
         public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-            SSLCertificateAcceptEvent event = new SSLCertificateAcceptEvent(NettyTrustManagerFactory.this.client, authType, chain);
-            NettyTrustManagerFactory.this.client.getEventManager().callEvent(event);
-            if (event.isDenied()) {
-                throw new CertificateException("Certificate denied via SSLCertificateAcceptEvent");
+            this.check(NettyTrustManagerFactory.this.client, chain, authType, null);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+            this.check(NettyTrustManagerFactory.this.client, chain, authType, null);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            IRCClient client = NettyTrustManagerFactory.this.client;
+            this.check(client == null ? NettyTrustManagerFactory.this.engines.get(engine) : client, chain, authType, engine);
+        }
+
+        private void check(IRCClient client, X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            if (client == null) {
+                throw new CertificateException("Handshake not from a known client");
+            }
+            if (engine == null) {
+                // Without the engine the decision can't be tied to a connection or server, so must be made now, unpinned
+                if (!ask(client, chain, authType, null)) {
+                    throw new CertificateException(DENIED);
+                }
+                return;
             }
+            String server = CertificatePins.server(engine);
+            if ((server != null) && (chain.length > 0) && client.getCertificatePins().isPinned(server, chain[0])) {
+                return;
+            }
+            DECISIONS.put(engine, CompletableFuture.supplyAsync(() -> ask(client, chain, authType, server), EVALUATOR));
         }
 
         @Override
@@ -56,14 +115,90 @@ final class NettyTrustManagerFactory extends SimpleTrustManagerFactory {
         }
     }
 
-    private final Client client;
+    private static final String DENIED = "Certificate denied via SSLCertificateAcceptEvent";
+    private static final Executor EVALUATOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Kitteh IRC Client Certificate Check");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<SSLEngine, CompletableFuture<Boolean>> DECISIONS = new ConcurrentHashMap<>();
+
+    /**
+     * Factory shared between clients, which must {@link #register} their
+     * engines.
+     */
+    static final NettyTrustManagerFactory SHARED = new NettyTrustManagerFactory(null);
+
+    private final IRCClient client;
+    private final Map<SSLEngine, IRCClient> engines = new ConcurrentHashMap<>();
     private final TrustManager trustManager;
 
-    NettyTrustManagerFactory(Client client) {
+    NettyTrustManagerFactory(IRCClient client) {
         this.client = client;
         this.trustManager = new EventTrustManager();
     }
 
+    /**
+     * Sets the client asked about certificates presented to an engine,
+     * until the engine is unregistered.
+     *
+     * @param engine engine of a connection
+     * @param client client owning the connection
+     */
+    void register(SSLEngine engine, IRCClient client) {
+        this.engines.put(engine, client);
+    }
+
+    /**
+     * Forgets an engine's client, once its connection has closed.
+     *
+     * @param engine engine of a connection
+     */
+    void unregister(SSLEngine engine) {
+        this.engines.remove(engine);
+        DECISIONS.remove(engine);
+    }
+
+    /**
+     * Takes the pending decision on the certificate presented to an engine,
+     * if it was not pinned and is being put to the client off the event
+     * loop. The handshake then completes, but the connection must not be
+     * used until the decision is made, nor its session resumed by another.
+     *
+     * @param engine engine of a connection
+     * @return the pending decision, completing with whether the certificate
+     * was accepted, or null if already trusted
+     */
+    static CompletableFuture<Boolean> takeDecision(SSLEngine engine) {
+        return DECISIONS.remove(engine);
+    }
+
+    /**
+     * Fires the event for a certificate, pinning it if accepted.
+     *
+     * @param client client to ask
+     * @param chain certificate chain
+     * @param authType authentication type
+     * @param server server presenting the certificate, or null if unknown
+     * and so not to be pinned
+     * @return true if accepted
+     */
+    private static boolean ask(IRCClient client, X509Certificate[] chain, String authType, String server) {
+        SSLCertificateAcceptEvent event = new SSLCertificateAcceptEvent(client, authType, chain);
+        client.getEventManager().callEvent(event);
+        if (event.isDenied()) {
+            return false;
+        }
+        if ((server != null) && (chain.length > 0)) {
+            try {
+                client.getCertificatePins().pin(server, chain[0]);
+            } catch (IOException e) {
+                client.getExceptionListener().queue(e);
+            }
+        }
+        return true;
+    }
+
     @Override
     protected TrustManager[] engineGetTrustManagers() {
         return new TrustManager[]{this.trustManager};
@@ -78,4 +213,4 @@ final class NettyTrustManagerFactory extends SimpleTrustManagerFactory {
     protected void engineInit(ManagerFactoryParameters managerFactoryParameters) throws Exception {
         // NOOP
     }
-}
\ No newline at end of file
+}
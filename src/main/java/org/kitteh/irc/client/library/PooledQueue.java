@@ -0,0 +1,121 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Processes queued items in order on a shared executor, in place of a
+ * {@link org.kitteh.irc.client.library.util.QueueProcessingThread} per
+ * queue. At most one task per queue is running or waiting at a time, and
+ * it gives up its worker after a batch so busy queues can't starve others.
+ * Once the executor refuses work, the queue shuts down and discards what's
+ * left, as nothing could run it.
+ */
+final class PooledQueue<Type> implements Runnable {
+    private static final int BATCH = 64;
+
+    private final Executor executor;
+    private final Consumer<Type> consumer;
+    private final Queue<Type> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean shutdown;
+    private volatile boolean discard;
+    private final AtomicReference<Thread> worker = new AtomicReference<>();
+
+    PooledQueue(Executor executor, Consumer<Type> consumer) {
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    void queue(Type item) {
+        if (this.shutdown) {
+            return;
+        }
+        this.queue.add(item);
+        if (this.pending.getAndIncrement() == 0) {
+            this.schedule();
+        }
+    }
+
+    int getQueueSize() {
+        return this.pending.get();
+    }
+
+    /**
+     * Stops accepting items.
+     *
+     * @param finish true to process items already queued, false to
+     * discard them
+     */
+    void shutdown(boolean finish) {
+        this.discard = !finish;
+        this.shutdown = true;
+    }
+
+    /**
+     * Gets if the current thread is the worker processing this queue.
+     *
+     * @return true if called from within the consumer
+     */
+    boolean isWorkerThread() {
+        return Thread.currentThread() == this.worker.get();
+    }
+
+    @Override
+    public void run() {
+        Thread thread = Thread.currentThread();
+        this.worker.set(thread);
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                Type item = this.queue.poll();
+                if (!this.discard) {
+                    this.consumer.accept(item);
+                }
+                if (this.pending.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+        } finally {
+            this.worker.compareAndSet(thread, null); // Unless the next run has already started elsewhere
+        }
+        this.schedule();
+    }
+
+    private void schedule() {
+        try {
+            this.executor.execute(this);
+        } catch (RejectedExecutionException e) { // Such as once a client manager is closed
+            this.shutdown(false);
+            this.queue.clear();
+            this.pending.set(0);
+        }
+    }
+}
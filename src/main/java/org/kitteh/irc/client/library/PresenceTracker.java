@@ -0,0 +1,405 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.event.user.MonitoredNickOfflineEvent;
+import org.kitteh.irc.client.library.event.user.MonitoredNickOnlineEvent;
+import org.kitteh.irc.client.library.util.LCKeyMap;
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks whether nicknames are online, for a single {@link Client}.
+ * <p>
+ * Uses MONITOR, or WATCH, when the server supports it, up to the server's
+ * limit. Any nicks beyond the limit, or all nicks on servers supporting
+ * neither, are polled with ISON at an interval which grows while nothing
+ * changes, and queried at once when added. The list is resent to the
+ * server after each reconnect.
+ *
+ * @see MonitoredNickOnlineEvent
+ * @see MonitoredNickOfflineEvent
+ */
+public final class PresenceTracker {
+    private enum Mode {
+        MONITOR,
+        WATCH,
+        ISON
+    }
+
+    private static final long POLL_INTERVAL_MIN = 30000;
+    private static final long POLL_INTERVAL_MAX = 300000;
+    private static final int MAX_LINE_TARGETS_LENGTH = 400;
+    /**
+     * Stands in for ISON queries sent by something else, whose replies are
+     * left alone.
+     */
+    private static final List<String> NOT_OURS = Collections.unmodifiableList(new ArrayList<>());
+
+    private final IRCClient client;
+    private final Map<String, String> nicks;
+    private final Map<String, String> online;
+    private final Map<String, String> serverTracked;
+    // Our queries not yet written to the server
+    private final List<List<String>> isonQueued = new LinkedList<>();
+    // Every query written to the server and not yet answered, in order
+    private final Queue<List<String>> isonQueries = new LinkedList<>();
+    private Mode mode;
+    private int limit;
+    private boolean changedThisCycle;
+    private long pollInterval = POLL_INTERVAL_MIN;
+    private ScheduledFuture<?> poll;
+
+    PresenceTracker(IRCClient client) {
+        this.client = client;
+        this.nicks = new LCKeyMap<>(client);
+        this.online = new LCKeyMap<>(client);
+        this.serverTracked = new LCKeyMap<>(client);
+    }
+
+    /**
+     * Starts tracking nicknames.
+     *
+     * @param nicks nicks to track
+     */
+    public synchronized void addNicks(String... nicks) {
+        Sanity.nullCheck(nicks, "Nicks cannot be null");
+        List<String> added = new ArrayList<>();
+        for (String nick : nicks) {
+            Sanity.truthiness(nick.indexOf(' ') == -1 && nick.indexOf(',') == -1, "Nicks cannot contain spaces or commas");
+            Sanity.safeMessageCheck(nick, "nick");
+            if (this.nicks.put(nick, nick) == null) {
+                added.add(nick);
+            }
+        }
+        if (this.mode == null) {
+            return;
+        }
+        if (this.mode != Mode.ISON) {
+            this.sendAdditions(added);
+        }
+        added.removeIf(this.serverTracked::containsKey);
+        this.sendIsons(added); // Rather than waiting for the next poll
+    }
+
+    /**
+     * Gets the tracked nicknames.
+     *
+     * @return tracked nicks
+     */
+    public synchronized Set<String> getNicks() {
+        return new HashSet<>(this.nicks.values());
+    }
+
+    /**
+     * Gets the tracked nicknames currently known to be online.
+     *
+     * @return online nicks
+     */
+    public synchronized Set<String> getOnlineNicks() {
+        return new HashSet<>(this.online.values());
+    }
+
+    /**
+     * Gets if a tracked nickname is known to be online.
+     *
+     * @param nick nick to check
+     * @return true if tracked and online
+     */
+    public boolean isOnline(String nick) {
+        Sanity.nullCheck(nick, "Nick cannot be null");
+        return this.online.containsKey(nick);
+    }
+
+    /**
+     * Stops tracking nicknames.
+     *
+     * @param nicks nicks to stop tracking
+     */
+    public synchronized void removeNicks(String... nicks) {
+        Sanity.nullCheck(nicks, "Nicks cannot be null");
+        List<String> removed = new ArrayList<>();
+        for (String nick : nicks) {
+            this.nicks.remove(nick);
+            this.online.remove(nick);
+            String tracked = this.serverTracked.remove(nick);
+            if (tracked != null) {
+                removed.add(tracked);
+            }
+        }
+        if (!removed.isEmpty()) {
+            this.sendTargets(this.mode == Mode.MONITOR ? "MONITOR - " : "WATCH", this.mode == Mode.MONITOR ? "," : " -", removed);
+        }
+    }
+
+    /**
+     * Handles MONITOR list full, moving the rejected nicks to ISON polling.
+     *
+     * @param targets comma separated nicks
+     */
+    synchronized void handleListFull(String targets) {
+        for (String nick : targets.split(",")) {
+            this.serverTracked.remove(nick);
+        }
+        this.schedulePoll(0);
+    }
+
+    /**
+     * Handles a line being written to the server, noting each ISON query
+     * in the order replies will arrive.
+     *
+     * @param line line written
+     */
+    void handleLineSent(String line) {
+        if (!line.regionMatches(true, 0, "ISON ", 0, 5)) {
+            return;
+        }
+        synchronized (this) {
+            Iterator<List<String>> iterator = this.isonQueued.iterator();
+            while (iterator.hasNext()) {
+                List<String> query = iterator.next();
+                if (line.equals(isonLine(query))) {
+                    iterator.remove();
+                    this.isonQueries.add(query);
+                    return;
+                }
+            }
+            this.isonQueries.add(NOT_OURS);
+        }
+    }
+
+    /**
+     * Handles an ISON reply.
+     *
+     * @param reply space separated online nicks
+     */
+    void handleIsonReply(String reply) {
+        List<Object> events = new ArrayList<>();
+        synchronized (this) {
+            List<String> query = this.isonQueries.poll();
+            if (query == null || query == NOT_OURS) {
+                return;
+            }
+            Set<String> present = new HashSet<>();
+            CaseMapping caseMapping = this.client.getServerInfo().getCaseMapping();
+            for (String nick : reply.split(" ")) {
+                if (!nick.isEmpty()) {
+                    present.add(caseMapping.toLowerCase(nick));
+                }
+            }
+            for (String nick : query) {
+                if (present.contains(caseMapping.toLowerCase(nick))) {
+                    this.trackOnline(nick, events);
+                } else {
+                    this.trackOffline(nick, events);
+                }
+            }
+        }
+        events.forEach(this.client.getEventManager()::callEvent);
+    }
+
+    /**
+     * Handles a nick being reported offline.
+     *
+     * @param nick nick
+     */
+    void setOffline(String nick) {
+        List<Object> events = new ArrayList<>(1);
+        synchronized (this) {
+            this.trackOffline(nick, events);
+        }
+        events.forEach(this.client.getEventManager()::callEvent);
+    }
+
+    /**
+     * Handles a nick being reported online.
+     *
+     * @param nick nick, or full nick!user@host mask
+     */
+    void setOnline(String nick) {
+        int bang = nick.indexOf('!');
+        List<Object> events = new ArrayList<>(1);
+        synchronized (this) {
+            this.trackOnline(bang == -1 ? nick : nick.substring(0, bang), events);
+        }
+        events.forEach(this.client.getEventManager()::callEvent);
+    }
+
+    /**
+     * Sends the tracked list to the server, once the server has described
+     * itself after connecting. Later calls on the same connection, such as
+     * for a requested MOTD, are ignored.
+     */
+    synchronized void start() {
+        if (this.mode != null) { // Already started, until reset
+            return;
+        }
+        IRCServerInfo serverInfo = this.client.getServerInfo();
+        if (serverInfo.getMonitorLimit() != 0) {
+            this.mode = Mode.MONITOR;
+            this.limit = serverInfo.getMonitorLimit();
+            this.client.sendRawLine("MONITOR C");
+        } else if (serverInfo.getWatchLimit() != 0) {
+            this.mode = Mode.WATCH;
+            this.limit = serverInfo.getWatchLimit();
+            this.client.sendRawLine("WATCH C");
+        } else {
+            this.mode = Mode.ISON;
+            this.limit = 0;
+        }
+        this.serverTracked.clear();
+        if (this.mode != Mode.ISON) {
+            this.sendAdditions(new ArrayList<>(this.nicks.values()));
+        }
+        this.schedulePoll(0);
+    }
+
+    /**
+     * Stops activity for a closed connection. Tracked nicks and their last
+     * known state are kept for the next connection.
+     */
+    synchronized void reset() {
+        if (this.poll != null) {
+            this.poll.cancel(false);
+            this.poll = null;
+        }
+        this.mode = null;
+        this.serverTracked.clear();
+        this.isonQueued.clear();
+        this.isonQueries.clear();
+        this.pollInterval = POLL_INTERVAL_MIN;
+    }
+
+    private void trackOffline(String nick, List<Object> events) {
+        String tracked = this.nicks.get(nick);
+        if (tracked != null && this.online.remove(nick) != null) {
+            this.changedThisCycle = true;
+            events.add(new MonitoredNickOfflineEvent(this.client, tracked));
+        }
+    }
+
+    private void trackOnline(String nick, List<Object> events) {
+        String tracked = this.nicks.get(nick);
+        if (tracked != null && this.online.put(nick, tracked) == null) {
+            this.changedThisCycle = true;
+            events.add(new MonitoredNickOnlineEvent(this.client, tracked));
+        }
+    }
+
+    private void sendAdditions(List<String> added) {
+        List<String> toServer = new ArrayList<>();
+        for (String nick : added) {
+            if (this.limit >= 0 && this.serverTracked.size() >= this.limit) {
+                break; // The rest are polled
+            }
+            this.serverTracked.put(nick, nick);
+            toServer.add(nick);
+        }
+        if (this.mode == Mode.MONITOR) {
+            this.sendTargets("MONITOR + ", ",", toServer);
+        } else {
+            this.sendTargets("WATCH", " +", toServer);
+        }
+    }
+
+    private void sendTargets(String command, String delimiter, List<String> targets) {
+        StringBuilder builder = new StringBuilder();
+        for (String target : targets) {
+            if (builder.length() > 0 && builder.length() + target.length() > MAX_LINE_TARGETS_LENGTH) {
+                this.client.sendRawLine(command + builder);
+                builder.setLength(0);
+            }
+            if (builder.length() > 0 || this.mode == Mode.WATCH) {
+                builder.append(delimiter);
+            }
+            builder.append(target);
+        }
+        if (builder.length() > 0) {
+            this.client.sendRawLine(command + builder);
+        }
+    }
+
+    private void poll() {
+        synchronized (this) {
+            this.poll = null;
+            if (this.mode == null) {
+                return;
+            }
+            this.pollInterval = this.changedThisCycle ? POLL_INTERVAL_MIN : Math.min(this.pollInterval * 2, POLL_INTERVAL_MAX);
+            this.changedThisCycle = false;
+            List<String> polled = new ArrayList<>(this.nicks.values());
+            polled.removeIf(this.serverTracked::containsKey);
+            this.sendIsons(polled);
+            this.schedulePoll(this.pollInterval);
+        }
+    }
+
+    private void schedulePoll(long delay) {
+        if (this.poll != null) {
+            if (delay > 0) {
+                return;
+            }
+            this.poll.cancel(false);
+        }
+        this.poll = this.client.schedule(this::poll, delay);
+    }
+
+    private void sendIsons(Collection<String> nicks) {
+        List<String> query = new ArrayList<>();
+        int length = 0;
+        for (String nick : nicks) {
+            if (!query.isEmpty() && length + nick.length() > MAX_LINE_TARGETS_LENGTH) {
+                this.sendIson(query);
+                query = new ArrayList<>();
+                length = 0;
+            }
+            query.add(nick);
+            length += nick.length() + 1;
+        }
+        if (!query.isEmpty()) {
+            this.sendIson(query);
+        }
+    }
+
+    private void sendIson(List<String> query) {
+        this.isonQueued.add(query);
+        this.client.sendRawLine(isonLine(query));
+    }
+
+    private static String isonLine(List<String> query) {
+        return "ISON " + String.join(" ", query);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a client reconnects after losing its connection.
+ * <p>
+ * Delays grow exponentially with each consecutive failed attempt, up to a
+ * maximum, and by default are fully jittered: each delay is chosen at
+ * random between zero and the current backoff, so that many clients
+ * disconnected at once don't all return at the same instant. The attempt
+ * count resets once the client has registered with the server.
+ * <p>
+ * A policy also caps how many of its clients may be attempting to
+ * reconnect at once. An attempt lasts until registration completes, the
+ * connection closes or the attempt timeout passes, and attempts over the
+ * cap wait their turn. The cap covers every client sharing the policy, so
+ * clients built without one share the default policy and its cap. A
+ * client's first connection, made when it is built, is not counted.
+ */
+public final class ReconnectPolicy {
+    /**
+     * Builds a {@link ReconnectPolicy}.
+     */
+    public static final class Builder {
+        private long initialDelay = 5000;
+        private long maxDelay = TimeUnit.MINUTES.toMillis(5);
+        private boolean jitter = true;
+        private int maxAttempts = 0;
+        private int maxConcurrentAttempts = 10;
+        private long attemptTimeout = TimeUnit.MINUTES.toMillis(1);
+
+        /**
+         * Starts building a policy.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Sets the backoff before the first attempt, which doubles with each
+         * following attempt. By default, five seconds.
+         *
+         * @param delay initial backoff
+         * @param unit unit of the delay
+         * @return this builder
+         * @throws IllegalArgumentException for a negative delay
+         */
+        public Builder initialDelay(long delay, TimeUnit unit) {
+            Sanity.truthiness(delay >= 0, "Delay cannot be negative");
+            Sanity.nullCheck(unit, "Unit cannot be null");
+            this.initialDelay = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Sets the most the backoff can grow to. By default, five minutes.
+         *
+         * @param delay maximum backoff
+         * @param unit unit of the delay
+         * @return this builder
+         * @throws IllegalArgumentException for a negative delay
+         */
+        public Builder maxDelay(long delay, TimeUnit unit) {
+            Sanity.truthiness(delay >= 0, "Delay cannot be negative");
+            Sanity.nullCheck(unit, "Unit cannot be null");
+            this.maxDelay = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Sets if delays are chosen at random up to the backoff, rather than
+         * being the backoff itself. By default, true.
+         *
+         * @param jitter true to randomize delays
+         * @return this builder
+         */
+        public Builder jitter(boolean jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Sets how many consecutive attempts are made before the client
+         * gives up. By default, 0, for unlimited.
+         *
+         * @param attempts maximum attempts, or 0 for unlimited
+         * @return this builder
+         * @throws IllegalArgumentException for a negative count
+         */
+        public Builder maxAttempts(int attempts) {
+            Sanity.truthiness(attempts >= 0, "Attempts cannot be negative");
+            this.maxAttempts = attempts;
+            return this;
+        }
+
+        /**
+         * Sets how many clients using the policy may be attempting to
+         * reconnect at the same time. By default, 10. First connections
+         * aren't limited.
+         *
+         * @param attempts maximum simultaneous attempts
+         * @return this builder
+         * @throws IllegalArgumentException for fewer than one
+         */
+        public Builder maxConcurrentAttempts(int attempts) {
+            Sanity.truthiness(attempts > 0, "Must allow at least one attempt");
+            this.maxConcurrentAttempts = attempts;
+            return this;
+        }
+
+        /**
+         * Sets how long an attempt may hold its place under the concurrent
+         * attempt cap before registering. After this the attempt carries
+         * on, but no longer keeps others waiting. By default, one minute.
+         *
+         * @param timeout attempt timeout
+         * @param unit unit of the timeout
+         * @return this builder
+         * @throws IllegalArgumentException for a timeout below one
+         * millisecond
+         */
+        public Builder attemptTimeout(long timeout, TimeUnit unit) {
+            Sanity.nullCheck(unit, "Unit cannot be null");
+            Sanity.truthiness(unit.toMillis(timeout) > 0, "Timeout must be at least one millisecond");
+            this.attemptTimeout = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Builds the policy.
+         *
+         * @return a new policy
+         */
+        public ReconnectPolicy build() {
+            return new ReconnectPolicy(this);
+        }
+    }
+
+    static final ReconnectPolicy DEFAULT = new Builder().build();
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final boolean jitter;
+    private final int maxAttempts;
+    private final int maxConcurrentAttempts;
+    private final long attemptTimeout;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int attempting;
+
+    private ReconnectPolicy(Builder builder) {
+        this.initialDelay = builder.initialDelay;
+        this.maxDelay = Math.max(builder.initialDelay, builder.maxDelay);
+        this.jitter = builder.jitter;
+        this.maxAttempts = builder.maxAttempts;
+        this.maxConcurrentAttempts = builder.maxConcurrentAttempts;
+        this.attemptTimeout = builder.attemptTimeout;
+    }
+
+    /**
+     * Gets the delay before an attempt.
+     *
+     * @param attempt consecutive attempt, starting at 1
+     * @return delay in milliseconds, or -1 if no more attempts are to be
+     * made
+     */
+    public long getDelay(int attempt) {
+        Sanity.truthiness(attempt > 0, "Attempts start at 1");
+        if (this.maxAttempts > 0 && attempt > this.maxAttempts) {
+            return -1;
+        }
+        final int doublings = Math.min(attempt - 1, 62);
+        long backoff = this.initialDelay << doublings;
+        if ((backoff >> doublings) != this.initialDelay || backoff > this.maxDelay) { // Overflowed or too long
+            backoff = this.maxDelay;
+        }
+        return this.jitter ? ThreadLocalRandom.current().nextLong(backoff + 1) : backoff;
+    }
+
+    /**
+     * Gets how long an attempt may hold its place before registering.
+     *
+     * @return timeout in milliseconds
+     */
+    public long getAttemptTimeout() {
+        return this.attemptTimeout;
+    }
+
+    /**
+     * Gets the number of clients currently attempting to connect under
+     * this policy.
+     *
+     * @return attempts in progress
+     */
+    public int getCurrentAttempts() {
+        synchronized (this.waiting) {
+            return this.attempting;
+        }
+    }
+
+    /**
+     * Runs an attempt once fewer than the maximum are in progress. The
+     * attempt is run immediately if possible, otherwise by whichever
+     * thread releases the next slot, so should only hand off its work.
+     *
+     * @param attempt attempt to run
+     */
+    void acquire(Runnable attempt) {
+        synchronized (this.waiting) {
+            if (this.attempting >= this.maxConcurrentAttempts) {
+                this.waiting.add(attempt);
+                return;
+            }
+            this.attempting++;
+        }
+        attempt.run();
+    }
+
+    /**
+     * Ends an attempt, passing its slot to the next waiting attempt.
+     */
+    void release() {
+        Runnable next;
+        synchronized (this.waiting) {
+            next = this.waiting.poll();
+            if (next == null) {
+                this.attempting--;
+                return;
+            }
+        }
+        next.run();
+    }
+}
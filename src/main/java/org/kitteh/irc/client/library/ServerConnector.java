@@ -0,0 +1,272 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Establishes a client's connection, failing over between its servers.
+ * <p>
+ * Each server's host is resolved afresh and its addresses raced, Happy
+ * Eyeballs style (RFC 8305): attempts alternate between address families
+ * and start a short delay apart, or as soon as the previous attempt fails,
+ * and the first to connect, including its TLS handshake when secure, wins
+ * while the rest are closed. A slow or unreachable address therefore only
+ * delays the connection by the attempt delay, rather than the full connect
+ * timeout.
+ */
+final class ServerConnector {
+    /**
+     * Delay before starting the next attempt while one is still pending, as
+     * recommended by RFC 8305.
+     */
+    private static final long ATTEMPT_DELAY = 250;
+    private static final long FAILED = Long.MAX_VALUE;
+    /**
+     * The server, as configured, to which a channel is connecting.
+     */
+    static final AttributeKey<SocketAddress> SERVER = AttributeKey.valueOf("Kitteh IRC Client Server");
+    /**
+     * Completes once a connected channel is ready for use, such as after
+     * its TLS handshake and certificate check. Channels without it are
+     * ready as soon as connected.
+     */
+    static final AttributeKey<Future<?>> READY = AttributeKey.valueOf("Kitteh IRC Client Ready");
+    /**
+     * Resolving blocks, so is done on threads of its own rather than the
+     * event loop or shared workers.
+     */
+    private static final Executor RESOLVER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Kitteh IRC Client Resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final class Race {
+        private final Bootstrap bootstrap;
+        private final EventLoop loop;
+        private final List<SocketAddress> addresses;
+        private final Promise<Channel> promise;
+        private final List<ChannelFuture> attempts = new ArrayList<>();
+        private ScheduledFuture<?> nextAttempt;
+        private int failed;
+
+        private Race(Bootstrap bootstrap, EventLoop loop, List<SocketAddress> addresses, Promise<Channel> promise) {
+            this.bootstrap = bootstrap;
+            this.loop = loop;
+            this.addresses = addresses;
+            this.promise = promise;
+        }
+
+        private void attempt() {
+            if (this.nextAttempt != null) {
+                this.nextAttempt.cancel(false);
+                this.nextAttempt = null;
+            }
+            if (this.promise.isDone() || this.attempts.size() == this.addresses.size()) {
+                return;
+            }
+            SocketAddress address = this.addresses.get(this.attempts.size());
+            SocketAddress bind = ServerConnector.this.client.getConfig().get(Config.BIND_ADDRESS);
+            ChannelFuture attempt = bind == null ? this.bootstrap.connect(address) : this.bootstrap.connect(address, bind);
+            this.attempts.add(attempt);
+            attempt.addListener(future -> {
+                Future<?> ready = attempt.channel().attr(READY).get();
+                if (attempt.isSuccess() && ready != null) {
+                    ready.addListener(readied -> this.complete(attempt.channel(), readied));
+                } else {
+                    this.complete(attempt.channel(), attempt);
+                }
+            });
+            if (this.attempts.size() < this.addresses.size()) {
+                this.nextAttempt = this.loop.schedule(this::attempt, ATTEMPT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void complete(Channel channel, Future<?> ready) {
+            if (ready.isSuccess()) {
+                if (this.promise.trySuccess(channel)) {
+                    if (this.nextAttempt != null) {
+                        this.nextAttempt.cancel(false);
+                    }
+                    this.attempts.stream().map(ChannelFuture::channel).filter(other -> other != channel).forEach(Channel::close);
+                } else {
+                    channel.close();
+                }
+                return;
+            }
+            channel.close();
+            if (++this.failed == this.addresses.size()) {
+                this.promise.tryFailure(ready.cause());
+            } else {
+                this.attempt();
+            }
+        }
+    }
+
+    private final IRCClient client;
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final Map<SocketAddress, Long> latencies = new ConcurrentHashMap<>();
+
+    ServerConnector(IRCClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Connects to the first of the client's servers to accept. Connection
+     * attempts are made on the bootstrap, which must be set to the given
+     * event loop.
+     *
+     * @param bootstrap bootstrap for the client's channels
+     * @param loop event loop of the bootstrap
+     * @return the connected channel, once connected
+     */
+    Future<Channel> connect(Bootstrap bootstrap, EventLoop loop) {
+        Promise<Channel> promise = loop.newPromise();
+        this.connect(bootstrap, loop, this.getServers(), 0, promise, null);
+        return promise;
+    }
+
+    /**
+     * Gets the servers in the order they're to be tried for the next
+     * connection attempt.
+     *
+     * @return servers, unresolved
+     */
+    List<SocketAddress> getServers() {
+        List<SocketAddress> servers = new ArrayList<>();
+        SocketAddress primary = this.client.getConfig().get(Config.SERVER_ADDRESS);
+        if (primary instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) primary;
+            primary = InetSocketAddress.createUnresolved(address.getHostString(), address.getPort());
+        }
+        servers.add(primary);
+        servers.addAll(Arrays.asList(this.client.getConfig().get(Config.SERVER_FALLBACKS)));
+        switch (this.client.getConfig().get(Config.SERVER_SELECTION)) {
+            case ROUND_ROBIN:
+                Collections.rotate(servers, -(this.rotation.getAndIncrement() % servers.size()));
+                break;
+            case LOWEST_LATENCY:
+                servers.sort(Comparator.comparingLong(server -> this.latencies.getOrDefault(server, 0L)));
+                break;
+            case PRIORITY:
+            default:
+        }
+        return servers;
+    }
+
+    private void connect(Bootstrap bootstrap, EventLoop loop, List<SocketAddress> servers, int index, Promise<Channel> promise, Throwable lastFailure) {
+        if (index == servers.size()) {
+            promise.tryFailure(lastFailure);
+            return;
+        }
+        final SocketAddress server = servers.get(index);
+        final long start = System.nanoTime();
+        Promise<Channel> serverPromise = loop.newPromise();
+        serverPromise.addListener(future -> {
+            if (future.isSuccess()) {
+                this.recordLatency(server, System.nanoTime() - start);
+                Channel channel = serverPromise.getNow();
+                if (!promise.trySuccess(channel)) {
+                    channel.close();
+                }
+            } else {
+                this.latencies.put(server, FAILED);
+                this.connect(bootstrap, loop, servers, index + 1, promise, future.cause());
+            }
+        });
+        final Bootstrap serverBootstrap = bootstrap.clone().attr(SERVER, server);
+        if (!(server instanceof InetSocketAddress)) { // Such as a local address, connected to directly
+            new Race(serverBootstrap, loop, Collections.singletonList(server), serverPromise).attempt();
+            return;
+        }
+        final InetSocketAddress unresolved = (InetSocketAddress) server;
+        RESOLVER.execute(() -> {
+            try {
+                List<SocketAddress> addresses = interleave(InetAddress.getAllByName(unresolved.getHostString()), unresolved.getPort());
+                loop.execute(() -> new Race(serverBootstrap, loop, addresses, serverPromise).attempt());
+            } catch (Throwable thrown) { // Unresolvable, not permitted, or the loop is gone
+                serverPromise.tryFailure(thrown);
+                if (loop.isShuttingDown()) { // Nowhere left to fail over from
+                    promise.tryFailure(thrown);
+                }
+            }
+        });
+    }
+
+    private void recordLatency(SocketAddress server, long nanos) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+        this.latencies.compute(server, (key, previous) -> (previous == null || previous == FAILED) ? millis : ((previous * 3) + millis) / 4);
+    }
+
+    /**
+     * Orders resolved addresses for connecting, alternating between address
+     * families and starting with the family of the first address, which is
+     * the resolver's preference.
+     *
+     * @param addresses resolved addresses, in the resolver's order
+     * @param port port to connect to
+     * @return addresses to attempt, in order
+     */
+    static List<SocketAddress> interleave(InetAddress[] addresses, int port) {
+        List<InetAddress> preferred = new ArrayList<>();
+        List<InetAddress> other = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            ((address instanceof Inet6Address) == (addresses[0] instanceof Inet6Address) ? preferred : other).add(address);
+        }
+        List<SocketAddress> interleaved = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+            if (i < preferred.size()) {
+                interleaved.add(new InetSocketAddress(preferred.get(i), port));
+            }
+            if (i < other.size()) {
+                interleaved.add(new InetSocketAddress(other.get(i), port));
+            }
+        }
+        return interleaved;
+    }
+}
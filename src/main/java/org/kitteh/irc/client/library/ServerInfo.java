@@ -103,4 +103,11 @@ public interface ServerInfo {
      * @return server version
      */
     String getServerVersion();
+
+    /**
+     * Gets if the server supports WHOX, the extended WHO query syntax.
+     *
+     * @return true if WHOX is supported
+     */
+    boolean isWhoXSupported();
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+/**
+ * Orders the configured servers for each connection attempt. Every server
+ * is tried, in order, until one accepts the connection.
+ *
+ * @see ClientBuilder#fallbackServer(String, int)
+ */
+public enum ServerSelection {
+    /**
+     * The primary server first, then each fallback server in the order
+     * added.
+     */
+    PRIORITY,
+    /**
+     * Starts each attempt one server further along the list than the last,
+     * spreading connections across all servers.
+     */
+    ROUND_ROBIN,
+    /**
+     * Servers which have connected fastest in the past first. Servers not
+     * yet tried come before all others, and servers which failed on their
+     * last attempt after all others.
+     */
+    LOWEST_LATENCY
+}
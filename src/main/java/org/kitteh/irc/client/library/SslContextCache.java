@@ -0,0 +1,139 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import io.netty.handler.ssl.IdentityCipherSuiteFilter;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslProvider;
+
+import javax.net.ssl.SSLException;
+import java.io.File;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds SSL contexts once per distinct configuration, rather than on
+ * every connection, and shares them between reconnects and between the
+ * clients of a {@link ClientManager}. A shared context also shares its
+ * session cache, letting reconnecting clients resume earlier sessions
+ * rather than performing full handshakes.
+ * <p>
+ * A resumed session skips the certificate check, so sessions are only
+ * shared between clients which trust each other's decisions: those of one
+ * manager, or otherwise a single client.
+ * <p>
+ * Key files are read once. A context is rebuilt should either file be
+ * modified.
+ */
+final class SslContextCache {
+    private static final class Key {
+        private final SslProvider provider;
+        private final File keyCertChain;
+        private final long keyCertChainModified;
+        private final File key;
+        private final long keyModified;
+        private final String keyPassword;
+        private final Object owner; // Client or manager the context is kept for
+
+        private Key(SslProvider provider, File keyCertChain, File key, String keyPassword, Object owner) {
+            this.provider = provider;
+            this.keyCertChain = keyCertChain;
+            this.keyCertChainModified = keyCertChain == null ? 0 : keyCertChain.lastModified();
+            this.key = key;
+            this.keyModified = key == null ? 0 : key.lastModified();
+            this.keyPassword = keyPassword;
+            this.owner = owner;
+        }
+
+        private boolean isSameFiles(Key other) {
+            return this.provider == other.provider && this.owner == other.owner && Objects.equals(this.keyCertChain, other.keyCertChain) && Objects.equals(this.key, other.key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.isSameFiles(other) && this.keyCertChainModified == other.keyCertChainModified && this.keyModified == other.keyModified && Objects.equals(this.keyPassword, other.keyPassword);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.provider, this.keyCertChain, this.keyCertChainModified, this.key, this.keyModified, this.keyPassword, this.owner);
+        }
+    }
+
+    private static final Map<Key, SslContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private SslContextCache() {
+    }
+
+    /**
+     * Gets the context for a client's configuration.
+     * <p>
+     * JDK contexts are shared between a manager's clients with the same
+     * keys, with each handler's engine registered with
+     * {@link NettyTrustManagerFactory#SHARED}. OpenSSL doesn't tell the
+     * trust manager which engine is handshaking, so its contexts are kept
+     * per client.
+     *
+     * @param client client
+     * @return SSL context
+     * @throws SSLException if the context could not be built
+     */
+    static SslContext get(IRCClient client) throws SSLException {
+        File keyCertChain = client.getConfig().get(Config.SSL_KEY_CERT_CHAIN);
+        File keyFile = client.getConfig().get(Config.SSL_KEY);
+        String keyPassword = client.getConfig().get(Config.SSL_KEY_PASSWORD);
+        // Netty's OpenSSL client context doesn't support client certificates
+        boolean openSsl = client.getConfig().get(Config.SSL_OPENSSL) && keyCertChain == null && OpenSsl.isAvailable();
+        ClientManager manager = client.getConfig().get(Config.MANAGER);
+        Object owner = (openSsl || manager == null) ? client : manager;
+        Key key = new Key(openSsl ? SslProvider.OPENSSL : SslProvider.JDK, keyCertChain, keyFile, keyPassword, owner);
+        SslContext context = CONTEXTS.get(key);
+        if (context == null) {
+            NettyTrustManagerFactory trust = owner == client ? new NettyTrustManagerFactory(client) : NettyTrustManagerFactory.SHARED;
+            context = SslContext.newClientContext(key.provider, null, trust, keyCertChain, keyFile, keyPassword, null, null, IdentityCipherSuiteFilter.INSTANCE, null, 0, 0);
+            CONTEXTS.keySet().removeIf(other -> other.isSameFiles(key)); // Outdated by modified files
+            SslContext existing = CONTEXTS.putIfAbsent(key, context);
+            if (existing != null) {
+                context = existing;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Forgets any contexts kept for a client or manager, once it's shut
+     * down.
+     *
+     * @param owner client or manager
+     */
+    static void release(Object owner) {
+        CONTEXTS.keySet().removeIf(key -> key.owner == owner);
+    }
+}
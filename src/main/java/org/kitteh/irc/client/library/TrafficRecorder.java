@@ -0,0 +1,202 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import org.kitteh.irc.client.library.util.QueueProcessingThread;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+
+/**
+ * Appends received lines to a recording, on its own thread so the event
+ * loop never waits on the disk.
+ * <p>
+ * A recording starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * records. Each time a recorder opens the file it appends a session record:
+ * a zero length followed by the wall clock time in milliseconds. A line
+ * record is its UTF-8 length, the microseconds since the previous record
+ * and then the line. Lengths and times are unsigned variable length
+ * integers, seven bits per byte, so a typical line costs two or three bytes
+ * on top of its content.
+ */
+final class TrafficRecorder {
+    static final int MAGIC = 0x4B495254; // KIRT
+    static final int VERSION = 1;
+
+    private static final class Record {
+        private final String line;
+        private final long time = System.nanoTime();
+
+        private Record(String line) {
+            this.line = line;
+        }
+    }
+
+    private class RecorderThread extends QueueProcessingThread<Record> {
+        private RecorderThread() {
+            super("Kitteh IRC Client Traffic Recorder (" + TrafficRecorder.this.client.getName() + ")");
+        }
+
+        @Override
+        protected void processElement(Record element) {
+            TrafficRecorder.this.write(element);
+            if (this.getQueueSize() == 0) {
+                TrafficRecorder.this.flush();
+            }
+        }
+
+        @Override
+        protected void cleanup(Queue<Record> remainingQueue) {
+            while (!remainingQueue.isEmpty()) {
+                TrafficRecorder.this.write(remainingQueue.poll());
+            }
+            TrafficRecorder.this.close();
+        }
+    }
+
+    private final IRCClient client;
+    private final DataOutputStream out;
+    private final RecorderThread thread;
+    private long lastTime = System.nanoTime();
+    private boolean failed;
+
+    /**
+     * Opens a recording for appending, writing the header if it's new.
+     *
+     * @param client client being recorded
+     * @param file recording file
+     * @throws IOException if the file cannot be opened
+     */
+    TrafficRecorder(IRCClient client, File file) throws IOException {
+        this.client = client;
+        boolean fresh = file.length() == 0;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (fresh) {
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+        writeVarLong(this.out, 0);
+        this.out.writeLong(System.currentTimeMillis());
+        this.out.flush();
+        this.thread = new RecorderThread();
+    }
+
+    /**
+     * Queues a line for recording, stamped with the current time.
+     *
+     * @param line received line
+     */
+    void record(String line) {
+        this.thread.queue(new Record(line));
+    }
+
+    /**
+     * Records anything still queued and closes the file.
+     */
+    void shutdown() {
+        this.thread.interrupt();
+    }
+
+    /**
+     * Waits for the recorder to finish after {@link #shutdown()}.
+     *
+     * @param timeout maximum milliseconds to wait
+     * @return true if the file has been closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitShutdown(long timeout) throws InterruptedException {
+        this.thread.join(timeout);
+        return !this.thread.isAlive();
+    }
+
+    private void write(Record record) {
+        if (this.failed) {
+            return;
+        }
+        byte[] bytes = record.line.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) {
+            return;
+        }
+        try {
+            writeVarLong(this.out, bytes.length);
+            writeVarLong(this.out, Math.max(0, (record.time - this.lastTime) / 1000));
+            this.out.write(bytes);
+            this.lastTime = record.time;
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    private void flush() {
+        if (!this.failed) {
+            try {
+                this.out.flush();
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+    }
+
+    private void close() {
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            if (!this.failed) {
+                this.client.getExceptionListener().queue(e);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        this.failed = true; // Stop recording rather than writing a corrupt file
+        this.client.getExceptionListener().queue(e);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import org.kitteh.irc.client.library.util.Sanity;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Plays a recording made with {@link ClientBuilder#recordInput(File)} back
+ * through a client, for benchmarking real traffic or reproducing state
+ * tracking problems.
+ * <p>
+ * Lines are queued for the client's input processor, as received lines
+ * are, so state and events follow the recording deterministically and in
+ * order with anything else the client receives. The client is connected to
+ * an in-process server which records whatever the client sends, answering
+ * only pings, so no socket is opened.
+ * <p>
+ * Individual lines can be handled with {@link #handle(String...)}, and what
+ * the client sent in response checked with {@link #getSent()}, which
+ * includes everything sent so far, or {@link #awaitSent(Predicate, long)}.
+ * <pre>
+ * try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+ *     replay.getClient().getEventManager().registerEventListener(listener);
+ *     replay.replay(recording, TrafficReplay.Speed.MAXIMUM);
+ * }
+ * </pre>
+ */
+public final class TrafficReplay implements AutoCloseable {
+    /**
+     * Pace of playback.
+     */
+    public enum Speed {
+        /**
+         * Lines are handled at the intervals they were received, with
+         * each recorded session following straight after the previous.
+         */
+        ORIGINAL,
+        /**
+         * Lines are handled as fast as the client can process them.
+         */
+        MAXIMUM
+    }
+
+    private static final String SERVER_NAME = "replay.local";
+    /**
+     * Ping sent by {@link #getSent()}, numbered, which the server neither
+     * records nor answers.
+     */
+    private static final String MARKER = "PING :" + SERVER_NAME + "-sent-";
+    /**
+     * Maximum wait in milliseconds for {@link #getSent()}.
+     */
+    private static final long SENT_TIMEOUT = 5000;
+    /**
+     * Lines queued between waits for the client to catch up, so a large
+     * recording played at maximum speed isn't queued all at once.
+     */
+    private static final int BATCH = 1024;
+
+    private final EventLoopGroup group = new LocalEventLoopGroup(1);
+    private final Channel server;
+    private final IRCClient client;
+    private final List<String> sent = new ArrayList<>(); // Guarded by itself, as are the markers
+    private long markersSent;
+    private long markersReceived;
+
+    /**
+     * Creates a client for playback. The builder's server and bind
+     * settings are ignored, as is {@link ClientBuilder#recordInput(File)}.
+     *
+     * @param builder builder for the client
+     */
+    public TrafficReplay(ClientBuilder builder) {
+        Sanity.nullCheck(builder, "Builder cannot be null");
+        this.server = new ServerBootstrap().group(this.group).channel(LocalServerChannel.class).childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) throws Exception {
+                channel.pipeline().addLast(new LineBasedFrameDecoder(Short.MAX_VALUE), new StringDecoder(CharsetUtil.UTF_8), new StringEncoder(CharsetUtil.UTF_8));
+                channel.pipeline().addLast(new SimpleChannelInboundHandler<String>() {
+                    @Override
+                    protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
+                        synchronized (TrafficReplay.this.sent) {
+                            if (msg.startsWith(MARKER)) {
+                                TrafficReplay.this.markersReceived = Long.parseLong(msg.substring(MARKER.length()));
+                            } else {
+                                TrafficReplay.this.sent.add(msg);
+                            }
+                            TrafficReplay.this.sent.notifyAll();
+                        }
+                        if (msg.startsWith("PING ") && !msg.startsWith(MARKER)) { // Keep the client's idle timeout happy during slow playback
+                            ctx.writeAndFlush(':' + SERVER_NAME + " PONG " + SERVER_NAME + ' ' + msg.substring(5) + "\r\n");
+                        }
+                    }
+                });
+            }
+        }).bind(LocalAddress.ANY).syncUninterruptibly().channel();
+        ClientBuilder replayBuilder = builder.clone();
+        replayBuilder.recordInput(null);
+        this.client = replayBuilder.build(this.server.localAddress());
+    }
+
+    /**
+     * Gets the client receiving the replayed lines. Register listeners
+     * before calling {@link #replay(File, Speed)}.
+     *
+     * @return the client
+     */
+    public Client getClient() {
+        return this.client;
+    }
+
+    /**
+     * Plays a recording through the client, returning once every line has
+     * been handled. May be called repeatedly, with state carrying over
+     * between recordings.
+     *
+     * @param recording recorded traffic
+     * @param speed pace of playback
+     * @return number of lines handled
+     * @throws IOException if the recording cannot be read or is malformed
+     * @throws InterruptedException if interrupted while waiting to handle a
+     * line at the original pace
+     */
+    public int replay(File recording, Speed speed) throws IOException, InterruptedException {
+        Sanity.nullCheck(recording, "Recording cannot be null");
+        Sanity.nullCheck(speed, "Speed cannot be null");
+        int lines = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(recording)))) {
+            if (in.readInt() != TrafficRecorder.MAGIC) {
+                throw new IOException("Not a traffic recording: " + recording);
+            }
+            int version = in.readUnsignedByte();
+            if (version != TrafficRecorder.VERSION) {
+                throw new IOException("Unsupported recording version " + version);
+            }
+            final long start = System.nanoTime();
+            long elapsed = 0; // Microseconds of recording played
+            byte[] buffer = new byte[1024];
+            CompletableFuture<Void> handled = CompletableFuture.completedFuture(null);
+            while (true) {
+                final long length;
+                try {
+                    length = TrafficRecorder.readVarLong(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length == 0) { // Session start
+                    in.readLong();
+                    continue;
+                }
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Malformed recording, line of " + length + " bytes");
+                }
+                elapsed += TrafficRecorder.readVarLong(in);
+                if (buffer.length < length) {
+                    buffer = new byte[(int) length];
+                }
+                in.readFully(buffer, 0, (int) length);
+                if (speed == Speed.ORIGINAL) {
+                    long wait = start + TimeUnit.MICROSECONDS.toNanos(elapsed) - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                this.client.queueInput(new String(buffer, 0, (int) length, StandardCharsets.UTF_8));
+                if (++lines % BATCH == 0) {
+                    handled.join();
+                    handled = this.client.whenInputHandled();
+                }
+            }
+        }
+        this.client.whenInputHandled().join();
+        return lines;
+    }
+
+    /**
+     * Handles lines as if received from the server, returning once every
+     * line has been handled.
+     *
+     * @param lines lines to handle
+     */
+    public void handle(String... lines) {
+        Sanity.nullCheck(lines, "Lines cannot be null");
+        for (String line : lines) {
+            Sanity.nullCheck(line, "Lines cannot be null");
+            this.client.queueInput(line);
+        }
+        this.client.whenInputHandled().join();
+    }
+
+    /**
+     * Completes registration, as the server would once the client has
+     * connected, so the client starts sending queued lines.
+     *
+     * @param iSupport ISUPPORT tokens sent alongside PREFIX and CHANTYPES
+     */
+    public void register(String... iSupport) {
+        Sanity.nullCheck(iSupport, "ISUPPORT tokens cannot be null");
+        String prefix = ':' + SERVER_NAME + ' ';
+        String nick = this.client.getIntendedNick();
+        StringBuilder tokens = new StringBuilder("PREFIX=(ov)@+ CHANTYPES=#");
+        for (String token : iSupport) {
+            tokens.append(' ').append(token);
+        }
+        this.handle(prefix + "001 " + nick + " :Welcome",
+                prefix + "004 " + nick + ' ' + SERVER_NAME + " replay iow biklmnopstv",
+                prefix + "005 " + nick + ' ' + tokens + " :are supported by this server");
+    }
+
+    /**
+     * Gets every line the client has sent so far, once lines handled and
+     * queued for sending before this call have reached the server. Lines
+     * only held until registration, or not sent within five seconds, are
+     * missing, so the absence of a response can be checked without
+     * waiting out a timeout.
+     *
+     * @return sent lines in order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<String> getSent() throws InterruptedException {
+        this.client.whenInputHandled().join();
+        long end = System.currentTimeMillis() + SENT_TIMEOUT;
+        while (this.client.getOutputQueueSize() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        synchronized (this.sent) {
+            // Written after everything already sent or dequeued, so it arrives last
+            long marker = ++this.markersSent;
+            this.client.sendRawLineImmediately(MARKER + marker);
+            long wait;
+            while (this.markersReceived < marker && (wait = end - System.currentTimeMillis()) > 0) {
+                this.sent.wait(wait);
+            }
+            return new ArrayList<>(this.sent);
+        }
+    }
+
+    /**
+     * Waits for the client to send a matching line.
+     *
+     * @param filter condition on the line
+     * @param timeout maximum wait in milliseconds
+     * @return the first matching line, or null if none was sent in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public String awaitSent(Predicate<String> filter, long timeout) throws InterruptedException {
+        Sanity.nullCheck(filter, "Filter cannot be null");
+        long end = System.currentTimeMillis() + timeout;
+        int checked = 0;
+        synchronized (this.sent) {
+            while (true) {
+                for (; checked < this.sent.size(); checked++) {
+                    if (filter.test(this.sent.get(checked))) {
+                        return this.sent.get(checked);
+                    }
+                }
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return null;
+                }
+                this.sent.wait(wait);
+            }
+        }
+    }
+
+    /**
+     * Shuts down the client and the in-process server.
+     */
+    @Override
+    public void close() {
+        this.client.shutdown(null);
+        this.server.close().syncUninterruptibly();
+        this.group.shutdownGracefully();
+    }
+}
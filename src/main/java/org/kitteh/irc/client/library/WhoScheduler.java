@@ -0,0 +1,182 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Schedules WHO requests for channel user lists.
+ * <p>
+ * Requests are deduplicated per channel and only one WHO is outstanding at
+ * a time, so a large join burst cannot fill the send queue ahead of other
+ * output. Where the server allows multiple WHO targets, pending channels
+ * are combined into one request, which is complete once the server has
+ * ended the reply for every target, whether together or one by one.
+ * Channels whose snapshots are requested while incomplete jump the queue.
+ */
+final class WhoScheduler {
+    /**
+     * How long to wait for the end of a WHO reply before giving up on it.
+     */
+    private static final long TIMEOUT = 30000;
+    /**
+     * Combined targets are kept well within the line limit.
+     */
+    private static final int MAX_TARGET_LENGTH = 400;
+
+    private final IRCClient client;
+    private final long timeout;
+    private final Map<String, String> priority = new LinkedHashMap<>();
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private ScheduledFuture<?> timeoutTask;
+    private int sent;
+
+    WhoScheduler(IRCClient client) {
+        this(client, TIMEOUT);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param client client to send requests for
+     * @param timeout milliseconds to wait for the end of a reply
+     */
+    WhoScheduler(IRCClient client, long timeout) {
+        this.client = client;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Cancels any pending request for a channel.
+     *
+     * @param channel channel name
+     */
+    synchronized void cancel(String channel) {
+        String key = this.toLowerCase(channel);
+        this.priority.remove(key);
+        this.pending.remove(key);
+    }
+
+    /**
+     * Marks the targets of an ended WHO reply as complete, sending the next
+     * pending request once none of the outstanding request remain.
+     *
+     * @param target the target of the ended reply, possibly comma
+     * separated
+     */
+    synchronized void complete(String target) {
+        boolean completed = false;
+        for (String part : target.split(",")) {
+            completed |= this.inFlight.remove(this.toLowerCase(part));
+        }
+        if (completed && this.inFlight.isEmpty()) {
+            this.cancelTimeout();
+            this.sendNext();
+        }
+    }
+
+    /**
+     * Requests a WHO for a channel.
+     *
+     * @param channel channel name
+     * @param priority true to place ahead of other pending requests
+     */
+    synchronized void request(String channel, boolean priority) {
+        String key = this.toLowerCase(channel);
+        if (this.inFlight.contains(key)) {
+            return;
+        }
+        if (priority) {
+            this.pending.remove(key);
+            this.priority.putIfAbsent(key, channel);
+        } else if (!this.priority.containsKey(key)) {
+            this.pending.putIfAbsent(key, channel);
+        }
+        this.sendNext();
+    }
+
+    /**
+     * Forgets all requests, for a new connection.
+     */
+    synchronized void reset() {
+        this.priority.clear();
+        this.pending.clear();
+        this.inFlight.clear();
+        this.cancelTimeout();
+    }
+
+    private synchronized void timedOut(int request) {
+        if (request == this.sent && !this.inFlight.isEmpty()) {
+            this.inFlight.clear(); // Never heard back, move along
+            this.timeoutTask = null;
+            this.sendNext();
+        }
+    }
+
+    private void cancelTimeout() {
+        if (this.timeoutTask != null) {
+            this.timeoutTask.cancel(false);
+            this.timeoutTask = null;
+        }
+    }
+
+    private void sendNext() {
+        if (!this.inFlight.isEmpty() || (this.priority.isEmpty() && this.pending.isEmpty())) {
+            return;
+        }
+        int limit = this.client.getServerInfo().getWhoTargetLimit();
+        StringBuilder target = new StringBuilder();
+        this.addTargets(this.priority, target, limit);
+        this.addTargets(this.pending, target, limit);
+        int request = ++this.sent;
+        this.client.sendWho(target.toString());
+        this.timeoutTask = this.client.schedule(() -> this.timedOut(request), this.timeout);
+    }
+
+    private void addTargets(Map<String, String> channels, StringBuilder target, int limit) {
+        Iterator<Map.Entry<String, String>> iterator = channels.entrySet().iterator();
+        while (iterator.hasNext() && this.inFlight.size() < limit) {
+            Map.Entry<String, String> channel = iterator.next();
+            if (!this.inFlight.isEmpty()) {
+                if (target.length() + channel.getValue().length() + 1 > MAX_TARGET_LENGTH) {
+                    return;
+                }
+                target.append(',');
+            }
+            target.append(channel.getValue());
+            this.inFlight.add(channel.getKey());
+            iterator.remove();
+        }
+    }
+
+    private String toLowerCase(String name) {
+        return this.client.getServerInfo().getCaseMapping().toLowerCase(name);
+    }
+}
@@ -82,7 +82,8 @@ public interface Channel extends MessageReceiver {
 
     /**
      * Gets if this Channel has complete user data available, only possible
-     * if the Client is in the channel and the WHO list has sent.
+     * if the Client is in the channel and the WHO list has sent (or the
+     * NAMES list, if the server includes full user information in it).
      *
      * @return true if Client is in channel and WHO has finished
      * @see ChannelUsersUpdatedEvent
@@ -29,6 +29,13 @@ import java.util.Set;
  * Represents an IRC user.
  */
 public interface User extends MessageReceiver {
+    /**
+     * Gets the services account the user is logged into, if known.
+     *
+     * @return account name or null if unknown or not logged in
+     */
+    String getAccount();
+
     /**
      * Gets the user'c channels.
      *
@@ -50,10 +57,24 @@ public interface User extends MessageReceiver {
      */
     String getNick();
 
+    /**
+     * Gets the user's realname, if known.
+     *
+     * @return realname or null if unknown
+     */
+    String getRealName();
+
     /**
      * Gets the user's user string.
      *
      * @return user
      */
     String getUser();
+
+    /**
+     * Gets if the user is known to be away.
+     *
+     * @return true if away
+     */
+    boolean isAway();
 }
\ No newline at end of file
@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.Actor;
 import org.kitteh.irc.client.library.element.Channel;
 
@@ -33,10 +34,16 @@ import org.kitteh.irc.client.library.element.Channel;
  */
 public abstract class ActorChannelMessageEvent<A extends Actor> extends ActorChannelEvent<A> {
     private final String message;
+    private final MessageTags tags;
 
     protected ActorChannelMessageEvent(Client client, A actor, Channel channel, String message) {
+        this(client, actor, channel, message, MessageTags.EMPTY);
+    }
+
+    protected ActorChannelMessageEvent(Client client, A actor, Channel channel, String message, MessageTags tags) {
         super(client, actor, channel);
         this.message = message;
+        this.tags = tags;
     }
 
     /**
@@ -47,4 +54,13 @@ public abstract class ActorChannelMessageEvent<A extends Actor> extends ActorCha
     public final String getMessage() {
         return this.message;
     }
+
+    /**
+     * Gets the IRCv3 message tags sent with the message.
+     *
+     * @return the tags, empty if none were sent
+     */
+    public final MessageTags getTags() {
+        return this.tags;
+    }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.Actor;
 
 /**
@@ -32,10 +33,16 @@ import org.kitteh.irc.client.library.element.Actor;
  */
 public abstract class ActorMessageEvent<A extends Actor> extends ActorEvent<A> {
     private final String message;
+    private final MessageTags tags;
 
     protected ActorMessageEvent(Client client, A actor, String message) {
+        this(client, actor, message, MessageTags.EMPTY);
+    }
+
+    protected ActorMessageEvent(Client client, A actor, String message, MessageTags tags) {
         super(client, actor);
         this.message = message;
+        this.tags = tags;
     }
 
     /**
@@ -46,4 +53,13 @@ public abstract class ActorMessageEvent<A extends Actor> extends ActorEvent<A> {
     public final String getMessage() {
         return this.message;
     }
+
+    /**
+     * Gets the IRCv3 message tags sent with the message.
+     *
+     * @return the tags, empty if none were sent
+     */
+    public final MessageTags getTags() {
+        return this.tags;
+    }
 }
\ No newline at end of file
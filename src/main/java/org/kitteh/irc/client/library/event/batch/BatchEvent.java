@@ -0,0 +1,122 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library.event.batch;
+
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.event.ClientEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fired when an IRCv3 batch has been fully received, before the lines
+ * within it are processed.
+ * <p>
+ * Netsplit and netjoin batches are processed in bulk by the client, see
+ * {@link NetsplitEvent} and {@link NetjoinEvent}. Lines of other batches
+ * are processed individually afterward unless disabled via {@link
+ * #setProcessingLines(boolean)}.
+ */
+public class BatchEvent extends ClientEvent {
+    private final List<String> lines;
+    private final List<String> parameters;
+    private boolean processingLines = true;
+    private final String referenceId;
+    private final String type;
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param referenceId the batch reference id
+     * @param type the batch type, such as netsplit or chathistory
+     * @param parameters parameters following the type
+     * @param lines raw lines in the batch, in order received
+     */
+    public BatchEvent(Client client, String referenceId, String type, List<String> parameters, List<String> lines) {
+        super(client);
+        this.referenceId = referenceId;
+        this.type = type;
+        this.parameters = Collections.unmodifiableList(parameters);
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Gets the raw lines in the batch, in order received, including their
+     * message tags.
+     *
+     * @return raw lines
+     */
+    public List<String> getLines() {
+        return this.lines;
+    }
+
+    /**
+     * Gets the parameters following the batch type.
+     *
+     * @return batch parameters
+     */
+    public List<String> getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Gets the batch reference id.
+     *
+     * @return reference id
+     */
+    public String getReferenceId() {
+        return this.referenceId;
+    }
+
+    /**
+     * Gets the batch type.
+     *
+     * @return batch type
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets if the client will process the lines of this batch individually
+     * after this event, firing the usual events for each.
+     *
+     * @return true if lines will be processed
+     */
+    public boolean isProcessingLines() {
+        return this.processingLines;
+    }
+
+    /**
+     * Sets if the client will process the lines of this batch individually
+     * after this event. Disabling this for large playback batches avoids an
+     * event per line, but no state will be updated from those lines.
+     *
+     * @param processingLines true if lines should be processed
+     */
+    public void setProcessingLines(boolean processingLines) {
+        this.processingLines = processingLines;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library.event.batch;
+
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.ClientEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A netsplit has healed and the users lost in it have rejoined at once.
+ * Fired once per batch instead of an event per user.
+ */
+public class NetjoinEvent extends ClientEvent {
+    private final List<String> servers;
+    private final List<User> users;
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param servers the servers involved, as sent by the server
+     * @param users users rejoining in the netjoin
+     */
+    public NetjoinEvent(Client client, List<String> servers, List<User> users) {
+        super(client);
+        this.servers = Collections.unmodifiableList(servers);
+        this.users = Collections.unmodifiableList(users);
+    }
+
+    /**
+     * Gets the servers involved, as sent by the server. Typically the two
+     * servers on either side of the split.
+     *
+     * @return server names
+     */
+    public List<String> getServers() {
+        return this.servers;
+    }
+
+    /**
+     * Gets the users rejoining.
+     *
+     * @return users
+     */
+    public List<User> getUsers() {
+        return this.users;
+    }
+}
@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event.channel;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.Channel;
 import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.event.ActorChannelMessageEvent;
@@ -41,6 +42,19 @@ public class ChannelMessageEvent extends ActorChannelMessageEvent<User> {
      * @param message message sent
      */
     public ChannelMessageEvent(Client client, User sender, Channel channel, String message) {
-        super(client, sender, channel, message);
+        this(client, sender, channel, message, MessageTags.EMPTY);
+    }
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param sender who sent it
+     * @param channel channel receiving
+     * @param message message sent
+     * @param tags message tags
+     */
+    public ChannelMessageEvent(Client client, User sender, Channel channel, String message, MessageTags tags) {
+        super(client, sender, channel, message, tags);
     }
 }
\ No newline at end of file
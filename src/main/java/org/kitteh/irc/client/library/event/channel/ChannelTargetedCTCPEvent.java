@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event.channel;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.Channel;
 import org.kitteh.irc.client.library.element.ChannelUserMode;
 import org.kitteh.irc.client.library.element.User;
@@ -47,7 +48,21 @@ public class ChannelTargetedCTCPEvent extends ActorChannelMessageEvent<User> {
      * @param message message sent
      */
     public ChannelTargetedCTCPEvent(Client client, User sender, Channel channel, ChannelUserMode prefix, String message) {
-        super(client, sender, channel, message);
+        this(client, sender, channel, prefix, message, MessageTags.EMPTY);
+    }
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param sender who sent it
+     * @param channel channel receiving
+     * @param prefix targeted prefix
+     * @param message message sent
+     * @param tags message tags
+     */
+    public ChannelTargetedCTCPEvent(Client client, User sender, Channel channel, ChannelUserMode prefix, String message, MessageTags tags) {
+        super(client, sender, channel, message, tags);
         this.prefix = prefix;
     }
 
@@ -28,7 +28,8 @@ import org.kitteh.irc.client.library.element.Channel;
 import org.kitteh.irc.client.library.event.ChannelEvent;
 
 /**
- * Called after completion of a WHO command.
+ * Called after completion of a WHO command, or of a NAMES list when the
+ * server sends full user information in NAMES (userhost-in-names).
  */
 public class ChannelUsersUpdatedEvent extends ChannelEvent {
     /**
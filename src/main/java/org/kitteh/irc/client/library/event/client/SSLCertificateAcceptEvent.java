@@ -34,6 +34,10 @@ import java.security.cert.X509Certificate;
  * Basically we're just letting you decide on {@link
  * X509TrustManager#checkServerTrusted}. Instead of throwing an exception,
  * just use {@link #setDenied} and one will be thrown for you.
+ * <p>
+ * Where the SSL provider allows, this fires off the event loop, with the
+ * connection held until it's decided. Accepted certificates are remembered,
+ * so this doesn't fire again for them.
  */
 public class SSLCertificateAcceptEvent extends ClientEvent {
     private final String authType;
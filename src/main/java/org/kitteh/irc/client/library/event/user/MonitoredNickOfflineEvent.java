@@ -0,0 +1,55 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library.event.user;
+
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.PresenceTracker;
+import org.kitteh.irc.client.library.event.ClientEvent;
+
+/**
+ * A nick tracked by the {@link PresenceTracker} has gone offline.
+ */
+public class MonitoredNickOfflineEvent extends ClientEvent {
+    private final String nick;
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param nick nick which is now offline
+     */
+    public MonitoredNickOfflineEvent(Client client, String nick) {
+        super(client);
+        this.nick = nick;
+    }
+
+    /**
+     * Gets the nick which is now offline.
+     *
+     * @return the nick, as given to the tracker
+     */
+    public String getNick() {
+        return this.nick;
+    }
+}
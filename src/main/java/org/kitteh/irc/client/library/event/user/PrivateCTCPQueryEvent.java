@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event.user;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.event.ActorMessageEvent;
 
@@ -47,7 +48,20 @@ public class PrivateCTCPQueryEvent extends ActorMessageEvent<User> {
      * @param reply reply to be sent, if any
      */
     public PrivateCTCPQueryEvent(Client client, User sender, String message, String reply) {
-        super(client, sender, message);
+        this(client, sender, message, reply, MessageTags.EMPTY);
+    }
+
+    /**
+     * Creates the event
+     *
+     * @param client client for which this is occurring
+     * @param sender sender of the query
+     * @param message message sent
+     * @param reply reply to be sent, if any
+     * @param tags message tags
+     */
+    public PrivateCTCPQueryEvent(Client client, User sender, String message, String reply, MessageTags tags) {
+        super(client, sender, message, tags);
         this.reply = reply;
     }
 
@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event.user;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.event.ActorMessageEvent;
 
@@ -40,6 +41,18 @@ public class PrivateCTCPReplyEvent extends ActorMessageEvent<User> {
      * @param message message sent
      */
     public PrivateCTCPReplyEvent(Client client, User sender, String message) {
-        super(client, sender, message);
+        this(client, sender, message, MessageTags.EMPTY);
+    }
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param sender sender of the reply
+     * @param message message sent
+     * @param tags message tags
+     */
+    public PrivateCTCPReplyEvent(Client client, User sender, String message, MessageTags tags) {
+        super(client, sender, message, tags);
     }
 }
\ No newline at end of file
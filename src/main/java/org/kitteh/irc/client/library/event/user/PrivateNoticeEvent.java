@@ -24,6 +24,7 @@
 package org.kitteh.irc.client.library.event.user;
 
 import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.MessageTags;
 import org.kitteh.irc.client.library.element.User;
 import org.kitteh.irc.client.library.event.ActorMessageEvent;
 
@@ -39,6 +40,18 @@ public class PrivateNoticeEvent extends ActorMessageEvent<User> {
      * @param sender who sent it
      */
     public PrivateNoticeEvent(Client client, User sender, String message) {
-        super(client, sender, message);
+        this(client, sender, message, MessageTags.EMPTY);
+    }
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param message message sent
+     * @param sender who sent it
+     * @param tags message tags
+     */
+    public PrivateNoticeEvent(Client client, User sender, String message, MessageTags tags) {
+        super(client, sender, message, tags);
     }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library.event.user;
+
+import org.kitteh.irc.client.library.Client;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.ActorEvent;
+
+/**
+ * A {@link User} has gone away or returned. Requires the server to support
+ * away-notify.
+ */
+public class UserAwayMessageEvent extends ActorEvent<User> {
+    private final String awayMessage;
+
+    /**
+     * Creates the event.
+     *
+     * @param client client for which this is occurring
+     * @param user user whose away status changed
+     * @param awayMessage away message, or null if no longer away
+     */
+    public UserAwayMessageEvent(Client client, User user, String awayMessage) {
+        super(client, user);
+        this.awayMessage = awayMessage;
+    }
+
+    /**
+     * Gets the away message.
+     *
+     * @return the away message, or null if the user has returned
+     */
+    public String getAwayMessage() {
+        return this.awayMessage;
+    }
+
+    /**
+     * Gets if the user is now away.
+     *
+     * @return true if away
+     */
+    public boolean isAway() {
+        return this.awayMessage != null;
+    }
+}
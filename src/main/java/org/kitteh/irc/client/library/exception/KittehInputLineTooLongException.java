@@ -0,0 +1,58 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library.exception;
+
+/**
+ * Fired when an incoming line exceeds the maximum line length and is
+ * dropped without being processed.
+ */
+public class KittehInputLineTooLongException extends Exception {
+    private final int length;
+    private final long droppedLines;
+
+    public KittehInputLineTooLongException(int length, long droppedLines) {
+        super("Dropped an incoming line of " + length + " bytes (" + droppedLines + " dropped on this connection)");
+        this.length = length;
+        this.droppedLines = droppedLines;
+    }
+
+    /**
+     * Gets the number of lines dropped so far on this connection, including
+     * this one.
+     *
+     * @return dropped line count
+     */
+    public long getDroppedLines() {
+        return this.droppedLines;
+    }
+
+    /**
+     * Gets the length of the dropped line, in bytes.
+     *
+     * @return line length
+     */
+    public int getLength() {
+        return this.length;
+    }
+}
@@ -25,12 +25,14 @@ package org.kitteh.irc.client.library.util;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Self starting processor of queued items on its own thread.
  */
 public abstract class QueueProcessingThread<Type> extends Thread {
     private final Queue<Type> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger(); // ConcurrentLinkedQueue's size() walks the queue
 
     /**
      * Creates a thread and starts itself.
@@ -55,6 +57,7 @@ public abstract class QueueProcessingThread<Type> extends Thread {
                     }
                 }
             }
+            this.queueSize.decrementAndGet();
             this.processElement(this.queue.poll());
         }
         this.interrupt();
@@ -77,6 +80,15 @@ public abstract class QueueProcessingThread<Type> extends Thread {
      */
     protected abstract void processElement(Type element);
 
+    /**
+     * Gets the number of items waiting to be processed.
+     *
+     * @return queue size
+     */
+    public int getQueueSize() {
+        return this.queueSize.get();
+    }
+
     /**
      * Queues an item.
      *
@@ -85,6 +97,7 @@ public abstract class QueueProcessingThread<Type> extends Thread {
     public void queue(Type item) {
         synchronized (this.queue) {
             this.queue.add(item);
+            this.queueSize.incrementAndGet();
             this.queue.notify();
         }
     }
@@ -0,0 +1,322 @@
+/*
+ * * Copyright (C) 2013-2015 Matt Baxter http://kitteh.org
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.kitteh.irc.client.library;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.event.ActorChannelEvent;
+import org.kitteh.irc.client.library.event.ChannelEvent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flight Recorder event types. Compiled separately from the rest of the
+ * library, by the jfr profile, and only loaded by name from
+ * {@link FlightRecorderSupport} once the jdk.jfr API is known to be present.
+ * <p>
+ * The per-line and per-event types carry a threshold or are disabled by
+ * default, so a continuous recording only keeps the slow ones. Enable them
+ * or lower the thresholds in a recording settings file for a full trace.
+ */
+final class FlightRecorderEvents implements FlightRecorderSupport.Recorder {
+    @Name("org.kitteh.irc.LineReceived")
+    @Label("Line Received")
+    @Description("A line split from the server's input")
+    @Category({"Kitteh IRC Client Library", "Input"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class LineReceived extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Length")
+        @DataAmount
+        int length;
+    }
+
+    @Name("org.kitteh.irc.LineParsed")
+    @Label("Line Parsed")
+    @Description("Parsing of a line into tags, actor, command and arguments")
+    @Category({"Kitteh IRC Client Library", "Input"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class LineParsed extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Command")
+        String command;
+
+        @Label("Target")
+        String target;
+    }
+
+    @Name("org.kitteh.irc.EventDispatched")
+    @Label("Event Dispatched")
+    @Description("Publication of an event to all of its handlers")
+    @Category({"Kitteh IRC Client Library", "Events"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class EventDispatched extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Event Type")
+        Class<?> eventType;
+
+        @Label("Channel")
+        String channel;
+    }
+
+    @Name("org.kitteh.irc.HandlerCompleted")
+    @Label("Handler Completed")
+    @Description("A single listener method handling an event")
+    @Category({"Kitteh IRC Client Library", "Events"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class HandlerCompleted extends Event {
+        @Label("Listener")
+        Class<?> listener;
+
+        @Label("Method")
+        String method;
+
+        @Label("Event Type")
+        Class<?> eventType;
+    }
+
+    @Name("org.kitteh.irc.MessageQueued")
+    @Label("Message Queued")
+    @Description("A message added to the rate limited output queue")
+    @Category({"Kitteh IRC Client Library", "Output"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class MessageQueued extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Queue Size")
+        int queueSize;
+    }
+
+    @Name("org.kitteh.irc.MessageFlushed")
+    @Label("Message Flushed")
+    @Description("A message written and flushed to the socket")
+    @Category({"Kitteh IRC Client Library", "Output"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class MessageFlushed extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Queue Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueWait;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("org.kitteh.irc.Reconnect")
+    @Label("Reconnect")
+    @Description("A reconnect scheduled after the connection closed")
+    @Category({"Kitteh IRC Client Library", "Connection"})
+    @StackTrace(false)
+    static final class Reconnect extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Delay")
+        @Timespan(Timespan.MILLISECONDS)
+        long delay;
+    }
+
+    @Name("org.kitteh.irc.SslHandshake")
+    @Label("SSL Handshake")
+    @Description("A TLS handshake with the server")
+    @Category({"Kitteh IRC Client Library", "Connection"})
+    @StackTrace(false)
+    static final class SslHandshake extends Event {
+        @Label("Client")
+        String client;
+
+        @Label("Success")
+        boolean success;
+
+        @Label("Protocol")
+        String protocol;
+
+        @Label("Cipher Suite")
+        String cipherSuite;
+    }
+
+    // Never committed, only asked whether a type is enabled before allocating
+    private static final LineReceived LINE_RECEIVED = new LineReceived();
+    private static final LineParsed LINE_PARSED = new LineParsed();
+    private static final EventDispatched EVENT_DISPATCHED = new EventDispatched();
+    private static final HandlerCompleted HANDLER_COMPLETED = new HandlerCompleted();
+    private static final MessageQueued MESSAGE_QUEUED = new MessageQueued();
+    private static final MessageFlushed MESSAGE_FLUSHED = new MessageFlushed();
+    private static final Reconnect RECONNECT = new Reconnect();
+    private static final SslHandshake SSL_HANDSHAKE = new SslHandshake();
+
+    @Override
+    public void lineReceived(IRCClient client, int length) {
+        if (LINE_RECEIVED.isEnabled()) {
+            LineReceived event = new LineReceived();
+            event.client = client.getName();
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginLineParsed() {
+        return begin(LINE_PARSED.isEnabled() ? new LineParsed() : null);
+    }
+
+    @Override
+    public void commitLineParsed(Object begun, IRCClient client, String command, String[] args) {
+        LineParsed event = (LineParsed) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.client = client.getName();
+            event.command = command;
+            event.target = (args.length > 0) ? args[0] : null;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginEventDispatched() {
+        return begin(EVENT_DISPATCHED.isEnabled() ? new EventDispatched() : null);
+    }
+
+    @Override
+    public void commitEventDispatched(Object begun, IRCClient client, Object dispatched) {
+        EventDispatched event = (EventDispatched) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.client = client.getName();
+            event.eventType = dispatched.getClass();
+            Channel channel = null;
+            if (dispatched instanceof ChannelEvent) {
+                channel = ((ChannelEvent) dispatched).getChannel();
+            } else if (dispatched instanceof ActorChannelEvent) {
+                channel = ((ActorChannelEvent<?>) dispatched).getChannel();
+            }
+            event.channel = (channel == null) ? null : channel.getName();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginHandlerCompleted() {
+        return begin(HANDLER_COMPLETED.isEnabled() ? new HandlerCompleted() : null);
+    }
+
+    @Override
+    public void commitHandlerCompleted(Object begun, Method method, Object dispatched) {
+        HandlerCompleted event = (HandlerCompleted) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.listener = method.getDeclaringClass();
+            event.method = method.getName();
+            event.eventType = dispatched.getClass();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void messageQueued(IRCClient client, int queueSize) {
+        if (MESSAGE_QUEUED.isEnabled()) {
+            MessageQueued event = new MessageQueued();
+            event.client = client.getName();
+            event.queueSize = queueSize;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginMessageFlushed() {
+        return begin(MESSAGE_FLUSHED.isEnabled() ? new MessageFlushed() : null);
+    }
+
+    @Override
+    public void commitMessageFlushed(Object begun, IRCClient client, long queueWait, boolean success) {
+        MessageFlushed event = (MessageFlushed) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.client = client.getName();
+            event.queueWait = queueWait;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void reconnect(IRCClient client, long delay, TimeUnit unit) {
+        if (RECONNECT.isEnabled()) {
+            Reconnect event = new Reconnect();
+            event.client = client.getName();
+            event.delay = unit.toMillis(delay);
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginSslHandshake() {
+        return begin(SSL_HANDSHAKE.isEnabled() ? new SslHandshake() : null);
+    }
+
+    @Override
+    public void commitSslHandshake(Object begun, IRCClient client, boolean success, String protocol, String cipherSuite) {
+        SslHandshake event = (SslHandshake) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.client = client.getName();
+            event.success = success;
+            event.protocol = protocol;
+            event.cipherSuite = cipherSuite;
+            event.commit();
+        }
+    }
+
+    private static Event begin(Event event) {
+        if (event != null) {
+            event.begin();
+        }
+        return event;
+    }
+}
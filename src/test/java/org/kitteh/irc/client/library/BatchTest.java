@@ -0,0 +1,188 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.batch.BatchEvent;
+import org.kitteh.irc.client.library.event.batch.NetjoinEvent;
+import org.kitteh.irc.client.library.event.batch.NetsplitEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.user.UserQuitEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Feed batches to a client and check how they are held and handled.
+ */
+public class BatchTest {
+    public static class Listener {
+        private final List<BatchEvent> batches = new CopyOnWriteArrayList<>();
+        private final List<NetsplitEvent> netsplits = new CopyOnWriteArrayList<>();
+        private final List<NetjoinEvent> netjoins = new CopyOnWriteArrayList<>();
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private final List<String> quits = new CopyOnWriteArrayList<>();
+        private boolean processingLines = true;
+
+        @Handler
+        public void batch(BatchEvent event) {
+            this.batches.add(event);
+            event.setProcessingLines(this.processingLines);
+        }
+
+        @Handler
+        public void netsplit(NetsplitEvent event) {
+            this.netsplits.add(event);
+        }
+
+        @Handler
+        public void netjoin(NetjoinEvent event) {
+            this.netjoins.add(event);
+        }
+
+        @Handler
+        public void message(ChannelMessageEvent event) {
+            this.messages.add(event.getMessage());
+        }
+
+        @Handler
+        public void quit(UserQuitEvent event) {
+            this.quits.add(event.getUser().getNick());
+        }
+    }
+
+    @Test
+    public void testBatchHeld() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":irc.test BATCH +abc example.com/test one two");
+            client.handleLine("@batch=abc :Cat!cat@host PRIVMSG #test :First");
+            client.handleLine("@batch=abc :Cat!cat@host PRIVMSG #test :Second");
+            Assert.assertTrue("Batched line handled before the batch ended", listener.messages.isEmpty());
+            client.handleLine(":irc.test BATCH -abc");
+            Assert.assertEquals(1, listener.batches.size());
+            BatchEvent event = listener.batches.get(0);
+            Assert.assertEquals("abc", event.getReferenceId());
+            Assert.assertEquals("example.com/test", event.getType());
+            Assert.assertEquals(Arrays.asList("one", "two"), event.getParameters());
+            Assert.assertEquals(2, event.getLines().size());
+            Assert.assertEquals(Arrays.asList("First", "Second"), listener.messages);
+        }
+    }
+
+    @Test
+    public void testNestedBatch() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":irc.test BATCH +outer example.com/outer");
+            client.handleLine("@batch=outer :Cat!cat@host PRIVMSG #test :First");
+            client.handleLine("@batch=outer :irc.test BATCH +inner example.com/inner");
+            client.handleLine("@batch=inner :Cat!cat@host PRIVMSG #test :Inner");
+            client.handleLine("@batch=outer :Cat!cat@host PRIVMSG #test :Second");
+            client.handleLine("@batch=outer :irc.test BATCH -inner");
+            Assert.assertTrue("Nested batch handled before its parent ended", listener.batches.isEmpty());
+            Assert.assertTrue(listener.messages.isEmpty());
+            client.handleLine(":irc.test BATCH -outer");
+            Assert.assertEquals(Arrays.asList("outer", "inner"), listener.batches.stream().map(BatchEvent::getReferenceId).collect(Collectors.toList()));
+            Assert.assertEquals(Arrays.asList("First", "Second", "Inner"), listener.messages);
+
+            client.handleLine("@batch=inner :Cat!cat@host PRIVMSG #test :After");
+            Assert.assertEquals("Line held by an ended batch", "After", listener.messages.get(3));
+        }
+    }
+
+    @Test
+    public void testBatchNotProcessed() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            listener.processingLines = false;
+            client.handleLine(":irc.test BATCH +abc example.com/test");
+            client.handleLine("@batch=abc :Cat!cat@host PRIVMSG #test :First");
+            client.handleLine(":irc.test BATCH -abc");
+            Assert.assertEquals(1, listener.batches.size());
+            Assert.assertTrue(listener.messages.isEmpty());
+        }
+    }
+
+    @Test
+    public void testBatchCapped() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":irc.test BATCH +abc example.com/test");
+            for (int i = 0; i < 10001; i++) {
+                client.handleLine("@batch=abc :Cat!cat@host PRIVMSG #test :Message " + i);
+            }
+            Assert.assertEquals("Unended batch not handled at the cap", 1, listener.batches.size());
+            Assert.assertEquals(10000, listener.batches.get(0).getLines().size());
+            Assert.assertEquals(10001, listener.messages.size());
+            client.handleLine(":irc.test BATCH -abc");
+            Assert.assertEquals(1, listener.batches.size());
+        }
+    }
+
+    @Test
+    public void testNetsplit() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":irc.test BATCH +split netsplit irc.hub other.host");
+            client.handleLine("@batch=split :Cat!cat@host QUIT :irc.hub other.host");
+            client.handleLine("@batch=split :Dog!dog@host QUIT :irc.hub other.host");
+            Assert.assertEquals(3, client.getChannel("#test").getUsers().size());
+            client.handleLine(":irc.test BATCH -split");
+            Assert.assertEquals(1, listener.netsplits.size());
+            NetsplitEvent event = listener.netsplits.get(0);
+            Assert.assertEquals(Arrays.asList("irc.hub", "other.host"), event.getServers());
+            Assert.assertEquals(Arrays.asList("Cat", "Dog"), event.getUsers().stream().map(User::getNick).collect(Collectors.toList()));
+            Assert.assertTrue("Netsplit quits sent one by one", listener.quits.isEmpty());
+            Assert.assertEquals(Arrays.asList("Kitteh"), client.getChannel("#test").getUsers().stream().map(User::getNick).collect(Collectors.toList()));
+            Assert.assertNull(client.getChannel("#other").getUser("Cat"));
+            Assert.assertNotNull(client.getChannel("#other").getUser("Kitteh"));
+        }
+    }
+
+    @Test
+    public void testNetjoin() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":irc.test BATCH +join netjoin irc.hub other.host");
+            client.handleLine("@batch=join :Cow!cow@host JOIN #test");
+            client.handleLine("@batch=join :Cow!cow@host JOIN #other");
+            client.handleLine("@batch=join :Pig!pig@host JOIN #test");
+            client.handleLine(":irc.test BATCH -join");
+            Assert.assertEquals(1, listener.netjoins.size());
+            NetjoinEvent event = listener.netjoins.get(0);
+            Assert.assertEquals(Arrays.asList("irc.hub", "other.host"), event.getServers());
+            Assert.assertEquals(Arrays.asList("Cow", "Pig"), event.getUsers().stream().map(User::getNick).collect(Collectors.toList()));
+            Assert.assertEquals("cow", client.getChannel("#test").getUser("Cow").getUser());
+            Assert.assertNotNull(client.getChannel("#test").getUser("Pig"));
+            Assert.assertNotNull(client.getChannel("#other").getUser("Cow"));
+        }
+    }
+
+    private IRCClient join(TrafficReplay replay) {
+        IRCClient client = (IRCClient) replay.getClient();
+        replay.register();
+        client.handleLine(":Kitteh!kitteh@test JOIN #test");
+        client.handleLine(":irc.test 353 Kitteh = #test :@Kitteh!kitteh@test Cat!cat@host Dog!dog@host");
+        client.handleLine(":irc.test 366 Kitteh #test :End of /NAMES list.");
+        client.handleLine(":Kitteh!kitteh@test JOIN #other");
+        client.handleLine(":irc.test 353 Kitteh = #other :Kitteh!kitteh@test Cat!cat@host");
+        client.handleLine(":irc.test 366 Kitteh #other :End of /NAMES list.");
+        return client;
+    }
+
+    private Listener listen(IRCClient client) {
+        Listener listener = new Listener();
+        client.getEventManager().registerEventListener(listener);
+        return listener;
+    }
+}
@@ -0,0 +1,41 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Make sure SASL responses are what the server expects.
+ */
+public class CapabilityManagerTest {
+    @Test
+    public void saslPlain() {
+        List<String> response = new CapabilityManager().getSaslResponse(AuthType.SASL_PLAIN, "kitteh", "meow");
+        Assert.assertEquals(1, response.size());
+        Assert.assertEquals("kitteh\0kitteh\0meow", new String(Base64.getDecoder().decode(response.get(0)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void saslPlainChunked() {
+        char[] pass = new char[298]; // 6 + 1 + 6 + 1 + 298 = 312 bytes, 416 base64 chars
+        Arrays.fill(pass, 'a');
+        List<String> response = new CapabilityManager().getSaslResponse(AuthType.SASL_PLAIN, "kitteh", new String(pass));
+        Assert.assertEquals(2, response.size());
+        Assert.assertEquals(400, response.get(0).length());
+        Assert.assertEquals(16, response.get(1).length());
+
+        char[] exact = new char[286]; // 300 bytes, exactly 400 base64 chars
+        Arrays.fill(exact, 'a');
+        response = new CapabilityManager().getSaslResponse(AuthType.SASL_PLAIN, "kitteh", new String(exact));
+        Assert.assertEquals(Arrays.asList("+"), response.subList(1, response.size()));
+    }
+
+    @Test
+    public void saslExternal() {
+        Assert.assertEquals(Arrays.asList("+"), new CapabilityManager().getSaslResponse(AuthType.SASL_EXTERNAL, "kitteh", ""));
+    }
+}
@@ -0,0 +1,131 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kitteh.irc.client.library.event.client.SSLCertificateAcceptEvent;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check accepted certificates are pinned, and denied ones keep the client
+ * from registering.
+ */
+public class CertificatePinsTest {
+    public static class Listener {
+        private final List<X509Certificate> checked = new CopyOnWriteArrayList<>();
+        private final boolean deny;
+
+        public Listener(boolean deny) {
+            this.deny = deny;
+        }
+
+        @Handler
+        public void certificate(SSLCertificateAcceptEvent event) {
+            this.checked.add(event.getChain()[0]);
+            event.setDenied(this.deny);
+        }
+    }
+
+    @ClassRule
+    public static final TemporaryFolder FOLDER = new TemporaryFolder();
+    private static SSLContext serverContext;
+
+    @BeforeClass
+    public static void createCertificate() throws Exception {
+        serverContext = FakeIRCServer.createSslContext(FOLDER.getRoot());
+    }
+
+    @Test
+    public void testPinned() throws Exception {
+        File trustFile = FOLDER.newFile();
+        File restoredFile = FOLDER.newFile();
+        Listener listener = new Listener(false);
+        // Separate managers, so sessions aren't resumed
+        try (FakeIRCServer server = new FakeIRCServer(serverContext); ClientManager firstManager = manager(listener);
+             ClientManager secondManager = manager(listener); ClientManager thirdManager = manager(listener)) {
+            server.clientBuilder().manager(firstManager).secure(true).secureTrustFile(trustFile).nick("First").connect().get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(1, listener.checked.size());
+            String pin = "127.0.0.1:" + server.getPort() + ' ' + CertificatePins.fingerprint(listener.checked.get(0));
+            Assert.assertEquals(Collections.singletonList(pin), Files.readAllLines(trustFile.toPath(), StandardCharsets.US_ASCII));
+
+            server.clientBuilder().manager(secondManager).secure(true).secureTrustFile(trustFile).nick("Second").connect().get(10, TimeUnit.SECONDS);
+            Assert.assertEquals("Pinned certificate checked again", 1, listener.checked.size());
+
+            Files.write(restoredFile.toPath(), Collections.singletonList("# Pinned earlier\n" + pin.toUpperCase()), StandardCharsets.US_ASCII);
+            server.clientBuilder().manager(thirdManager).secure(true).secureTrustFile(restoredFile).nick("Third").connect().get(10, TimeUnit.SECONDS);
+            Assert.assertEquals("Pin not loaded from file", 1, listener.checked.size());
+        }
+    }
+
+    @Test
+    public void testOtherServer() throws Exception {
+        File trustFile = FOLDER.newFile();
+        Listener listener = new Listener(false);
+        try (FakeIRCServer server = new FakeIRCServer(serverContext); FakeIRCServer other = new FakeIRCServer(serverContext);
+             ClientManager firstManager = manager(listener); ClientManager secondManager = manager(listener)) {
+            server.clientBuilder().manager(firstManager).secure(true).secureTrustFile(trustFile).nick("First").connect().get(10, TimeUnit.SECONDS);
+            other.clientBuilder().manager(secondManager).secure(true).secureTrustFile(trustFile).nick("Second").connect().get(10, TimeUnit.SECONDS);
+            Assert.assertEquals("Certificate pinned for one server trusted for another", 2, listener.checked.size());
+        }
+    }
+
+    @Test
+    public void testDeniedReconnect() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer(serverContext); ClientManager manager = new ClientManager(1, 1)) {
+            Listener listener = new Listener(true);
+            manager.registerEventListener(listener);
+            ReconnectPolicy policy = new ReconnectPolicy.Builder().initialDelay(100, TimeUnit.MILLISECONDS).maxDelay(100, TimeUnit.MILLISECONDS).jitter(false).maxAttempts(3).build();
+            Client client = server.clientBuilder().manager(manager).secure(true).reconnectPolicy(policy).listenException(exception -> {
+            }).nick("Denied").build();
+            try {
+                long end = System.currentTimeMillis() + 10000;
+                while (listener.checked.size() < 4 && System.currentTimeMillis() < end) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals("Denied session resumed on reconnecting", 4, listener.checked.size());
+                Assert.assertNull("Registered after the certificate was denied", server.awaitLine(line -> line.startsWith("NICK"), 500));
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+
+    @Test
+    public void testDenied() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer(serverContext); ClientManager manager = new ClientManager(1, 1)) {
+            Listener listener = new Listener(true);
+            manager.registerEventListener(listener);
+            CompletableFuture<Client> future = server.clientBuilder().manager(manager).secure(true).reconnectPolicy(null).listenException(exception -> {
+            }).nick("Denied").connect();
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                Assert.fail("Connected despite denying the certificate");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof CertificateException);
+            }
+            Assert.assertEquals(1, listener.checked.size());
+            Assert.assertNull("Registered before the certificate was accepted", server.awaitLine(line -> line.startsWith("NICK"), 500));
+        }
+    }
+
+    private static ClientManager manager(Listener listener) {
+        ClientManager manager = new ClientManager(1, 1);
+        manager.registerEventListener(listener);
+        return manager;
+    }
+}
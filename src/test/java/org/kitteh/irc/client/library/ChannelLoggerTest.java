@@ -0,0 +1,137 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check channel logs are written and rotated.
+ */
+public class ChannelLoggerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TrafficReplay replay;
+    private IRCClient client;
+
+    @Before
+    public void start() {
+        this.replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"));
+        this.client = (IRCClient) this.replay.getClient();
+        this.replay.register();
+        this.client.handleLine(":Kitteh!kitteh@test JOIN #Test");
+        this.client.handleLine(":irc.test 353 Kitteh = #Test :@Kitteh!kitteh@test Cat!cat@host");
+        this.client.handleLine(":irc.test 366 Kitteh #Test :End of /NAMES list.");
+    }
+
+    @After
+    public void stop() {
+        this.replay.close();
+    }
+
+    @Test
+    public void testLog() throws IOException {
+        File directory = this.folder.getRoot();
+        ChannelLogger logger = new ChannelLogger.Builder(this.client, directory).build();
+        this.client.handleLine(":Cat!cat@host PRIVMSG #Test :meow");
+        this.client.handleLine(":Cat!cat@host PRIVMSG #Test :\u0001ACTION purrs\u0001");
+        this.client.handleLine(":Cat!cat@host QUIT :Nap time");
+        logger.close();
+
+        List<String> lines = this.read(new File(directory, "#test"));
+        Assert.assertEquals(3, lines.size());
+        Assert.assertTrue(lines.get(0).endsWith(" <Cat> meow"));
+        Assert.assertTrue(lines.get(1).endsWith(" * Cat purrs"));
+        Assert.assertTrue(lines.get(2).endsWith(" <-- Cat quit (Nap time)"));
+    }
+
+    @Test
+    public void testFileNames() {
+        Assert.assertEquals("#test-1_a.b+!", ChannelLogger.fileName("#test-1_a.b+!"));
+        Assert.assertEquals("#a%2Fb", ChannelLogger.fileName("#a/b"));
+        Assert.assertEquals("#%E6%97%A5%E6%9C%AC", ChannelLogger.fileName("#日本"));
+        Assert.assertNotEquals(ChannelLogger.fileName("#日本"), ChannelLogger.fileName("#中文"));
+        Assert.assertNotEquals(ChannelLogger.fileName("#a/b"), ChannelLogger.fileName("#a_b"));
+        Assert.assertNotEquals(ChannelLogger.fileName("#a%2Fb"), ChannelLogger.fileName("#a/b"));
+    }
+
+    @Test
+    public void testRotation() throws IOException {
+        File directory = this.folder.getRoot();
+        ChannelLogger logger = new ChannelLogger.Builder(this.client, directory).segmentSize(65536).syncPolicy(ChannelLogger.SyncPolicy.NONE).build();
+        char[] padding = new char[100];
+        Arrays.fill(padding, 'a');
+        for (int i = 0; i < 2000; i++) {
+            this.client.handleLine(":Cat!cat@host PRIVMSG #Test :" + i + ' ' + new String(padding));
+        }
+        logger.close();
+
+        File[] segments = new File(directory, "#test").listFiles();
+        Assert.assertNotNull(segments);
+        Assert.assertTrue(segments.length > 1);
+        for (File segment : segments) {
+            Assert.assertTrue(segment.length() <= 65536);
+        }
+        List<String> lines = this.read(new File(directory, "#test"));
+        Assert.assertEquals(2000, lines.size());
+        Assert.assertTrue(lines.get(1999).contains("<Cat> 1999 "));
+    }
+
+    @Test
+    public void testAgeRotation() throws Exception {
+        File directory = this.folder.getRoot();
+        File channelDirectory = new File(directory, "#test");
+        ChannelLogger logger = new ChannelLogger.Builder(this.client, directory).segmentSize(65536).rotationInterval(200, TimeUnit.MILLISECONDS).syncPolicy(ChannelLogger.SyncPolicy.NONE).build();
+        this.client.handleLine(":Cat!cat@host PRIVMSG #Test :meow");
+        // Trimmed once rotated, with no further lines to prompt it, and with the next segment already open
+        long end = System.currentTimeMillis() + 5000;
+        while (this.sizes(channelDirectory).stream().noneMatch(size -> size > 0 && size < 65536) && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        List<Long> sizes = this.sizes(channelDirectory);
+        Assert.assertEquals("Not rotated while quiet", 1, sizes.stream().filter(size -> size > 0 && size < 65536).count());
+        Assert.assertEquals("Next segment not opened ahead", 1, sizes.stream().filter(size -> size == 65536).count());
+
+        this.client.handleLine(":Cat!cat@host PRIVMSG #Test :purr");
+        logger.close();
+        Assert.assertEquals("Unused spare left behind", 0, this.sizes(channelDirectory).stream().filter(size -> size == 0).count());
+        List<String> lines = this.read(channelDirectory);
+        Assert.assertEquals(2, lines.size());
+        Assert.assertTrue(lines.get(0).endsWith(" <Cat> meow"));
+        Assert.assertTrue(lines.get(1).endsWith(" <Cat> purr"));
+    }
+
+    private List<Long> sizes(File channelDirectory) {
+        List<Long> sizes = new ArrayList<>();
+        File[] segments = channelDirectory.listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                sizes.add(segment.length());
+            }
+        }
+        return sizes;
+    }
+
+    private List<String> read(File channelDirectory) throws IOException {
+        File[] segments = channelDirectory.listFiles();
+        Assert.assertNotNull(segments);
+        Arrays.sort(segments);
+        List<String> lines = new ArrayList<>();
+        for (File segment : segments) {
+            lines.addAll(Files.readAllLines(segment.toPath(), StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,105 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.ChannelUserMode;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Collect NAMES replies and publish them as a channel's membership.
+ */
+public class ChannelNamesTest {
+    @Test
+    public void testNamesReplaceMembership() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay, "@Kitteh!kitteh@test Cat!cat@host");
+            Channel channel = client.getChannel("#test");
+            Assert.assertTrue(channel.isComplete());
+            Assert.assertEquals(2, channel.getUsers().size());
+
+            // Arriving in several replies, without hostmasks, while Dog leaves and Cow joins
+            client.handleLine(":irc.test 353 Kitteh = #test :@Kitteh +Cat");
+            client.handleLine(":Cow!cow@host JOIN #test");
+            client.handleLine(":irc.test 353 Kitteh = #test :Dog");
+            client.handleLine(":Dog!dog@host PART #test");
+            client.handleLine(":irc.test MODE #test +o Cat");
+            Assert.assertEquals("Membership replaced before NAMES ended", 3, client.getChannel("#test").getNicknames().size());
+            client.handleLine(":irc.test 366 Kitteh #test :End of /NAMES list.");
+
+            channel = client.getChannel("#test");
+            Assert.assertEquals(3, channel.getNicknames().size());
+            Assert.assertNull(channel.getUserModes("Dog"));
+            Assert.assertEquals("cat", channel.getUser("Cat").getUser());
+            Assert.assertEquals("Modes merged from NAMES and MODE", new HashSet<>(Arrays.asList('@', '+')), this.prefixes(channel.getUserModes("Cat")));
+            Assert.assertEquals("cow", channel.getUser("Cow").getUser());
+        }
+    }
+
+    @Test
+    public void testUnknownNick() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay, "@Kitteh!kitteh@test Cat!cat@host");
+            client.handleLine(":irc.test 353 Kitteh = #test :@Kitteh Cat Stranger");
+            client.handleLine(":irc.test 366 Kitteh #test :End of /NAMES list.");
+            Channel channel = client.getChannel("#test");
+            Assert.assertEquals(3, channel.getNicknames().size());
+            Assert.assertEquals(2, channel.getUsers().size());
+            Assert.assertNull(channel.getUser("Stranger"));
+        }
+    }
+
+    @Test
+    public void testSnapshotDuringPublish() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay, "@Kitteh!kitteh@test");
+            ActorProvider actorProvider = client.getActorProvider();
+            ActorProvider.IRCChannel channel = actorProvider.getChannel("#test");
+            AtomicBoolean running = new AtomicBoolean(true);
+            CompletableFuture<String> mixed = CompletableFuture.supplyAsync(() -> {
+                while (running.get()) {
+                    Channel snapshot = channel.snapshot();
+                    Set<String> names = snapshot.getNicknames().stream().map(String::toLowerCase).collect(Collectors.toSet());
+                    Set<String> users = snapshot.getUsers().stream().map(user -> user.getNick().toLowerCase()).collect(Collectors.toSet());
+                    if (!names.equals(users)) {
+                        return names + " " + users;
+                    }
+                }
+                return null;
+            });
+            try {
+                long end = System.currentTimeMillis() + 1000;
+                for (int i = 0; System.currentTimeMillis() < end && !mixed.isDone(); i++) {
+                    String prefix = i % 2 == 0 ? "A" : "B";
+                    for (int user = 0; user < 2; user++) {
+                        channel.trackNamesUser((ActorProvider.IRCUser) actorProvider.getActor(prefix + user + "!u@h"), new HashSet<>());
+                    }
+                    channel.publishNames();
+                }
+            } finally {
+                running.set(false);
+            }
+            Assert.assertNull("Snapshot mixed two membership lists", mixed.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private IRCClient join(TrafficReplay replay, String names) {
+        IRCClient client = (IRCClient) replay.getClient();
+        replay.register();
+        client.handleLine(":Kitteh!kitteh@test JOIN #test");
+        client.handleLine(":irc.test 353 Kitteh = #test :" + names);
+        client.handleLine(":irc.test 366 Kitteh #test :End of /NAMES list.");
+        return client;
+    }
+
+    private Set<Character> prefixes(Set<ChannelUserMode> modes) {
+        return modes.stream().map(ChannelUserMode::getPrefix).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,104 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Run many clients on one manager against the fake server.
+ */
+public class ClientManagerTest {
+    private static final int CLIENTS = 30;
+
+    public static class Listener {
+        private final CountDownLatch users = new CountDownLatch(CLIENTS);
+
+        @Handler
+        public void users(ChannelUsersUpdatedEvent event) {
+            this.users.countDown();
+        }
+    }
+
+    private FakeIRCServer server;
+    private ClientManager manager;
+
+    @Before
+    public void start() throws InterruptedException {
+        this.server = new FakeIRCServer();
+        this.server.setChannelUsers(10);
+        this.manager = new ClientManager(2, 2);
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        this.manager.close();
+        this.server.close();
+    }
+
+    @Test
+    public void testSharedClients() throws Exception {
+        Listener listener = new Listener();
+        this.manager.registerEventListener(listener);
+        int threads = Thread.activeCount();
+        List<ClientBuilder> builders = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            builders.add(this.server.clientBuilder().nick("Kitteh" + i).messageDelay(1));
+        }
+        List<Client> clients = this.manager.connect(builders, 5, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(CLIENTS, clients.size());
+        Assert.assertEquals(CLIENTS, this.manager.getClients().size());
+        clients.forEach(client -> client.addChannel("#test"));
+        Assert.assertTrue("Not every client joined", listener.users.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue("Threads grew per client", Thread.activeCount() - threads < CLIENTS);
+        Assert.assertTrue(clients.get(0).getEventManager().getRegisteredEventListeners().contains(listener));
+
+        Map<Client, Metrics> metrics = this.manager.getMetrics();
+        Assert.assertEquals(CLIENTS, metrics.size());
+        Assert.assertSame(clients.get(0).getMetrics(), metrics.get(clients.get(0)));
+        Assert.assertTrue(metrics.values().stream().allMatch(clientMetrics -> clientMetrics.getLinesIn() > 0));
+
+        this.manager.shutdownClients("Bye", 1, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(this.manager.getClients().isEmpty());
+        Assert.assertTrue(this.manager.getMetrics().isEmpty());
+        Assert.assertNotNull(this.server.awaitLine(line -> line.startsWith("QUIT"), 5000));
+    }
+
+    @Test
+    public void testRejectedQueue() {
+        List<Runnable> tasks = new ArrayList<>();
+        AtomicBoolean closed = new AtomicBoolean();
+        Executor executor = task -> {
+            if (closed.get()) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(task);
+        };
+        List<Integer> processed = new ArrayList<>();
+        PooledQueue<Integer> queue = new PooledQueue<>(executor, processed::add);
+        for (int i = 0; i < 100; i++) {
+            queue.queue(i);
+        }
+        Assert.assertEquals(1, tasks.size());
+
+        // Closed while the queue's first batch is running
+        closed.set(true);
+        tasks.get(0).run();
+        Assert.assertEquals(64, processed.size());
+        Assert.assertEquals("Still pending after rejection", 0, queue.getQueueSize());
+        queue.queue(100);
+        Assert.assertEquals(0, queue.getQueueSize());
+        Assert.assertEquals(64, processed.size());
+    }
+}
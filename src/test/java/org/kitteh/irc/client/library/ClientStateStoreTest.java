@@ -0,0 +1,137 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.Collectors;
+
+/**
+ * Save client state and load it into a fresh client.
+ */
+public class ClientStateStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = this.folder.newFile();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            ActorProvider.IRCUser cat = client.getActorProvider().getChannel("#test").getUser("Cat");
+            cat.setAccount("catacct");
+            cat.setRealName("Cat Real");
+            cat.setAwayMessage("Napping");
+            this.save(client, file);
+        }
+
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").stateFile(file))) {
+            Client client = replay.getClient();
+            Assert.assertEquals("Kittens", client.getServerInfo().getNetworkName());
+            Assert.assertEquals(1, client.getChannels().size());
+            Channel channel = client.getChannel("#test");
+            Assert.assertFalse("Restored channel complete before rejoining", channel.isComplete());
+            Assert.assertEquals(3, channel.getNicknames().size());
+            Assert.assertEquals("+", channel.getUserModes("Cat").stream().map(mode -> String.valueOf(mode.getPrefix())).collect(Collectors.joining()));
+            Assert.assertEquals("@", channel.getUserModes("Kitteh").stream().map(mode -> String.valueOf(mode.getPrefix())).collect(Collectors.joining()));
+            User restored = channel.getUser("Cat");
+            Assert.assertEquals("host", restored.getHost());
+            Assert.assertEquals("catacct", restored.getAccount());
+            Assert.assertEquals("Cat Real", restored.getRealName());
+            Assert.assertTrue(restored.isAway());
+            Assert.assertNull("Nick without a hostmask restored as a user", channel.getUser("Dog"));
+            Assert.assertTrue(channel.getUserModes("Dog").isEmpty());
+        }
+    }
+
+    @Test
+    public void testRejoinFailed() throws Exception {
+        File file = this.folder.newFile();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            this.save(this.join(replay), file);
+        }
+
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").stateFile(file))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            client.addChannel("#Test");
+            replay.register();
+            Assert.assertEquals(1, client.getChannels().size());
+            client.handleLine(":irc.test 474 Kitteh #Test :Cannot join channel (+b)");
+            Assert.assertTrue("Stale restored channel kept", client.getChannels().isEmpty());
+        }
+    }
+
+    @Test
+    public void testRejoin() throws Exception {
+        File file = this.folder.newFile();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            this.save(this.join(replay), file);
+        }
+
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").messageDelay(1).stateFile(file))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            client.addChannel("#Test");
+            replay.register();
+            Assert.assertFalse(client.getChannel("#Test").isComplete());
+            client.handleLine(":Kitteh!kitteh@test JOIN #Test");
+            client.handleLine(":irc.test 353 Kitteh = #Test :@Kitteh +Cat Dog!dog@host");
+            Assert.assertFalse("Complete before NAMES ended", client.getChannel("#Test").isComplete());
+
+            Assert.assertTrue("WHO sent before reconciling with NAMES", replay.getSent().stream().noneMatch(line -> line.startsWith("WHO")));
+
+            client.handleLine(":irc.test 366 Kitteh #Test :End of /NAMES list.");
+            Assert.assertTrue("Not complete once reconciled with NAMES", client.getChannel("#Test").isComplete());
+            Assert.assertEquals("cat", client.getChannel("#Test").getUser("Cat").getUser());
+        }
+    }
+
+    @Test
+    public void testSaveOnShutdown() throws Exception {
+        File file = new File(this.folder.getRoot(), "state");
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").stateFile(file))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            replay.register();
+            client.queueInput(":Kitteh!kitteh@test JOIN #test");
+            // Still being handled by the input thread when shut down
+            for (int i = 0; i < 1000; i++) {
+                client.queueInput(":irc.test MODE #test " + (i % 2 == 0 ? "+v" : "-v") + " Kitteh");
+            }
+        }
+        Assert.assertTrue(file.isFile());
+
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").stateFile(file))) {
+            Assert.assertEquals("#test", replay.getClient().getChannel("#test").getName());
+        }
+    }
+
+    @Test
+    public void testNamesOfOtherChannel() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").messageDelay(1))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            replay.register();
+            client.handleLine(":irc.test 353 Kitteh = #other :Someone Else");
+            client.handleLine(":irc.test 366 Kitteh #other :End of /NAMES list.");
+            client.handleLine(":Kitteh!kitteh@test JOIN #joined");
+            // Only one WHO is outstanding at a time, so one for #other would come first
+            Assert.assertEquals("WHO #joined", replay.awaitSent(line -> line.startsWith("WHO"), 5000));
+        }
+    }
+
+    private IRCClient join(TrafficReplay replay) {
+        IRCClient client = (IRCClient) replay.getClient();
+        replay.register("NETWORK=Kittens");
+        client.handleLine(":Kitteh!kitteh@test JOIN #Test");
+        client.handleLine(":irc.test 353 Kitteh = #Test :@Kitteh!kitteh@test +Cat!cat@host Dog");
+        client.handleLine(":irc.test 366 Kitteh #Test :End of /NAMES list.");
+        return client;
+    }
+
+    private void save(IRCClient client, File file) throws IOException {
+        ClientStateStore.write(ClientStateStore.snapshot(client), file);
+    }
+}
@@ -0,0 +1,25 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Make sure commands are found no matter how the server shouts them.
+ */
+public class CommandTest {
+    @Test
+    public void getByName() {
+        for (Command command : Command.values()) {
+            Assert.assertEquals(command, Command.getByName(command.name()));
+            Assert.assertEquals(command, Command.getByName(command.name().toLowerCase()));
+        }
+        Assert.assertEquals(Command.PRIVMSG, Command.getByName("PrivMsg"));
+    }
+
+    @Test
+    public void getByNameUnknown() {
+        Assert.assertNull(Command.getByName("MEOW"));
+        Assert.assertNull(Command.getByName(""));
+        Assert.assertNull(Command.getByName("PRIVMSGS"));
+    }
+}
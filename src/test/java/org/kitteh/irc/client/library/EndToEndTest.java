@@ -0,0 +1,171 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.event.batch.NetsplitEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
+import org.kitteh.irc.client.library.event.user.UserQuitEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drive a client against the fake server over localhost.
+ */
+public class EndToEndTest {
+    public static class Listener {
+        private final CountDownLatch messages;
+        private final CountDownLatch users = new CountDownLatch(1);
+        private final long[] latencies;
+        private final AtomicInteger received = new AtomicInteger();
+        private final AtomicLong lastReceived = new AtomicLong();
+        private final List<NetsplitEvent> netsplits = new CopyOnWriteArrayList<>();
+        private final AtomicInteger quits = new AtomicInteger();
+
+        private Listener(int messages) {
+            this.messages = new CountDownLatch(messages);
+            this.latencies = new long[messages];
+        }
+
+        @Handler
+        public void message(ChannelMessageEvent event) {
+            long now = System.nanoTime();
+            int number = this.received.getAndIncrement();
+            if (number < this.latencies.length) {
+                this.latencies[number] = now - FakeIRCServer.getSentTime(event.getMessage());
+            }
+            this.lastReceived.set(now);
+            this.messages.countDown();
+        }
+
+        @Handler
+        public void netsplit(NetsplitEvent event) {
+            this.netsplits.add(event);
+        }
+
+        @Handler
+        public void quit(UserQuitEvent event) {
+            this.quits.incrementAndGet();
+        }
+
+        private long getLatencyPercentile(double percentile) {
+            long[] sorted = this.latencies.clone();
+            Arrays.sort(sorted);
+            return TimeUnit.NANOSECONDS.toMillis(sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1]);
+        }
+
+        @Handler
+        public void users(ChannelUsersUpdatedEvent event) {
+            this.users.countDown();
+        }
+    }
+
+    private FakeIRCServer server;
+    private Client client;
+
+    @Before
+    public void start() throws InterruptedException {
+        this.server = new FakeIRCServer();
+        this.server.setChannelUsers(500);
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        if (this.client != null) {
+            this.client.shutdown("Done");
+        }
+        this.server.close();
+    }
+
+    @Test
+    public void testJoinBurst() throws InterruptedException {
+        Listener listener = this.connect(0, 1);
+        Assert.assertTrue("Channel user list never completed", listener.users.await(10, TimeUnit.SECONDS));
+        Channel channel = this.client.getChannel("#test");
+        Assert.assertNotNull(channel);
+        Assert.assertEquals(501, channel.getUsers().size());
+        Assert.assertEquals("host5.test", channel.getUser("User5").getHost());
+    }
+
+    @Test
+    public void testTraffic() throws InterruptedException {
+        int rate = 250;
+        int count = 750;
+        Listener listener = this.connect(count, 1);
+        Assert.assertTrue(listener.users.await(10, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        this.server.sendTraffic("#test", rate, count);
+        Assert.assertTrue("Not all messages were delivered", listener.messages.await(30, TimeUnit.SECONDS));
+        // Each message snapshots the 501 user channel, so the rate is kept within what the client sustains
+        double perSecond = count / ((listener.lastReceived.get() - start) / (double) TimeUnit.SECONDS.toNanos(1));
+        long median = listener.getLatencyPercentile(50);
+        long p99 = listener.getLatencyPercentile(99);
+        String result = String.format("%.0f messages/s, latency p50 %dms p99 %dms", perSecond, median, p99);
+        System.out.println("Traffic at " + rate + " messages/s: " + result);
+        Assert.assertTrue("Fell behind: " + result, perSecond >= rate * 0.8);
+        Assert.assertTrue("Fell behind: " + result, median <= 50);
+        Assert.assertTrue("Fell behind: " + result, p99 <= 1000);
+    }
+
+    @Test
+    public void testNetsplit() throws InterruptedException {
+        this.server.setCapabilities("batch");
+        Listener listener = this.connect(0, 1);
+        Assert.assertTrue(listener.users.await(10, TimeUnit.SECONDS));
+        this.server.netsplit(500);
+        this.awaitUsers(1);
+        Assert.assertEquals(1, this.client.getChannel("#test").getUsers().size());
+        Assert.assertEquals(1, listener.netsplits.size());
+        Assert.assertEquals(500, listener.netsplits.get(0).getUsers().size());
+        Assert.assertEquals(Arrays.asList("irc.test", "split.test"), listener.netsplits.get(0).getServers());
+        Assert.assertEquals("Netsplit quits sent one by one", 0, listener.quits.get());
+    }
+
+    @Test
+    public void testNetsplitWithoutBatch() throws InterruptedException {
+        Listener listener = this.connect(0, 1);
+        Assert.assertTrue(listener.users.await(10, TimeUnit.SECONDS));
+        this.server.netsplit(500);
+        this.awaitUsers(1);
+        Assert.assertEquals(1, this.client.getChannel("#test").getUsers().size());
+        Assert.assertTrue(listener.netsplits.isEmpty());
+        Assert.assertEquals(500, listener.quits.get());
+    }
+
+    @Test
+    public void testMessageDelay() throws InterruptedException {
+        this.connect(0, 100);
+        Assert.assertNotNull(this.server.awaitLine(line -> line.startsWith("JOIN"), 5000));
+        for (int i = 0; i < 5; i++) {
+            this.client.sendMessage("#test", "Message " + i);
+        }
+        Assert.assertNotNull(this.server.awaitLine(line -> line.endsWith("Message 4"), 5000));
+        long interval = this.server.getMinimumInterval(line -> Arrays.asList("PRIVMSG", "JOIN").contains(line.split(" ")[0]));
+        Assert.assertTrue("Sent " + interval + "ms apart", interval >= 90);
+    }
+
+    private void awaitUsers(int users) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (this.client.getChannel("#test").getUsers().size() > users && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Listener connect(int messages, int messageDelay) {
+        this.client = this.server.clientBuilder().nick("Kitteh").messageDelay(messageDelay).build();
+        Listener listener = new Listener(messages);
+        this.client.getEventManager().registerEventListener(listener);
+        this.client.addChannel("#test");
+        return listener;
+    }
+}
@@ -0,0 +1,529 @@
+package org.kitteh.irc.client.library;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * An in-process IRC server on localhost, scripted just enough to drive a
+ * client end to end: capability negotiation, registration with ISUPPORT,
+ * NAMES and WHO bursts on join, synthetic channel traffic and netsplits.
+ * <p>
+ * Channels are filled with synthetic users named User0, User1 and so on.
+ * Every line received is kept with its arrival time, for checking what
+ * the client sent and how fast.
+ */
+public class FakeIRCServer implements AutoCloseable {
+    /**
+     * A line received from the client.
+     */
+    public static class ReceivedLine {
+        private final String line;
+        private final long time;
+
+        private ReceivedLine(String line, long time) {
+            this.line = line;
+            this.time = time;
+        }
+
+        public String getLine() {
+            return this.line;
+        }
+
+        /**
+         * Gets when the line arrived.
+         *
+         * @return arrival time, per {@link System#nanoTime()}
+         */
+        public long getTime() {
+            return this.time;
+        }
+    }
+
+    /**
+     * How WHO requests are answered.
+     */
+    public enum WhoReplies {
+        /**
+         * One reply, ended once for all the requested targets.
+         */
+        COMBINED,
+        /**
+         * A reply for each requested target, ended separately.
+         */
+        PER_TARGET,
+        /**
+         * No reply at all.
+         */
+        NONE
+    }
+
+    public static final String NAME = "irc.test";
+    private static final String SENT_MARKER = "sent=";
+    private static final int NAMES_PER_LINE = 50;
+    private static final int USERHOSTS_PER_LINE = 15;
+
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+    private final Channel serverChannel;
+    private final List<Channel> clients = new CopyOnWriteArrayList<>();
+    private final List<ReceivedLine> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger quitUsers = new AtomicInteger();
+    private volatile String capabilities = "";
+    private volatile String iSupport = "CASEMAPPING=rfc1459 CHANTYPES=# PREFIX=(ov)@+ CHANMODES=b,k,l,imnpst NETWORK=Fake";
+    private volatile int channelUsers;
+    private volatile WhoReplies whoReplies = WhoReplies.COMBINED;
+    private volatile List<String> onlineNicks = new ArrayList<>();
+
+    public FakeIRCServer() throws InterruptedException {
+        this(null);
+    }
+
+    /**
+     * Creates a server SSL context with a new self-signed certificate for
+     * {@link #NAME}, using the JDK's keytool.
+     *
+     * @param folder folder in which to keep the key store
+     * @return server SSL context
+     * @throws Exception if the certificate could not be created
+     */
+    public static SSLContext createSslContext(File folder) throws Exception {
+        File keyStore = File.createTempFile("server", ".p12", folder);
+        if (!keyStore.delete()) {
+            throw new IOException("Could not make way for " + keyStore);
+        }
+        Process keytool = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(), "-genkeypair", "-keyalg", "RSA", "-keysize", "2048",
+                "-alias", "server", "-dname", "CN=" + NAME, "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStore.getPath(), "-storepass", "kitteh", "-keypass", "kitteh")
+                .redirectErrorStream(true).start();
+        if (!keytool.waitFor(60, TimeUnit.SECONDS) || keytool.exitValue() != 0) {
+            throw new IOException("keytool failed");
+        }
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(keyStore)) {
+            store.load(input, "kitteh".toCharArray());
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(store, "kitteh".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * Creates a server, secured if given an SSL context.
+     *
+     * @param ssl server SSL context, or null for plain text
+     * @throws InterruptedException if interrupted binding
+     */
+    public FakeIRCServer(SSLContext ssl) throws InterruptedException {
+        this.serverChannel = new ServerBootstrap()
+                .group(this.group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        FakeIRCServer.this.clients.add(channel);
+                        if (ssl != null) {
+                            SSLEngine engine = ssl.createSSLEngine();
+                            engine.setUseClientMode(false);
+                            channel.pipeline().addLast(new SslHandler(engine));
+                        }
+                        channel.pipeline().addLast(new LineBasedFrameDecoder(8192));
+                        channel.pipeline().addLast(new StringDecoder(CharsetUtil.UTF_8));
+                        channel.pipeline().addLast(new StringEncoder(CharsetUtil.UTF_8));
+                        channel.pipeline().addLast(new Session());
+                    }
+                })
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).sync().channel();
+    }
+
+    /**
+     * Gets the time a line of synthetic traffic was written, from its
+     * message.
+     *
+     * @param message message from {@link #sendTraffic}
+     * @return write time, per {@link System#nanoTime()}, or -1 if none
+     */
+    public static long getSentTime(String message) {
+        int index = message.lastIndexOf(SENT_MARKER);
+        return index == -1 ? -1 : Long.parseLong(message.substring(index + SENT_MARKER.length()));
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) this.serverChannel.localAddress()).getPort();
+    }
+
+    /**
+     * Creates a builder for a client connecting to this server.
+     *
+     * @return client builder
+     */
+    public ClientBuilder clientBuilder() {
+        return new ClientBuilder().server(InetAddress.getLoopbackAddress().getHostAddress()).server(this.getPort());
+    }
+
+    /**
+     * Sets how WHO requests are answered.
+     *
+     * @param whoReplies how to answer
+     */
+    public void setWhoReplies(WhoReplies whoReplies) {
+        this.whoReplies = whoReplies;
+    }
+
+    /**
+     * Sets the nicks reported online in ISON replies.
+     *
+     * @param nicks online nicks
+     */
+    public void setOnlineNicks(String... nicks) {
+        this.onlineNicks = Arrays.asList(nicks);
+    }
+
+    /**
+     * Sets the capabilities offered, all of which are acknowledged when
+     * requested.
+     *
+     * @param capabilities space separated capabilities
+     */
+    public void setCapabilities(String capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * Sets the ISUPPORT tokens sent on registration.
+     *
+     * @param iSupport space separated tokens
+     */
+    public void setISupport(String iSupport) {
+        this.iSupport = iSupport;
+    }
+
+    /**
+     * Sets how many synthetic users are in each joined channel.
+     *
+     * @param channelUsers number of users besides the client
+     */
+    public void setChannelUsers(int channelUsers) {
+        this.channelUsers = channelUsers;
+    }
+
+    /**
+     * Gets every line received so far.
+     *
+     * @return received lines in order
+     */
+    public List<ReceivedLine> getReceived() {
+        return new ArrayList<>(this.received);
+    }
+
+    /**
+     * Gets received lines matching a condition.
+     *
+     * @param filter condition on the line
+     * @return matching lines in order
+     */
+    public List<ReceivedLine> getReceived(Predicate<String> filter) {
+        List<ReceivedLine> lines = new ArrayList<>();
+        for (ReceivedLine line : this.received) {
+            if (filter.test(line.getLine())) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Waits for a matching line to arrive.
+     *
+     * @param filter condition on the line
+     * @param timeout maximum wait in milliseconds
+     * @return the first matching line, or null if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ReceivedLine awaitLine(Predicate<String> filter, long timeout) throws InterruptedException {
+        List<ReceivedLine> lines = this.awaitLines(filter, 1, timeout);
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    /**
+     * Waits for a number of matching lines to arrive.
+     *
+     * @param filter condition on the line
+     * @param count number of lines to wait for
+     * @param timeout maximum wait in milliseconds
+     * @return matching lines in order, fewer than the count if they didn't
+     * all arrive in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<ReceivedLine> awaitLines(Predicate<String> filter, int count, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        List<ReceivedLine> lines;
+        while ((lines = this.getReceived(filter)).size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the shortest gap between consecutive matching lines, for
+     * checking the client keeps to its message delay.
+     *
+     * @param filter condition on the line
+     * @return shortest gap in milliseconds, or -1 if fewer than two lines
+     */
+    public long getMinimumInterval(Predicate<String> filter) {
+        List<ReceivedLine> lines = this.getReceived(filter);
+        long minimum = -1;
+        for (int i = 1; i < lines.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(lines.get(i).getTime() - lines.get(i - 1).getTime());
+            if (minimum == -1 || gap < minimum) {
+                minimum = gap;
+            }
+        }
+        return minimum;
+    }
+
+    /**
+     * Sends a raw line to all connected clients.
+     *
+     * @param line line without line break
+     */
+    public void send(String line) {
+        for (Channel client : this.clients) {
+            client.writeAndFlush(line + "\r\n");
+        }
+    }
+
+    /**
+     * Sends synthetic messages from channel users at a fixed rate. Each
+     * message ends with its write time, see {@link #getSentTime(String)}.
+     *
+     * @param channel target channel
+     * @param perSecond messages per second
+     * @param count total messages
+     * @return the task, to cancel early
+     */
+    public ScheduledFuture<?> sendTraffic(String channel, int perSecond, int count) {
+        AtomicInteger sent = new AtomicInteger();
+        long period = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        task[0] = this.group.next().scheduleAtFixedRate(() -> {
+            int number = sent.getAndIncrement();
+            if (number >= count) {
+                task[0].cancel(false);
+                return;
+            }
+            int user = this.channelUsers == 0 ? 0 : number % this.channelUsers;
+            this.send(':' + userMask(user) + " PRIVMSG " + channel + " :Message " + number + ' ' + SENT_MARKER + System.nanoTime());
+        }, 0, period, TimeUnit.NANOSECONDS);
+        return task[0];
+    }
+
+    /**
+     * Sends a netsplit, quitting synthetic users not already quit. The
+     * quits are sent in a netsplit batch if the batch capability is
+     * offered.
+     *
+     * @param users number of users to quit
+     */
+    public void netsplit(int users) {
+        int start = this.quitUsers.getAndAdd(users);
+        String reference = this.isOffered("batch") ? "split" + start : null;
+        if (reference != null) {
+            this.send(':' + NAME + " BATCH +" + reference + " netsplit irc.test split.test");
+        }
+        for (int i = start; i < start + users && i < this.channelUsers; i++) {
+            this.send((reference == null ? "" : "@batch=" + reference + ' ') + ':' + userMask(i) + " QUIT :irc.test split.test");
+        }
+        if (reference != null) {
+            this.send(':' + NAME + " BATCH -" + reference);
+        }
+    }
+
+    /**
+     * Closes the connections of all connected clients.
+     */
+    public void disconnectAll() {
+        for (Channel client : this.clients) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (Channel client : this.clients) {
+            client.close();
+        }
+        this.serverChannel.close().sync();
+        this.group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    private boolean isOffered(String capability) {
+        return Arrays.asList(this.capabilities.split(" ")).contains(capability);
+    }
+
+    private static String userMask(int user) {
+        return "User" + user + "!user" + user + "@host" + user + ".test";
+    }
+
+    private class Session extends SimpleChannelInboundHandler<String> {
+        private boolean negotiating;
+        private boolean registered;
+        private boolean userReceived;
+        private String nick;
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            FakeIRCServer.this.clients.remove(ctx.channel());
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, String line) {
+            FakeIRCServer.this.received.add(new ReceivedLine(line, System.nanoTime()));
+            String[] split = line.split(" ", 2);
+            String command = split[0].toUpperCase();
+            String args = split.length > 1 ? split[1] : "";
+            switch (command) {
+                case "CAP":
+                    if (args.startsWith("LS")) {
+                        this.negotiating = true;
+                        this.reply(ctx, "CAP * LS :" + FakeIRCServer.this.capabilities);
+                    } else if (args.startsWith("REQ")) {
+                        this.reply(ctx, "CAP * ACK " + args.substring(4));
+                    } else if (args.startsWith("END")) {
+                        this.negotiating = false;
+                        this.register(ctx);
+                    }
+                    break;
+                case "NICK":
+                    this.nick = args;
+                    this.register(ctx);
+                    break;
+                case "USER":
+                    this.userReceived = true;
+                    this.register(ctx);
+                    break;
+                case "PING":
+                    this.reply(ctx, "PONG " + NAME + ' ' + args);
+                    break;
+                case "JOIN":
+                    for (String channel : args.replace(":", "").split(",")) {
+                        this.join(ctx, channel);
+                    }
+                    break;
+                case "WHO":
+                    this.who(ctx, args.split(" ")[0]);
+                    break;
+                case "ISON":
+                    this.reply(ctx, "303 " + this.nick + " :" + Arrays.stream(args.split(" ")).filter(FakeIRCServer.this.onlineNicks::contains).collect(Collectors.joining(" ")));
+                    break;
+                case "QUIT":
+                    ctx.close();
+                    break;
+            }
+        }
+
+        private void join(ChannelHandlerContext ctx, String channel) {
+            String nick = this.nick;
+            ctx.write(':' + nick + "!kitteh@client.test JOIN " + channel + "\r\n");
+            boolean userhosts = FakeIRCServer.this.isOffered("userhost-in-names");
+            StringBuilder names = new StringBuilder('@' + nick + (userhosts ? "!kitteh@client.test" : ""));
+            int count = 1;
+            for (int i = 0; i < FakeIRCServer.this.channelUsers; i++) {
+                if (count == (userhosts ? USERHOSTS_PER_LINE : NAMES_PER_LINE)) {
+                    this.write(ctx, "353 " + nick + " = " + channel + " :" + names);
+                    names.setLength(0);
+                    count = 0;
+                }
+                if (count++ > 0) {
+                    names.append(' ');
+                }
+                names.append(i % 10 == 0 ? "@" : "").append(userhosts ? userMask(i) : "User" + i);
+            }
+            this.write(ctx, "353 " + nick + " = " + channel + " :" + names);
+            this.write(ctx, "366 " + nick + ' ' + channel + " :End of /NAMES list.");
+            ctx.flush();
+        }
+
+        private void register(ChannelHandlerContext ctx) {
+            String nick = this.nick;
+            if (this.registered || this.negotiating || !this.userReceived || nick == null) {
+                return;
+            }
+            this.registered = true;
+            this.write(ctx, "001 " + nick + " :Welcome to the fake network " + nick);
+            this.write(ctx, "002 " + nick + " :Your host is " + NAME);
+            this.write(ctx, "003 " + nick + " :This server was created today");
+            this.write(ctx, "004 " + nick + ' ' + NAME + " fake-1.0 iow biklmnopstv");
+            this.write(ctx, "005 " + nick + ' ' + FakeIRCServer.this.iSupport + " :are supported by this server");
+            this.write(ctx, "375 " + nick + " :- " + NAME + " Message of the day");
+            this.write(ctx, "372 " + nick + " :- Meow");
+            this.write(ctx, "376 " + nick + " :End of /MOTD command.");
+            ctx.flush();
+        }
+
+        private void who(ChannelHandlerContext ctx, String target) {
+            switch (FakeIRCServer.this.whoReplies) {
+                case COMBINED:
+                    this.whoReply(ctx, target);
+                    break;
+                case PER_TARGET:
+                    for (String channel : target.split(",")) {
+                        this.whoReply(ctx, channel);
+                    }
+                    break;
+                case NONE:
+                    return;
+            }
+            ctx.flush();
+        }
+
+        private void whoReply(ChannelHandlerContext ctx, String channel) {
+            String nick = this.nick;
+            this.write(ctx, "352 " + nick + ' ' + channel + " kitteh client.test " + NAME + ' ' + nick + " H@ :0 Kitteh");
+            for (int i = 0; i < FakeIRCServer.this.channelUsers; i++) {
+                this.write(ctx, "352 " + nick + ' ' + channel + " user" + i + " host" + i + ".test " + NAME + " User" + i + (i % 10 == 0 ? " H@" : " H") + " :0 User " + i);
+            }
+            this.write(ctx, "315 " + nick + ' ' + channel + " :End of /WHO list.");
+        }
+
+        private void reply(ChannelHandlerContext ctx, String line) {
+            ctx.writeAndFlush(':' + NAME + ' ' + line + "\r\n");
+        }
+
+        private void write(ChannelHandlerContext ctx, String line) {
+            ctx.write(':' + NAME + ' ' + line + "\r\n");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Check handler timing reaches a flight recording. The jdk.jfr API is used
+ * reflectively, so the tests still compile on a JDK without it.
+ */
+public class FlightRecorderTest {
+    public static class Listener {
+        @Handler
+        public void handle(String event) {
+        }
+    }
+
+    @Test
+    public void testHandlerCompleted() throws Exception {
+        Assume.assumeTrue(FlightRecorderSupport.isAvailable());
+        File file = File.createTempFile("kitteh", ".jfr");
+        file.deleteOnExit();
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder()); AutoCloseable recording = (AutoCloseable) recordingClass.getConstructor().newInstance()) {
+            EventManager eventManager = replay.getClient().getEventManager();
+            eventManager.registerEventListener(new Listener());
+            Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, "org.kitteh.irc.HandlerCompleted");
+            Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class).invoke(settings, Duration.ZERO);
+            recordingClass.getMethod("start").invoke(recording);
+            eventManager.callEvent("meow");
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+        }
+        List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, file.toPath());
+        Class<?> recordedClass = Class.forName("jdk.jfr.consumer.RecordedObject");
+        Method hasField = recordedClass.getMethod("hasField", String.class);
+        Method getString = recordedClass.getMethod("getString", String.class);
+        List<Object> methods = new ArrayList<>();
+        for (Object event : events) {
+            if ((Boolean) hasField.invoke(event, "method")) {
+                methods.add(getString.invoke(event, "method"));
+            }
+        }
+        // The client's own handlers may also have run meanwhile
+        Assert.assertEquals(1, Collections.frequency(methods, "handle"));
+    }
+}
@@ -0,0 +1,143 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Check history queries across memory and disk.
+ */
+public class MessageHistoryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TrafficReplay replay;
+    private IRCClient client;
+
+    @Before
+    public void start() {
+        this.replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"));
+        this.client = (IRCClient) this.replay.getClient();
+        this.replay.register();
+        this.client.handleLine(":Kitteh!kitteh@test JOIN #Test");
+        this.client.handleLine(":irc.test 353 Kitteh = #Test :@Kitteh!kitteh@test Cat!cat@host Dog!dog@host");
+        this.client.handleLine(":irc.test 366 Kitteh #Test :End of /NAMES list.");
+    }
+
+    @After
+    public void stop() {
+        this.replay.close();
+    }
+
+    @Test
+    public void testMemory() throws Exception {
+        MessageHistory history = new MessageHistory.Builder(this.client).capacity(10).build();
+        this.send(20);
+        List<MessageHistory.Message> latest = history.getLatest("#test", 5);
+        Assert.assertEquals(5, latest.size());
+        Assert.assertEquals("Message 19", latest.get(4).getText());
+        Assert.assertEquals(10, history.getLatest("#TEST", 50).size());
+        List<MessageHistory.Message> dog = history.getLatest("#test", "DOG", 2);
+        Assert.assertEquals("Message 17", dog.get(0).getText());
+        Assert.assertEquals("Message 19", dog.get(1).getText());
+        Assert.assertEquals("Message 18", history.getLastSeen("cat").get().getText());
+        Assert.assertEquals("Message 13", history.getAfter("#test", this.time(12), 1).get(0).getText());
+        Assert.assertEquals("Message 11", history.getBefore("#test", this.time(12), 1).get(0).getText());
+        Assert.assertEquals("Message 15", history.getMessage("#test", "id15").get().getText());
+        history.close();
+    }
+
+    @Test
+    public void testDisk() throws Exception {
+        File directory = this.folder.getRoot();
+        MessageHistory history = new MessageHistory.Builder(this.client).capacity(10).directory(directory).segmentSize(65536).build();
+        this.send(5000);
+        history.close();
+
+        // Reopen, so everything is read back from disk
+        history = new MessageHistory.Builder(this.client).capacity(10).directory(directory).build();
+        List<MessageHistory.Message> latest = history.getLatest("#test", 3);
+        Assert.assertEquals("Message 4999", latest.get(2).getText());
+        Assert.assertEquals(4999, latest.get(2).getId());
+        List<MessageHistory.Message> cat = history.getLatest("#test", "Cat", 1000);
+        Assert.assertEquals(1000, cat.size());
+        Assert.assertEquals("Message 3000", cat.get(0).getText());
+        List<MessageHistory.Message> between = history.getBetween("#test", this.time(99), this.time(200), 500);
+        Assert.assertEquals(100, between.size());
+        Assert.assertEquals("Message 100", between.get(0).getText());
+        Assert.assertEquals("Message 199", between.get(99).getText());
+        List<MessageHistory.Message> around = history.getAround("#test", this.time(1000), 4);
+        Assert.assertEquals("Message 998", around.get(0).getText());
+        Assert.assertEquals("Message 1001", around.get(3).getText());
+        Assert.assertEquals("Message 15", history.getMessage("#test", "id15").get().getText());
+
+        this.send(5);
+        Assert.assertEquals("Message 4", history.getLatest("#test", 1).get(0).getText());
+        Assert.assertEquals(5004, history.getLatest("#test", 1).get(0).getId());
+        Assert.assertEquals("Time went backwards after reopening", this.time(4999), history.getLatest("#test", 1).get(0).getTime());
+        history.close();
+    }
+
+    @Test
+    public void testTruncatedIndex() throws Exception {
+        File directory = this.folder.getRoot();
+        MessageHistory history = new MessageHistory.Builder(this.client).capacity(10).directory(directory).segmentSize(65536).build();
+        this.send(5000);
+        history.close();
+
+        // As if a crash interrupted sealing a segment
+        File[] indexes = directory.listFiles(File::isDirectory)[0].listFiles((dir, name) -> name.endsWith(".idx"));
+        Assert.assertTrue(indexes.length > 1);
+        long length = indexes[0].length();
+        try (RandomAccessFile index = new RandomAccessFile(indexes[0], "rw")) {
+            index.setLength(length / 2);
+        }
+
+        history = new MessageHistory.Builder(this.client).capacity(10).directory(directory).build();
+        List<MessageHistory.Message> between = history.getBetween("#test", this.time(99), this.time(200), 500);
+        Assert.assertEquals(100, between.size());
+        Assert.assertEquals("Message 100", between.get(0).getText());
+        Assert.assertEquals(2500, history.getLatest("#test", "Cat", 5000).size());
+        history.close();
+        Assert.assertEquals("Index not rebuilt", length, indexes[0].length());
+    }
+
+    @Test
+    public void testDistinctDirectories() throws Exception {
+        File directory = this.folder.getRoot();
+        String[] channels = {"#日本", "#中文", "#a/b", "#a_b"};
+        MessageHistory history = new MessageHistory.Builder(this.client).directory(directory).build();
+        for (String channel : channels) {
+            this.client.handleLine(":Kitteh!kitteh@test JOIN " + channel);
+            this.client.handleLine(":Cat!cat@host PRIVMSG " + channel + " :Hello " + channel);
+        }
+        history.close();
+        Assert.assertEquals(channels.length, directory.listFiles(File::isDirectory).length);
+
+        history = new MessageHistory.Builder(this.client).directory(directory).build();
+        for (String channel : channels) {
+            List<MessageHistory.Message> latest = history.getLatest(channel, 5);
+            Assert.assertEquals(1, latest.size());
+            Assert.assertEquals("Hello " + channel, latest.get(0).getText());
+        }
+        history.close();
+    }
+
+    private void send(int count) {
+        for (int i = 0; i < count; i++) {
+            this.client.handleLine("@time=" + this.time(i) + ";msgid=id" + i + " :" + (i % 2 == 0 ? "Cat!cat@host" : "Dog!dog@host") + " PRIVMSG #Test :Message " + i);
+        }
+    }
+
+    private Instant time(int message) {
+        return Instant.parse("2015-06-01T12:00:00Z").plusSeconds(message);
+    }
+}
@@ -0,0 +1,57 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Check tag lookup, unescaping and the map view of message tags, including
+ * tags without values and repeated tags.
+ */
+public class MessageTagsTest {
+    private static final MessageTags TAGS = new MessageTags("account=kitteh;msgid=abc123;+example.com/flag;time=2015-04-01T12:30:00.000Z;escaped=a\\sb\\:c\\\\d\\");
+
+    @Test
+    public void empty() {
+        Assert.assertTrue(MessageTags.EMPTY.isEmpty());
+        Assert.assertNull(MessageTags.EMPTY.get("msgid"));
+        Assert.assertTrue(MessageTags.EMPTY.asMap().isEmpty());
+    }
+
+    @Test
+    public void get() {
+        Assert.assertEquals("kitteh", TAGS.getAccount());
+        Assert.assertEquals("abc123", TAGS.getMessageId());
+        Assert.assertEquals("", TAGS.get("+example.com/flag"));
+        Assert.assertNull(TAGS.get("account2"));
+        Assert.assertNull(TAGS.get("acc"));
+        Assert.assertNull(TAGS.getBatch());
+        Assert.assertEquals(Instant.parse("2015-04-01T12:30:00.000Z"), TAGS.getServerTime());
+    }
+
+    @Test
+    public void unescape() {
+        Assert.assertEquals("a b;c\\d", TAGS.get("escaped"));
+    }
+
+    @Test
+    public void asMap() {
+        Map<String, String> map = TAGS.asMap();
+        Assert.assertEquals(5, map.size());
+        Assert.assertEquals("a b;c\\d", map.get("escaped"));
+        Assert.assertEquals("", map.get("+example.com/flag"));
+        Assert.assertEquals("kitteh", TAGS.get("account"));
+    }
+
+    @Test
+    public void duplicate() {
+        MessageTags tags = new MessageTags("msgid=first;account=kitteh;msgid=second;flag=x;flag");
+        Assert.assertEquals("second", tags.getMessageId());
+        Assert.assertEquals("", tags.get("flag"));
+        Assert.assertEquals(tags.get("msgid"), tags.asMap().get("msgid"));
+        Assert.assertEquals(tags.get("flag"), tags.asMap().get("flag"));
+        Assert.assertEquals("kitteh", tags.getAccount());
+    }
+}
@@ -0,0 +1,76 @@
+package org.kitteh.irc.client.library;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.event.client.ClientConnectedEvent;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Check histogram summaries, counters and their JMX view.
+ */
+public class MetricsTest {
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram histogram = new Metrics(null).getParseTime();
+        Assert.assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(100000, histogram.getMax());
+        Assert.assertEquals(50500, histogram.getMean(), 0.001);
+        long median = histogram.getPercentile(50);
+        Assert.assertTrue(median >= 50000 && median < 100000);
+        Assert.assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testCounters() {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            Metrics metrics = client.getMetrics();
+            EmbeddedChannel channel = new EmbeddedChannel(new NettyLineDecoder(client));
+            String input = ":irc.test 001 Kitteh :Welcome\r\n:irc.test 004 Kitteh irc.test test-1.0 iow biklmnopstv\r\n";
+            channel.writeInbound(Unpooled.copiedBuffer(input, CharsetUtil.UTF_8));
+            ByteBuf line;
+            while ((line = (ByteBuf) channel.readInbound()) != null) {
+                client.handleLine(line.toString(CharsetUtil.UTF_8));
+                line.release();
+            }
+            channel.finish();
+
+            Assert.assertEquals(2, metrics.getLinesIn());
+            Assert.assertEquals(input.length(), metrics.getBytesIn());
+            Assert.assertEquals(0, metrics.getDroppedLines());
+            Assert.assertEquals(2, metrics.getParseTime().getCount());
+            Assert.assertEquals(Long.valueOf(1), metrics.getEventCounts().get(ClientConnectedEvent.class));
+            long events = metrics.getEventCounts().values().stream().mapToLong(Long::longValue).sum();
+            Assert.assertEquals("Events counted apart from their timings", events, metrics.getDispatchTime().getCount());
+        }
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName query = new ObjectName("org.kitteh.irc.client:type=Client,name=" + ObjectName.quote("Metrics") + ",*");
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().name("Metrics").nick("Kitteh").jmxMetrics(true))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            Set<ObjectName> names = server.queryNames(query, null);
+            Assert.assertEquals(1, names.size());
+            ObjectName name = names.iterator().next();
+            replay.register();
+            Assert.assertEquals(client.getMetrics().getDispatchTime().getCount(), server.getAttribute(name, "Events"));
+            Assert.assertEquals(client.getMetrics().getParseTime().getPercentile(99), server.getAttribute(name, "ParseTime99thPercentile"));
+            Assert.assertEquals(0, server.getAttribute(name, "TrackedChannels"));
+        }
+        Assert.assertTrue("Still registered after shutdown", server.queryNames(query, null).isEmpty());
+    }
+}
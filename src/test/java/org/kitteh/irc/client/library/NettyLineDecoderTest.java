@@ -0,0 +1,107 @@
+package org.kitteh.irc.client.library;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.exception.KittehInputLineTooLongException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Split input with the decoder alone, on a client whose line limit changes
+ * with its capabilities.
+ */
+public class NettyLineDecoderTest {
+    @Test
+    public void testLimitFollowsTagging() throws Exception {
+        BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").listenException(exceptions::add))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            EmbeddedChannel channel = new EmbeddedChannel(new NettyLineDecoder(client));
+            Assert.assertEquals(512, client.getInputLineLimit());
+            String tagged = line(600);
+            Assert.assertTrue(this.decode(channel, tagged + "\r\n").isEmpty());
+
+            client.handleLine(":irc.test CAP * ACK :message-tags");
+            Assert.assertEquals(8191 + 512, client.getInputLineLimit());
+            Assert.assertEquals(Arrays.asList(tagged), this.decode(channel, tagged + "\r\n"));
+            String longest = line(8191 + 512);
+            Assert.assertEquals(Arrays.asList(longest), this.decode(channel, longest + "\r\n"));
+            Assert.assertTrue(this.decode(channel, longest + "x\r\n").isEmpty());
+
+            Assert.assertEquals(Arrays.asList(600, 8191 + 512 + 1), this.awaitLengths(exceptions, 2));
+            channel.finish();
+        }
+    }
+
+    @Test
+    public void testOversizedDropped() throws Exception {
+        BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").listenException(exceptions::add))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            EmbeddedChannel channel = new EmbeddedChannel(new NettyLineDecoder(client));
+            // Arriving in pieces, each past the limit without a line break
+            Assert.assertTrue(this.decode(channel, ":irc.test PRIVMSG #test :" + line(600)).isEmpty());
+            Assert.assertTrue(this.decode(channel, line(600)).isEmpty());
+            Assert.assertEquals(Arrays.asList(":irc.test PING :after"), this.decode(channel, line(10) + "\r\n:irc.test PING :after\r\n"));
+            Assert.assertEquals(Arrays.asList("short", "lines"), this.decode(channel, "short\nlines\r\n\r\n"));
+
+            KittehInputLineTooLongException exception = (KittehInputLineTooLongException) exceptions.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(exception);
+            Assert.assertEquals(":irc.test PRIVMSG #test :".length() + 600 + 600 + 10 + 1, exception.getLength());
+            Assert.assertEquals(1, exception.getDroppedLines());
+            Assert.assertEquals(1, client.getMetrics().getDroppedLines());
+            channel.finish();
+        }
+    }
+
+    @Test
+    public void testLongestSplitBeforeLineFeed() throws Exception {
+        BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").listenException(exceptions::add))) {
+            IRCClient client = (IRCClient) replay.getClient();
+            EmbeddedChannel channel = new EmbeddedChannel(new NettyLineDecoder(client));
+            String longest = line(512);
+            Assert.assertTrue(this.decode(channel, longest + "\r").isEmpty());
+            Assert.assertEquals(Arrays.asList(longest), this.decode(channel, "\n"));
+            Assert.assertTrue(this.decode(channel, longest + "x\r").isEmpty());
+            Assert.assertTrue(this.decode(channel, "\n").isEmpty());
+            Assert.assertEquals(Arrays.asList(514), this.awaitLengths(exceptions, 1));
+            channel.finish();
+        }
+    }
+
+    private List<String> decode(EmbeddedChannel channel, String input) {
+        channel.writeInbound(Unpooled.copiedBuffer(input, CharsetUtil.UTF_8));
+        List<String> lines = new ArrayList<>();
+        ByteBuf line;
+        while ((line = (ByteBuf) channel.readInbound()) != null) {
+            lines.add(line.toString(CharsetUtil.UTF_8));
+            line.release();
+        }
+        return lines;
+    }
+
+    private List<Integer> awaitLengths(BlockingQueue<Exception> exceptions, int count) throws InterruptedException {
+        List<Integer> lengths = new ArrayList<>();
+        Exception exception;
+        while (lengths.size() < count && (exception = exceptions.poll(5, TimeUnit.SECONDS)) != null) {
+            lengths.add(((KittehInputLineTooLongException) exception).getLength());
+        }
+        return lengths;
+    }
+
+    private static String line(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        return new String(chars);
+    }
+}
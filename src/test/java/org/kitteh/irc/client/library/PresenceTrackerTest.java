@@ -0,0 +1,98 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.event.user.MonitoredNickOfflineEvent;
+import org.kitteh.irc.client.library.event.user.MonitoredNickOnlineEvent;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Track nicks with ISON against a server supporting neither MONITOR nor
+ * WATCH.
+ */
+public class PresenceTrackerTest {
+    public static class Listener {
+        private final CountDownLatch online = new CountDownLatch(1);
+        private final List<String> offline = new CopyOnWriteArrayList<>();
+        private final PresenceTracker tracker;
+        private volatile Set<String> onlineNicks;
+
+        public Listener(PresenceTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        @Handler
+        public void online(MonitoredNickOnlineEvent event) throws Exception {
+            // Blocks forever if the tracker is still locked by the firing thread
+            this.onlineNicks = CompletableFuture.supplyAsync(this.tracker::getOnlineNicks).get(5, TimeUnit.SECONDS);
+            this.online.countDown();
+        }
+
+        @Handler
+        public void offline(MonitoredNickOfflineEvent event) {
+            this.offline.add(event.getNick());
+        }
+    }
+
+    @Test
+    public void testAddedNickPolled() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            server.setOnlineNicks("Cat");
+            Client client = server.clientBuilder().messageDelay(1).connect().get(10, TimeUnit.SECONDS);
+            try {
+                Listener listener = this.listen(client);
+                client.getPresenceTracker().addNicks("Cat");
+                Assert.assertTrue("Added nick not polled at once", listener.online.await(5, TimeUnit.SECONDS));
+                Assert.assertTrue(listener.onlineNicks.contains("Cat"));
+                Assert.assertTrue(client.getPresenceTracker().isOnline("cat"));
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+
+    @Test
+    public void testOtherIsonReply() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            server.setOnlineNicks("Cat");
+            Client client = server.clientBuilder().messageDelay(1).connect().get(10, TimeUnit.SECONDS);
+            try {
+                Listener listener = this.listen(client);
+                client.sendRawLine("ISON Dog");
+                client.getPresenceTracker().addNicks("Cat");
+                Assert.assertTrue("Reply to another ISON taken as ours", listener.online.await(5, TimeUnit.SECONDS));
+                Assert.assertTrue(listener.offline.isEmpty());
+                Assert.assertTrue(client.getPresenceTracker().isOnline("Cat"));
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+
+    @Test
+    public void testStartedOnce() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").messageDelay(1))) {
+            replay.register("MONITOR=100");
+            replay.getClient().getPresenceTracker().addNicks("Cat");
+            replay.handle(":irc.test 376 Kitteh :End of /MOTD command.");
+            // A requested MOTD ends the same way
+            replay.handle(":irc.test 375 Kitteh :- irc.test Message of the day -", ":irc.test 376 Kitteh :End of /MOTD command.");
+            List<String> sent = replay.getSent();
+            Assert.assertEquals(1, sent.stream().filter("MONITOR C"::equals).count());
+            Assert.assertEquals(1, sent.stream().filter(line -> line.startsWith("MONITOR + ")).count());
+        }
+    }
+
+    private Listener listen(Client client) {
+        Listener listener = new Listener(client.getPresenceTracker());
+        client.getEventManager().registerEventListener(listener);
+        return listener;
+    }
+}
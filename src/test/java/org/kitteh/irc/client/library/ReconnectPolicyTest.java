@@ -0,0 +1,169 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.event.client.ClientConnectedEvent;
+import org.kitteh.irc.client.library.event.client.ClientReconnectScheduledEvent;
+import org.kitteh.irc.client.library.event.client.ClientReconnectingEvent;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReconnectPolicyTest {
+    public static class Listener {
+        private final ReconnectPolicy policy;
+        private final AtomicInteger maxAttempting = new AtomicInteger();
+        private final Queue<Integer> scheduled = new ConcurrentLinkedQueue<>();
+        private volatile CountDownLatch connected;
+
+        private Listener(ReconnectPolicy policy, int clients) {
+            this.policy = policy;
+            this.connected = new CountDownLatch(clients);
+        }
+
+        @Handler
+        public void connected(ClientConnectedEvent event) {
+            this.connected.countDown();
+        }
+
+        @Handler
+        public void scheduled(ClientReconnectScheduledEvent event) {
+            this.scheduled.add(event.getAttempt());
+        }
+
+        @Handler
+        public void reconnecting(ClientReconnectingEvent event) {
+            this.maxAttempting.accumulateAndGet(this.policy.getCurrentAttempts(), Math::max);
+        }
+    }
+
+    @Test
+    public void testBackoff() {
+        ReconnectPolicy policy = new ReconnectPolicy.Builder().initialDelay(1, TimeUnit.SECONDS).maxDelay(10, TimeUnit.SECONDS).jitter(false).maxAttempts(20).build();
+        Assert.assertEquals(1000, policy.getDelay(1));
+        Assert.assertEquals(2000, policy.getDelay(2));
+        Assert.assertEquals(8000, policy.getDelay(4));
+        Assert.assertEquals(10000, policy.getDelay(5));
+        Assert.assertEquals(10000, policy.getDelay(20));
+        Assert.assertEquals(-1, policy.getDelay(21));
+    }
+
+    @Test
+    public void testJitter() {
+        ReconnectPolicy policy = new ReconnectPolicy.Builder().initialDelay(1, TimeUnit.SECONDS).build();
+        for (int attempt = 1; attempt < 100; attempt++) {
+            long delay = policy.getDelay(attempt);
+            Assert.assertTrue(delay >= 0 && delay <= Math.min(TimeUnit.MINUTES.toMillis(5), 1000L << Math.min(attempt - 1, 20)));
+        }
+    }
+
+    @Test
+    public void testConcurrencyCap() {
+        ReconnectPolicy policy = new ReconnectPolicy.Builder().maxConcurrentAttempts(2).build();
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int attempt = i;
+            policy.acquire(() -> ran.add(attempt));
+        }
+        Assert.assertEquals(2, ran.size());
+        Assert.assertEquals(2, policy.getCurrentAttempts());
+        policy.release();
+        Assert.assertEquals(3, ran.size());
+        policy.release();
+        policy.release();
+        Assert.assertEquals(4, ran.size());
+        Assert.assertEquals(1, policy.getCurrentAttempts());
+        policy.release();
+        Assert.assertEquals(0, policy.getCurrentAttempts());
+    }
+
+    @Test
+    public void testReconnectStorm() throws Exception {
+        int clients = 5;
+        ReconnectPolicy policy = new ReconnectPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).jitter(false).maxConcurrentAttempts(1).build();
+        Listener listener = new Listener(policy, clients);
+        try (FakeIRCServer server = new FakeIRCServer(); ClientManager manager = new ClientManager(1, 1)) {
+            manager.registerEventListener(listener);
+            List<ClientBuilder> builders = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                builders.add(server.clientBuilder().nick("Kitteh" + i).messageDelay(1).reconnectPolicy(policy));
+            }
+            manager.connect(builders, 0, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(listener.connected.await(10, TimeUnit.SECONDS));
+            for (int round = 0; round < 2; round++) {
+                listener.connected = new CountDownLatch(clients);
+                server.disconnectAll();
+                Assert.assertTrue("Not every client reconnected", listener.connected.await(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, listener.maxAttempting.get());
+            Assert.assertEquals(clients * 2, listener.scheduled.size());
+            Assert.assertTrue("Backoff not reset on registration", listener.scheduled.stream().allMatch(attempt -> attempt == 1));
+            Assert.assertEquals(0, policy.getCurrentAttempts());
+        }
+    }
+
+    @Test
+    public void testAttemptTimeout() throws Exception {
+        ReconnectPolicy policy = new ReconnectPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).jitter(false).maxConcurrentAttempts(1).attemptTimeout(300, TimeUnit.MILLISECONDS).build();
+        List<Socket> sockets = new CopyOnWriteArrayList<>();
+        BlockingQueue<Long> accepted = new LinkedBlockingQueue<>();
+        // Accepts connections but never registers anyone
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        sockets.add(server.accept());
+                        accepted.add(System.nanoTime());
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.start();
+            List<Client> clients = new ArrayList<>();
+            try {
+                for (int i = 0; i < 2; i++) {
+                    clients.add(new ClientBuilder().server(server.getInetAddress().getHostAddress()).server(server.getLocalPort()).nick("Kitteh" + i).reconnectPolicy(policy).listenException(exception -> {
+                    }).build());
+                }
+                Assert.assertEquals(2, this.take(accepted, 2).size());
+                Assert.assertTrue("First connections limited", accepted.isEmpty());
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+                List<Long> reconnected = this.take(accepted, 2);
+                Assert.assertEquals("Slot held by an unregistered attempt", 2, reconnected.size());
+                Assert.assertTrue("Slot released before the timeout", reconnected.get(1) - reconnected.get(0) >= TimeUnit.MILLISECONDS.toNanos(250));
+            } finally {
+                clients.forEach(client -> client.shutdown(null));
+                server.close();
+                acceptor.join(5000);
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    private <T> List<T> take(BlockingQueue<T> queue, int count) throws InterruptedException {
+        List<T> taken = new ArrayList<>();
+        T element;
+        while (taken.size() < count && (element = queue.poll(5, TimeUnit.SECONDS)) != null) {
+            taken.add(element);
+        }
+        return taken;
+    }
+}
@@ -0,0 +1,56 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.exception.KittehConnectionException;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Negotiate SASL with a client, including a server that never answers.
+ */
+public class SaslTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testExternalWithoutCertificate() {
+        new ClientBuilder().auth(AuthType.SASL_EXTERNAL, "kitteh", "").secure(true).build();
+    }
+
+    @Test
+    public void testUnanswered() throws Exception {
+        BlockingQueue<Exception> exceptions = new LinkedBlockingQueue<>();
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").auth(AuthType.SASL_PLAIN, "kitteh", "meow").listenException(exceptions::add))) {
+            IRCClient client = this.authenticate(replay);
+            client.abortSasl();
+            Assert.assertNotNull("Never ended negotiation", replay.awaitSent("CAP END"::equals, 5000));
+            List<String> sent = replay.getSent();
+            Assert.assertTrue(sent.indexOf("AUTHENTICATE *") < sent.indexOf("CAP END"));
+            Exception exception = exceptions.poll(5, TimeUnit.SECONDS);
+            Assert.assertTrue(exception instanceof KittehConnectionException);
+            Assert.assertFalse(((KittehConnectionException) exception).isFatal());
+        }
+    }
+
+    @Test
+    public void testAnswered() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").auth(AuthType.SASL_PLAIN, "kitteh", "meow"))) {
+            IRCClient client = this.authenticate(replay);
+            client.handleLine("AUTHENTICATE +");
+            client.handleLine(":irc.test 903 Kitteh :SASL authentication successful");
+            client.abortSasl();
+            List<String> sent = replay.getSent();
+            Assert.assertFalse("Aborted once answered", sent.contains("AUTHENTICATE *"));
+            Assert.assertEquals(1, sent.stream().filter("CAP END"::equals).count());
+        }
+    }
+
+    private IRCClient authenticate(TrafficReplay replay) throws InterruptedException {
+        IRCClient client = (IRCClient) replay.getClient();
+        client.handleLine(":irc.test CAP * LS :sasl");
+        client.handleLine(":irc.test CAP * ACK :sasl");
+        Assert.assertNotNull(replay.awaitSent("AUTHENTICATE PLAIN"::equals, 5000));
+        return client;
+    }
+}
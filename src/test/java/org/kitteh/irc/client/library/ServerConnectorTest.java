@@ -0,0 +1,114 @@
+package org.kitteh.irc.client.library;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ServerConnectorTest {
+    @Test
+    public void testInterleave() throws Exception {
+        InetAddress v6a = InetAddress.getByName("::1");
+        InetAddress v6b = InetAddress.getByName("fe80::1");
+        InetAddress v4a = InetAddress.getByName("127.0.0.1");
+        InetAddress v4b = InetAddress.getByName("127.0.0.2");
+        InetAddress v4c = InetAddress.getByName("127.0.0.3");
+        List<SocketAddress> order = ServerConnector.interleave(new InetAddress[]{v6a, v6b, v4a, v4b, v4c}, 6667);
+        Assert.assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v4c), order.stream().map(address -> ((InetSocketAddress) address).getAddress()).collect(Collectors.toList()));
+        Assert.assertEquals(6667, ((InetSocketAddress) order.get(0)).getPort());
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            String host = InetAddress.getLoopbackAddress().getHostAddress();
+            Client client = new ClientBuilder().server(host).server(closedPort).fallbackServer(host, server.getPort()).build();
+            try {
+                Assert.assertNotNull("Never failed over", server.awaitLine(line -> line.startsWith("NICK"), 10000));
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+
+    @Test
+    public void testConnectFuture() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            Client client = server.clientBuilder().connect().get(5, TimeUnit.SECONDS);
+            client.shutdown(null);
+        }
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        IRCClient client = (IRCClient) new ClientBuilder().server(InetAddress.getLoopbackAddress().getHostAddress()).server(closedPort).reconnectPolicy(null).listenException(exception -> {
+        }).build();
+        try {
+            client.whenConnected().get(5, TimeUnit.SECONDS);
+            Assert.fail("Connected to a closed port");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ConnectException);
+        } finally {
+            client.shutdown(null);
+        }
+    }
+
+    @Test
+    public void testLoopGone() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            IRCClient client = (IRCClient) server.clientBuilder().build();
+            NioEventLoopGroup group = new NioEventLoopGroup(1);
+            try {
+                EventLoop loop = group.next();
+                group.shutdownGracefully(0, 0, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+                Bootstrap bootstrap = new Bootstrap().group(loop).channel(NioSocketChannel.class).handler(new ChannelInboundHandlerAdapter());
+                Future<Channel> future = client.getServerConnector().connect(bootstrap, loop);
+                Assert.assertTrue("Never failed", future.await(5, TimeUnit.SECONDS));
+                Assert.assertTrue(future.cause() instanceof RejectedExecutionException);
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+
+    @Test
+    public void testSelection() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            IRCClient client = (IRCClient) server.clientBuilder().fallbackServer("second.test", 6667).fallbackServer("third.test", 6697).serverSelection(ServerSelection.ROUND_ROBIN).build();
+            try {
+                List<SocketAddress> first = client.getServerConnector().getServers();
+                List<SocketAddress> second = client.getServerConnector().getServers();
+                Assert.assertEquals(3, first.size());
+                Assert.assertEquals(InetSocketAddress.createUnresolved("second.test", 6667), first.get(0));
+                Assert.assertEquals(first.get(1), second.get(0));
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kitteh.irc.client.library.event.client.SSLCertificateAcceptEvent;
+
+import javax.net.ssl.SSLContext;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connect secured clients to a fake server with a self-signed certificate.
+ */
+public class SslContextCacheTest {
+    public static class Listener {
+        private final Map<Client, AtomicInteger> checks = new ConcurrentHashMap<>();
+
+        @Handler
+        public void certificate(SSLCertificateAcceptEvent event) {
+            this.checks.computeIfAbsent(event.getClient(), client -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    @ClassRule
+    public static final TemporaryFolder FOLDER = new TemporaryFolder();
+    private static SSLContext serverContext;
+
+    @BeforeClass
+    public static void createCertificate() throws Exception {
+        serverContext = FakeIRCServer.createSslContext(FOLDER.getRoot());
+    }
+
+    @Test
+    public void testSharedContext() throws Exception {
+        Listener listener = new Listener();
+        try (FakeIRCServer server = new FakeIRCServer(serverContext); ClientManager manager = new ClientManager(1, 1)) {
+            manager.registerEventListener(listener);
+            ReconnectPolicy policy = new ReconnectPolicy.Builder().initialDelay(100, TimeUnit.MILLISECONDS).jitter(false).build();
+            IRCClient first = (IRCClient) server.clientBuilder().manager(manager).secure(true).reconnectPolicy(policy).nick("First").connect().get(10, TimeUnit.SECONDS);
+            // A session whose certificate was still being checked isn't resumable, so reconnect once it's pinned
+            server.disconnectAll();
+            Assert.assertEquals(2, server.awaitLines(line -> line.equals("NICK First"), 2, 5000).size());
+            IRCClient second = (IRCClient) server.clientBuilder().manager(manager).secure(true).nick("Second").connect().get(10, TimeUnit.SECONDS);
+            IRCClient unmanaged = (IRCClient) server.clientBuilder().secure(true).nick("Third").build();
+            unmanaged.getEventManager().registerEventListener(listener);
+            Assert.assertNotNull(server.awaitLine(line -> line.equals("NICK Second"), 5000));
+            Assert.assertSame(SslContextCache.get(first), SslContextCache.get(second));
+            Assert.assertNotSame(SslContextCache.get(first), SslContextCache.get(unmanaged));
+            Assert.assertEquals(1, listener.checks.get(first).get());
+            Assert.assertNull("Session not resumed", listener.checks.get(second));
+            Assert.assertNotNull(server.awaitLine(line -> line.equals("NICK Third"), 5000));
+            Assert.assertEquals("Session shared outside the manager", 1, listener.checks.get(unmanaged).get());
+            unmanaged.shutdown(null);
+        }
+    }
+}
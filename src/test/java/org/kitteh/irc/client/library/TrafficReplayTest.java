@@ -0,0 +1,54 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record a session against the fake server and play it back.
+ */
+public class TrafficReplayTest {
+    public static class Listener {
+        private final CountDownLatch users = new CountDownLatch(1);
+        private volatile String thread;
+
+        @Handler
+        public void users(ChannelUsersUpdatedEvent event) {
+            this.thread = Thread.currentThread().getName();
+            this.users.countDown();
+        }
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        File recording = File.createTempFile("kitteh", ".rec");
+        recording.deleteOnExit();
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            server.setChannelUsers(200);
+            Client client = server.clientBuilder().nick("Kitteh").recordInput(recording).build();
+            Listener listener = new Listener();
+            client.getEventManager().registerEventListener(listener);
+            client.addChannel("#test");
+            Assert.assertTrue(listener.users.await(10, TimeUnit.SECONDS));
+            client.shutdown("Done");
+            Assert.assertTrue("Recording never closed", ((IRCClient) client).getTrafficRecorder().awaitShutdown(5000));
+        }
+
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            Listener listener = new Listener();
+            replay.getClient().getEventManager().registerEventListener(listener);
+            Assert.assertTrue(replay.replay(recording, TrafficReplay.Speed.MAXIMUM) > 5);
+            Assert.assertEquals(0, listener.users.getCount());
+            Assert.assertTrue("Not handled with the client's input", listener.thread.startsWith("Kitteh IRC Client Input Processor"));
+            Channel channel = replay.getClient().getChannel("#test");
+            Assert.assertNotNull(channel);
+            Assert.assertEquals(201, channel.getUsers().size());
+        }
+    }
+}
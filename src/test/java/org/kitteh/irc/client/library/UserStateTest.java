@@ -0,0 +1,115 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.user.UserAccountStatusEvent;
+import org.kitteh.irc.client.library.event.user.UserAwayMessageEvent;
+import org.kitteh.irc.client.library.event.user.UserHostnameChangeEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keep user state current from AWAY, ACCOUNT and CHGHOST.
+ */
+public class UserStateTest {
+    public static class Listener {
+        private final List<UserAccountStatusEvent> accounts = new CopyOnWriteArrayList<>();
+        private final List<UserAwayMessageEvent> aways = new CopyOnWriteArrayList<>();
+        private final List<UserHostnameChangeEvent> hosts = new CopyOnWriteArrayList<>();
+
+        @Handler
+        public void account(UserAccountStatusEvent event) {
+            this.accounts.add(event);
+        }
+
+        @Handler
+        public void away(UserAwayMessageEvent event) {
+            this.aways.add(event);
+        }
+
+        @Handler
+        public void host(UserHostnameChangeEvent event) {
+            this.hosts.add(event);
+        }
+    }
+
+    @Test
+    public void testAccount() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":Cat!cat@host ACCOUNT catacct");
+            Assert.assertEquals("catacct", this.cat(client, "#test").getAccount());
+            Assert.assertEquals("Not tracked in every channel", "catacct", this.cat(client, "#other").getAccount());
+            Assert.assertEquals("catacct", listener.accounts.get(0).getAccount());
+            Assert.assertEquals("catacct", listener.accounts.get(0).getActor().getAccount());
+
+            client.handleLine(":Cat!cat@host ACCOUNT *");
+            Assert.assertNull(this.cat(client, "#test").getAccount());
+            Assert.assertNull(listener.accounts.get(1).getAccount());
+        }
+    }
+
+    @Test
+    public void testAway() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            Listener listener = this.listen(client);
+            client.handleLine(":Cat!cat@host AWAY :Napping");
+            Assert.assertTrue(this.cat(client, "#test").isAway());
+            Assert.assertTrue(this.cat(client, "#other").isAway());
+            Assert.assertTrue(listener.aways.get(0).isAway());
+            Assert.assertEquals("Napping", listener.aways.get(0).getAwayMessage());
+
+            client.handleLine(":Cat!cat@host AWAY");
+            Assert.assertFalse(this.cat(client, "#test").isAway());
+            Assert.assertFalse(listener.aways.get(1).isAway());
+        }
+    }
+
+    @Test
+    public void testHostnameChange() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.join(replay);
+            client.handleLine(":Cat!cat@host ACCOUNT catacct");
+            client.handleLine(":Cat!cat@host AWAY :Napping");
+            Listener listener = this.listen(client);
+            client.handleLine(":Cat!cat@host CHGHOST newcat new.host");
+            for (String channel : new String[]{"#test", "#other"}) {
+                User cat = this.cat(client, channel);
+                Assert.assertEquals("newcat", cat.getUser());
+                Assert.assertEquals("new.host", cat.getHost());
+                Assert.assertEquals("State lost with the new host", "catacct", cat.getAccount());
+                Assert.assertTrue(cat.isAway());
+            }
+            Assert.assertEquals("+", client.getChannel("#test").getUserModes("Cat").stream().map(mode -> String.valueOf(mode.getPrefix())).findFirst().orElse(null));
+            UserHostnameChangeEvent event = listener.hosts.get(0);
+            Assert.assertEquals("host", event.getActor().getHost());
+            Assert.assertEquals("new.host", event.getNewUser().getHost());
+        }
+    }
+
+    private IRCClient join(TrafficReplay replay) {
+        IRCClient client = (IRCClient) replay.getClient();
+        replay.register();
+        for (String channel : new String[]{"#test", "#other"}) {
+            client.handleLine(":Kitteh!kitteh@test JOIN " + channel);
+            client.handleLine(":irc.test 353 Kitteh = " + channel + " :@Kitteh!kitteh@test +Cat!cat@host");
+            client.handleLine(":irc.test 366 Kitteh " + channel + " :End of /NAMES list.");
+        }
+        return client;
+    }
+
+    private Listener listen(IRCClient client) {
+        Listener listener = new Listener();
+        client.getEventManager().registerEventListener(listener);
+        return listener;
+    }
+
+    private User cat(IRCClient client, String channel) {
+        return client.getChannel(channel).getUser("Cat");
+    }
+}
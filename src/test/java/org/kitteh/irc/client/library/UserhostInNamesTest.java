@@ -0,0 +1,102 @@
+package org.kitteh.irc.client.library;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.User;
+import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
+import org.kitteh.irc.client.library.event.channel.ChannelUsersUpdatedEvent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check when full user lists from NAMES make WHO unnecessary, and that
+ * JOINs are only read as extended when extended-join is acknowledged.
+ */
+public class UserhostInNamesTest {
+    public static class Listener {
+        private final CountDownLatch users = new CountDownLatch(1);
+        private final CountDownLatch joined = new CountDownLatch(1);
+        private volatile User joinedUser;
+
+        @Handler
+        public void users(ChannelUsersUpdatedEvent event) {
+            this.users.countDown();
+        }
+
+        @Handler
+        public void join(ChannelJoinEvent event) {
+            if (event.getUser().getNick().equals("Cow")) {
+                this.joinedUser = event.getUser();
+                this.joined.countDown();
+            }
+        }
+    }
+
+    private FakeIRCServer server;
+    private Client client;
+
+    @Before
+    public void start() throws InterruptedException {
+        this.server = new FakeIRCServer();
+        this.server.setChannelUsers(20);
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        if (this.client != null) {
+            this.client.shutdown("Done");
+        }
+        this.server.close();
+    }
+
+    @Test
+    public void testNothingToAdd() throws InterruptedException {
+        this.server.setCapabilities("userhost-in-names");
+        Listener listener = this.connect();
+        Assert.assertTrue("Channel not complete at end of NAMES", listener.users.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("host5.test", this.client.getChannel("#test").getUser("User5").getHost());
+        Assert.assertNull("Sent WHO with nothing to add", this.server.awaitLine(line -> line.startsWith("WHO"), 500));
+    }
+
+    @Test
+    public void testAccountsNeeded() throws InterruptedException {
+        this.server.setCapabilities("userhost-in-names account-notify extended-join");
+        Listener listener = this.connect();
+        Assert.assertNotNull("Accounts never fetched", this.server.awaitLine(line -> line.equals("WHO #test"), 5000));
+        Assert.assertTrue(listener.users.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(21, this.client.getChannel("#test").getUsers().size());
+    }
+
+    @Test
+    public void testExtendedJoin() throws InterruptedException {
+        this.server.setCapabilities("extended-join");
+        Listener listener = this.connect();
+        Assert.assertTrue(listener.users.await(5, TimeUnit.SECONDS));
+        this.server.send(":Cow!cow@host JOIN #test cowacct :Cow Real");
+        Assert.assertTrue(listener.joined.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("cowacct", listener.joinedUser.getAccount());
+        Assert.assertEquals("Cow Real", listener.joinedUser.getRealName());
+    }
+
+    @Test
+    public void testExtendedJoinNotAcknowledged() throws InterruptedException {
+        Listener listener = this.connect();
+        Assert.assertTrue(listener.users.await(5, TimeUnit.SECONDS));
+        this.server.send(":Cow!cow@host JOIN #test cowacct :Cow Real");
+        Assert.assertTrue(listener.joined.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(listener.joinedUser.getAccount());
+        Assert.assertNull(listener.joinedUser.getRealName());
+    }
+
+    private Listener connect() {
+        this.client = this.server.clientBuilder().nick("Kitteh").messageDelay(1).build();
+        Listener listener = new Listener();
+        this.client.getEventManager().registerEventListener(listener);
+        this.client.addChannel("#test");
+        return listener;
+    }
+}
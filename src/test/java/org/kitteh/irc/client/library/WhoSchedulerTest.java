@@ -0,0 +1,60 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drive a scheduler of a connected client, against a server which never
+ * ends WHO replies itself.
+ */
+public class WhoSchedulerTest {
+    @Test
+    public void testTimeout() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            server.setWhoReplies(FakeIRCServer.WhoReplies.NONE);
+            IRCClient client = (IRCClient) server.clientBuilder().messageDelay(1).connect().get(10, TimeUnit.SECONDS);
+            try {
+                WhoScheduler scheduler = new WhoScheduler(client, 200);
+                long start = System.nanoTime();
+                scheduler.request("#first", false);
+                scheduler.request("#second", false);
+                Assert.assertNotNull(server.awaitLine(line -> line.equals("WHO #first"), 5000));
+                FakeIRCServer.ReceivedLine second = server.awaitLine(line -> line.equals("WHO #second"), 5000);
+                Assert.assertNotNull("Stalled after an unanswered WHO", second);
+                Assert.assertTrue("Gave up before the timeout", second.getTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+
+    @Test
+    public void testPerTargetReplies() throws Exception {
+        try (FakeIRCServer server = new FakeIRCServer()) {
+            server.setWhoReplies(FakeIRCServer.WhoReplies.NONE);
+            server.setISupport("CASEMAPPING=rfc1459 CHANTYPES=# TARGMAX=WHO:2");
+            IRCClient client = (IRCClient) server.clientBuilder().messageDelay(1).connect().get(10, TimeUnit.SECONDS);
+            try {
+                WhoScheduler scheduler = new WhoScheduler(client, 60000);
+                scheduler.request("#a", false);
+                scheduler.request("#b", false);
+                scheduler.request("#c", false);
+                Assert.assertNotNull(server.awaitLine(line -> line.equals("WHO #a"), 5000));
+                scheduler.complete("#a");
+                Assert.assertNotNull(server.awaitLine(line -> line.equals("WHO #b,#c"), 5000));
+                scheduler.request("#d", false);
+                scheduler.complete("#B");
+                scheduler.complete("#c");
+                Assert.assertNotNull("Stalled after replies ended per target", server.awaitLine(line -> line.equals("WHO #d"), 5000));
+                List<String> whos = server.getReceived(line -> line.startsWith("WHO")).stream().map(FakeIRCServer.ReceivedLine::getLine).collect(Collectors.toList());
+                Assert.assertEquals(3, whos.size());
+            } finally {
+                client.shutdown(null);
+            }
+        }
+    }
+}
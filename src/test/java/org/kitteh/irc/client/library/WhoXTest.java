@@ -0,0 +1,96 @@
+package org.kitteh.irc.client.library;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kitteh.irc.client.library.element.Channel;
+import org.kitteh.irc.client.library.element.User;
+
+import java.util.stream.Collectors;
+
+/**
+ * Feed WHO and WHOX replies to a client.
+ */
+public class WhoXTest {
+    @Test
+    public void testRequest() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh").messageDelay(1))) {
+            IRCClient client = this.register(replay, "WHOX");
+            client.handleLine(":Kitteh!kitteh@test JOIN #test");
+            Assert.assertEquals("WHO #test %tcuhnfar,724", replay.awaitSent(line -> line.startsWith("WHO "), 5000));
+        }
+    }
+
+    @Test
+    public void testReply() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.register(replay, "WHOX");
+            client.handleLine(":Kitteh!kitteh@test JOIN #test");
+            client.handleLine(":irc.test 354 Kitteh 724 #test kitteh test Kitteh H@ 0 :Kitteh");
+            client.handleLine(":irc.test 354 Kitteh 724 #test cat host.cat Cat H+ catacct :Cat Real");
+            client.handleLine(":irc.test 354 Kitteh 724 #test dog host.dog Dog G 0 :Dog Real");
+            client.handleLine(":irc.test 354 Kitteh 123 #test cow host.cow Cow H cowacct :Not ours");
+            client.handleLine(":irc.test 315 Kitteh #test :End of /WHO list.");
+
+            Channel channel = client.getChannel("#test");
+            Assert.assertTrue(channel.isComplete());
+            Assert.assertEquals(3, channel.getUsers().size());
+            Assert.assertNull("Reply with another token tracked", channel.getUser("Cow"));
+
+            User cat = channel.getUser("Cat");
+            Assert.assertEquals("host.cat", cat.getHost());
+            Assert.assertEquals("cat", cat.getUser());
+            Assert.assertEquals("catacct", cat.getAccount());
+            Assert.assertEquals("Cat Real", cat.getRealName());
+            Assert.assertFalse(cat.isAway());
+            Assert.assertEquals("+", this.prefixes(channel, "Cat"));
+
+            User dog = channel.getUser("Dog");
+            Assert.assertNull(dog.getAccount());
+            Assert.assertTrue(dog.isAway());
+            Assert.assertEquals("Dog Real", dog.getRealName());
+            Assert.assertEquals("", this.prefixes(channel, "Dog"));
+            Assert.assertEquals("@", this.prefixes(channel, "Kitteh"));
+        }
+    }
+
+    @Test
+    public void testPlainReply() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.register(replay, "NETWORK=Kittens");
+            client.handleLine(":Kitteh!kitteh@test JOIN #test");
+            client.handleLine(":irc.test 352 Kitteh #test cat host.cat irc.test Cat G@ :0 Cat Real");
+            client.handleLine(":irc.test 315 Kitteh #test :End of /WHO list.");
+            User cat = client.getChannel("#test").getUser("Cat");
+            Assert.assertEquals("host.cat", cat.getHost());
+            Assert.assertNull(cat.getAccount());
+            Assert.assertEquals("Cat Real", cat.getRealName());
+            Assert.assertTrue(cat.isAway());
+            Assert.assertEquals("@", this.prefixes(client.getChannel("#test"), "Cat"));
+        }
+    }
+
+    @Test
+    public void testPlainReplyKeepsAccount() throws Exception {
+        try (TrafficReplay replay = new TrafficReplay(new ClientBuilder().nick("Kitteh"))) {
+            IRCClient client = this.register(replay, "NETWORK=Kittens");
+            client.handleLine(":Kitteh!kitteh@test JOIN #test");
+            client.handleLine(":Cat!cat@host JOIN #test");
+            client.handleLine(":Cat!cat@host ACCOUNT catacct");
+            client.handleLine(":irc.test 352 Kitteh #test cat host irc.test Cat H :0 Cat Real");
+            client.handleLine(":irc.test 315 Kitteh #gone,#test :End of /WHO list.");
+            Channel channel = client.getChannel("#test");
+            Assert.assertTrue(channel.isComplete());
+            Assert.assertEquals("Account lost to a reply without one", "catacct", channel.getUser("Cat").getAccount());
+            Assert.assertEquals("Cat Real", channel.getUser("Cat").getRealName());
+        }
+    }
+
+    private IRCClient register(TrafficReplay replay, String iSupport) {
+        replay.register(iSupport);
+        return (IRCClient) replay.getClient();
+    }
+
+    private String prefixes(Channel channel, String nick) {
+        return channel.getUserModes(nick).stream().map(mode -> String.valueOf(mode.getPrefix())).sorted().collect(Collectors.joining());
+    }
+}